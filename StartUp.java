@@ -18,6 +18,8 @@
  * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
  */
 import index.CellMethod;
+import index.PackedRTree;
+import index.SpatialIndex;
 
 import java.awt.BorderLayout;
 import java.awt.GraphicsEnvironment;
@@ -81,7 +83,9 @@ public class StartUp {
 
 		try {
 			statusbar.startReading("初期設定");
-			panel.init(new MapDataManager(mapDir, panel, new CellMethod(mapDir + File.separatorChar + "index"), statusbar));
+			MapDataManager maps = new MapDataManager(mapDir, panel, StartUp.openIndex(mapDir + File.separatorChar + "index"), statusbar);
+			controller.setPrefetcher(maps.getPrefetcher());
+			panel.init(maps);
 		} catch (IOException e) {
 			statusbar.startReading("ERROR "+ e.getMessage());
 		}
@@ -92,6 +96,38 @@ public class StartUp {
 		statusbar.setThreadPriority(Thread.MIN_PRIORITY);
 	}
 	
+	/**
+	 * メモリマップできない場合にキャッシュするセルの数
+	 */
+	private static final int DEFAULT_CELL_CACHE = 4096;
+
+	/**
+	 * 空間インデックスを開きます。
+	 * システムプロパティ map.index に rtree を指定し、R-treeのファイルがあればR-treeを用います。
+	 * それ以外の場合はセルメソッドを用います。
+	 * セルメソッドはシステムプロパティ map.cellCache でキャッシュするセルの数を指定できます。
+	 * 指定しなければ、メモリマップできない場合のみキャッシュします。
+	 * @param dir インデックスデータのディレクトリ
+	 * @return 空間インデックス
+	 * @throws IOException 入出力エラー
+	 */
+	private static SpatialIndex openIndex(String dir) throws IOException {
+		if ("rtree".equals(System.getProperty("map.index"))) {
+			if (PackedRTree.exists(dir)) {
+				Log.out(StartUp.class, "spatial index: R-tree");
+				return new PackedRTree(dir);
+			}
+			Log.err(StartUp.class, PackedRTree.FILE_NAME + " not found, use cell method.");
+		}
+		CellMethod cell = new CellMethod(dir, true);
+		int cache = Integer.getInteger("map.cellCache", cell.isMapped() ? 0 : DEFAULT_CELL_CACHE);
+		if (cache > 0) {
+			Log.out(StartUp.class, "cell cache: " + cache + " cells");
+			cell.setCacheSize(cache);
+		}
+		return cell;
+	}
+
 	/**
 	 * インスタンス生成不要
 	 */
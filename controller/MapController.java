@@ -7,6 +7,7 @@ import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 
+import map.Prefetcher;
 import view.MapPanel;
 
 /**
@@ -34,6 +35,11 @@ public class MapController implements MouseListener, MouseMotionListener, MouseW
 	 * 操作の中心位置（マウス位置）のY座標
 	 */
 	private int y;
+
+	/**
+	 * 都道府県データの先読み（先読みしなければnull）
+	 */
+	private Prefetcher prefetcher;
 	
 	/**
 	 * @param panel 地図表示のためのパネル
@@ -45,6 +51,14 @@ public class MapController implements MouseListener, MouseMotionListener, MouseW
 		this.y = panel.getHeight() / 2;
 	}
 
+	/**
+	 * 操作を通知する先読みクラスを設定します。
+	 * @param prefetcher 先読みクラス
+	 */
+	public void setPrefetcher(Prefetcher prefetcher) {
+		this.prefetcher = prefetcher;
+	}
+
 	public float getLocationMouseX() {
 		return (float) this.panel.getLocationX(this.x);
 	}
@@ -66,6 +80,9 @@ public class MapController implements MouseListener, MouseMotionListener, MouseW
 		// 平行移動
 		this.panel.setOperation(true);
 		this.panel.moveLocation(dx, dy);
+		if (this.prefetcher != null) {
+			this.prefetcher.move(dx, dy, e.getWhen(), this.panel.getScreen(), this.panel.getWidth(), this.panel.getMode());
+		}
 		this.panel.repaint();
 	}
 
@@ -108,6 +125,9 @@ public class MapController implements MouseListener, MouseMotionListener, MouseW
 	public void mouseWheelMoved(MouseWheelEvent e) {
 		int d = e.getWheelRotation();
 		this.panel.zoom(e.getX(), e.getY(), d);
+		if (this.prefetcher != null) {
+			this.prefetcher.zoom(d, e.getWhen(), this.panel.getScreen(), this.panel.getWidth(), this.panel.getMode());
+		}
 		this.panel.repaint();
 	}
 
@@ -0,0 +1,320 @@
+package index;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Random;
+
+import util.Log;
+
+/**
+ * 外接長方形を格子状のバケットに登録した空間インデックス
+ *
+ * 読み込んだ地図データのポリゴンなど、メモリ上の図形の外接長方形を、全体の範囲を等分した格子のバケットに登録します。
+ * 外接長方形とバケットは配列に詰めて保持し、検索時には結果の配列以外のインスタンスを生成しません。
+ * 複数のバケットにまたがる図形は、検索範囲と重なる最初のバケットでのみ返すため、重複を除くための状態を持たず、
+ * 複数のスレッドから同時に検索することができます。
+ * 交差判定はRectangle.intersectsと同じく、幅または高さが0以下の外接長方形は交差しないものとします。
+ * @author ma38su
+ */
+public class BoundsIndex {
+
+	/**
+	 * 1つのバケットに登録する図形の数の目安
+	 */
+	private static final int BUCKET_SIZE = 4;
+
+	/**
+	 * 格子の1辺の分割数の上限
+	 */
+	private static final int MAX_DIVISION = 256;
+
+	/**
+	 * 図形の外接長方形（x, y, width, heightの順）
+	 */
+	private final int[] bounds;
+
+	/**
+	 * 格子の左端のX座標
+	 */
+	private final int minX;
+
+	/**
+	 * 格子の下端のY座標
+	 */
+	private final int minY;
+
+	/**
+	 * バケットの幅
+	 */
+	private final long cellWidth;
+
+	/**
+	 * バケットの高さ
+	 */
+	private final long cellHeight;
+
+	/**
+	 * 格子の列数
+	 */
+	private final int columns;
+
+	/**
+	 * 格子の行数
+	 */
+	private final int rows;
+
+	/**
+	 * バケットごとの、this.itemsの先頭位置（行優先、末尾に全体の数）
+	 */
+	private final int[] bucketStart;
+
+	/**
+	 * バケットに登録した図形のインデックス
+	 */
+	private final int[] items;
+
+	/**
+	 * ポリゴンの空間インデックスを作成します。
+	 * ポリゴンの外接長方形を計算するため、描画時の遅延初期化も避けられます。
+	 * @param polygons ポリゴン
+	 */
+	public BoundsIndex(Polygon[] polygons) {
+		this(BoundsIndex.getBounds(polygons));
+	}
+
+	/**
+	 * 外接長方形の空間インデックスを作成します。
+	 * @param bounds 外接長方形
+	 */
+	public BoundsIndex(Rectangle[] bounds) {
+		int n = bounds.length;
+		this.bounds = new int[n * 4];
+		long minX = Long.MAX_VALUE;
+		long minY = Long.MAX_VALUE;
+		long maxX = Long.MIN_VALUE;
+		long maxY = Long.MIN_VALUE;
+		for (int i = 0; i < n; i++) {
+			Rectangle r = bounds[i];
+			this.bounds[i * 4] = r.x;
+			this.bounds[i * 4 + 1] = r.y;
+			this.bounds[i * 4 + 2] = r.width;
+			this.bounds[i * 4 + 3] = r.height;
+			if (r.width > 0 && r.height > 0) {
+				minX = Math.min(minX, r.x);
+				minY = Math.min(minY, r.y);
+				maxX = Math.max(maxX, (long) r.x + r.width);
+				maxY = Math.max(maxY, (long) r.y + r.height);
+			}
+		}
+		if (minX > maxX) {
+			// 交差しうる図形がない
+			minX = maxX = minY = maxY = 0;
+		}
+		this.minX = (int) minX;
+		this.minY = (int) minY;
+		int division = (int) Math.ceil(Math.sqrt((double) n / BUCKET_SIZE));
+		division = Math.max(1, Math.min(MAX_DIVISION, division));
+		this.columns = division;
+		this.rows = division;
+		this.cellWidth = Math.max(1, (maxX - minX + division) / division);
+		this.cellHeight = Math.max(1, (maxY - minY + division) / division);
+
+		// バケットごとの図形の数を数えてから、図形のインデックスを詰める
+		this.bucketStart = new int[this.columns * this.rows + 1];
+		for (int i = 0; i < n; i++) {
+			if (this.isValid(i)) {
+				for (int y = this.row(this.bounds[i * 4 + 1]), y1 = this.row((long) this.bounds[i * 4 + 1] + this.bounds[i * 4 + 3]); y <= y1; y++) {
+					for (int x = this.column(this.bounds[i * 4]), x1 = this.column((long) this.bounds[i * 4] + this.bounds[i * 4 + 2]); x <= x1; x++) {
+						this.bucketStart[y * this.columns + x + 1]++;
+					}
+				}
+			}
+		}
+		for (int i = 1; i < this.bucketStart.length; i++) {
+			this.bucketStart[i] += this.bucketStart[i - 1];
+		}
+		this.items = new int[this.bucketStart[this.bucketStart.length - 1]];
+		int[] next = Arrays.copyOf(this.bucketStart, this.bucketStart.length - 1);
+		for (int i = 0; i < n; i++) {
+			if (this.isValid(i)) {
+				for (int y = this.row(this.bounds[i * 4 + 1]), y1 = this.row((long) this.bounds[i * 4 + 1] + this.bounds[i * 4 + 3]); y <= y1; y++) {
+					for (int x = this.column(this.bounds[i * 4]), x1 = this.column((long) this.bounds[i * 4] + this.bounds[i * 4 + 2]); x <= x1; x++) {
+						this.items[next[y * this.columns + x]++] = i;
+					}
+				}
+			}
+		}
+	}
+
+	private static Rectangle[] getBounds(Polygon[] polygons) {
+		Rectangle[] bounds = new Rectangle[polygons.length];
+		for (int i = 0; i < polygons.length; i++) {
+			bounds[i] = polygons[i].getBounds();
+		}
+		return bounds;
+	}
+
+	private boolean isValid(int i) {
+		return this.bounds[i * 4 + 2] > 0 && this.bounds[i * 4 + 3] > 0;
+	}
+
+	/**
+	 * X座標を含む列を返します。格子の外側は端の列とします。
+	 */
+	private int column(long x) {
+		long column = (x - this.minX) / this.cellWidth;
+		return (int) Math.max(0, Math.min(this.columns - 1, column));
+	}
+
+	/**
+	 * Y座標を含む行を返します。格子の外側は端の行とします。
+	 */
+	private int row(long y) {
+		long row = (y - this.minY) / this.cellHeight;
+		return (int) Math.max(0, Math.min(this.rows - 1, row));
+	}
+
+	/**
+	 * 範囲と外接長方形が交差する図形を検索します。
+	 * @param area 検索範囲
+	 * @return 交差する図形のインデックス（昇順）
+	 */
+	public int[] search(Rectangle area) {
+		if (area.width <= 0 || area.height <= 0 || this.items.length == 0) {
+			return new int[0];
+		}
+		int x0 = this.column(area.x);
+		int y0 = this.row(area.y);
+		int x1 = this.column((long) area.x + area.width);
+		int y1 = this.row((long) area.y + area.height);
+		int[] result = new int[16];
+		int n = 0;
+		for (int y = y0; y <= y1; y++) {
+			for (int x = x0; x <= x1; x++) {
+				int bucket = y * this.columns + x;
+				for (int k = this.bucketStart[bucket], end = this.bucketStart[bucket + 1]; k < end; k++) {
+					int i = this.items[k];
+					int p = i * 4;
+					// 図形の登録されたバケットのうち、検索範囲と重なる最初のバケットでのみ返す
+					if (Math.max(this.column(this.bounds[p]), x0) != x || Math.max(this.row(this.bounds[p + 1]), y0) != y) {
+						continue;
+					}
+					if (BoundsIndex.intersects(this.bounds[p], this.bounds[p + 1], this.bounds[p + 2], this.bounds[p + 3], area)) {
+						if (n == result.length) {
+							result = Arrays.copyOf(result, n << 1);
+						}
+						result[n++] = i;
+					}
+				}
+			}
+		}
+		// 描画順を保つため、元の配列の順に並べる
+		Arrays.sort(result, 0, n);
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * すべてのポリゴンの外接長方形と範囲を比較し、交差するポリゴンを返します。
+	 * 空間インデックスがない場合に使います。
+	 * @param polygons ポリゴン
+	 * @param area 検索範囲
+	 * @return 交差するポリゴンのインデックス（昇順）
+	 */
+	public static int[] scan(Polygon[] polygons, Rectangle area) {
+		int[] result = new int[polygons.length];
+		int n = 0;
+		for (int i = 0; i < polygons.length; i++) {
+			if (area.intersects(polygons[i].getBounds())) {
+				result[n++] = i;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Rectangle.intersectsと同じ交差判定を行います。
+	 * @param x X座標
+	 * @param y Y座標
+	 * @param w 幅
+	 * @param h 高さ
+	 * @param r 検索範囲
+	 * @return 交差していればtrue
+	 */
+	private static boolean intersects(int x, int y, int w, int h, Rectangle r) {
+		return w > 0 && h > 0 && x < (long) r.x + r.width && r.x < (long) x + w && y < (long) r.y + r.height && r.y < (long) y + h;
+	}
+
+	/**
+	 * 図形の外接長方形を取得します。
+	 * @param i 図形のインデックス
+	 * @param r 外接長方形を格納するRectangle
+	 */
+	public void getBounds(int i, Rectangle r) {
+		r.setBounds(this.bounds[i * 4], this.bounds[i * 4 + 1], this.bounds[i * 4 + 2], this.bounds[i * 4 + 3]);
+	}
+
+	/**
+	 * 登録した図形の数を返します。
+	 * @return 図形の数
+	 */
+	public int size() {
+		return this.bounds.length / 4;
+	}
+
+	/**
+	 * バケットに登録した図形の数の合計を返します。
+	 * 複数のバケットにまたがる図形は重複して数えます。
+	 * @return 登録した数
+	 */
+	public int getEntryCount() {
+		return this.items.length;
+	}
+
+	/**
+	 * 拡大表示した範囲で、すべてのポリゴンと比較する検索と、空間インデックスによる検索の時間を比較します。
+	 * 画面は無作為に選んだポリゴンの頂点を中心に置くため、必ず1つ以上のポリゴンと交差します。
+	 * @param target ポリゴン
+	 * @param scale 表示倍率
+	 */
+	public static void benchmark(Polygon[] target, float scale) {
+		long start = System.nanoTime();
+		BoundsIndex index = new BoundsIndex(target);
+		long build = System.nanoTime() - start;
+
+		// 1024x768の画面を、無作為に選んだポリゴンの頂点を中心に置く
+		int width = (int) (1024 / scale);
+		int height = (int) (768 / scale);
+		Random random = new Random(0);
+		Rectangle[] screens = new Rectangle[1000];
+		for (int i = 0; i < screens.length; i++) {
+			Polygon p = target[random.nextInt(target.length)];
+			int k = random.nextInt(Math.max(1, p.npoints));
+			screens[i] = new Rectangle(p.xpoints[k] - width / 2, p.ypoints[k] - height / 2, width, height);
+		}
+		long hits = 0;
+		long scanTime = 0;
+		long indexTime = 0;
+		for (int round = 0; round < 2; round++) {
+			// 1回目は実行時コンパイルの影響を受けるため、2回目を計測する
+			scanTime = 0;
+			indexTime = 0;
+			hits = 0;
+			for (Rectangle screen : screens) {
+				start = System.nanoTime();
+				int[] expected = BoundsIndex.scan(target, screen);
+				scanTime += System.nanoTime() - start;
+				start = System.nanoTime();
+				int[] actual = index.search(screen);
+				indexTime += System.nanoTime() - start;
+				if (!Arrays.equals(expected, actual)) {
+					throw new IllegalStateException("mismatch at " + screen);
+				}
+				hits += actual.length;
+			}
+		}
+		Log.out(BoundsIndex.class, target.length + " polygons, " + index.getEntryCount() + " entries (build " + (build / 1000000) + "ms), "
+				+ screens.length + " screens, " + String.format("%.1f", (double) hits / screens.length) + " visible polygons per screen");
+		Log.out(BoundsIndex.class, "scan " + (scanTime / screens.length / 1000) + "us, index " + (indexTime / screens.length / 1000) + "us per screen");
+	}
+}
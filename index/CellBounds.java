@@ -11,6 +11,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
@@ -19,16 +20,24 @@ import java.util.List;
  * @author ma38su
  */
 public class CellBounds implements Shape, Serializable {
+
+	/**
+	 * 書き込み時のバイト数
+	 */
+	public static final int DISC_SIZE = 24;
+
+	/**
+	 * 細分化したセルとの交差フラグの書き込み時のlongの数
+	 */
+	public static final int FINE_SIZE = 4;
+
+	/**
+	 * 8x8のセルのうち、交差するセルがこの数以下であれば16x16に細分化します。
+	 */
+	public static final int FINE_THRESHOLD = 32;
 	
 	public int getOverlapArea(Rectangle rect) {
-		long flag = this.getCellFlag(rect);
-		int count = 0;
-		do {
-			if (flag % 2 == 1) {
-				count++;
-			}
-		} while ((flag /= 2) > 0);
-		return count;
+		return Long.bitCount(this.getCellFlag(rect));
 	}
 
 	/**
@@ -53,6 +62,12 @@ public class CellBounds implements Shape, Serializable {
 	 */
 	private final long flagCell;
 
+	/**
+	 * 16x16に細分化したセルとの交差フラグ
+	 * 細分化していない場合はnull
+	 */
+	private final long[] fineFlag;
+
 	/**
 	 * 外接長方形の高さ
 	 */
@@ -79,6 +94,55 @@ public class CellBounds implements Shape, Serializable {
 		this.w = disc.readInt();
 		this.h = disc.readInt();
 		this.flagCell = disc.readLong();
+		this.fineFlag = null;
+	}
+
+	/**
+	 * 値を指定して中間表現を作成します。
+	 * @param x X座標
+	 * @param y Y座標
+	 * @param w 外接長方形の幅
+	 * @param h 外接長方形の高さ
+	 * @param flagCell セルとの交差フラグ
+	 */
+	public CellBounds(int x, int y, int w, int h, long flagCell) {
+		this(x, y, w, h, flagCell, null);
+	}
+
+	/**
+	 * 値を指定して中間表現を作成します。
+	 * @param x X座標
+	 * @param y Y座標
+	 * @param w 外接長方形の幅
+	 * @param h 外接長方形の高さ
+	 * @param flagCell セルとの交差フラグ
+	 * @param fineFlag 16x16に細分化したセルとの交差フラグ（細分化しない場合はnull）
+	 */
+	public CellBounds(int x, int y, int w, int h, long flagCell, long[] fineFlag) {
+		if (fineFlag != null && fineFlag.length != FINE_SIZE) {
+			throw new IllegalArgumentException("illegal fine flag length: " + fineFlag.length);
+		}
+		this.x = x;
+		this.y = y;
+		this.w = w;
+		this.h = h;
+		this.flagCell = flagCell;
+		this.fineFlag = fineFlag;
+	}
+
+	/**
+	 * メモリ上のバッファから読み込みます。
+	 * バッファの位置は変更しません。
+	 * @param buf バッファ
+	 * @param offset 読み込みを開始する位置
+	 */
+	public CellBounds(ByteBuffer buf, int offset) {
+		this.x = buf.getInt(offset);
+		this.y = buf.getInt(offset + 4);
+		this.w = buf.getInt(offset + 8);
+		this.h = buf.getInt(offset + 12);
+		this.flagCell = buf.getLong(offset + 16);
+		this.fineFlag = null;
 	}
 
 	/**
@@ -86,6 +150,16 @@ public class CellBounds implements Shape, Serializable {
 	 * @param polygons
 	 */
 	public CellBounds(List<Polygon> polygons) {
+		this(polygons, false);
+	}
+
+	/**
+	 * ポリゴンから中間表現を作成します。
+	 * isAdaptiveがtrueで、8x8のセルのうち交差するセルが少ない場合は、16x16に細分化したセルとの交差フラグも作成します。
+	 * @param polygons
+	 * @param isAdaptive 細分化を行う場合はtrue
+	 */
+	public CellBounds(List<Polygon> polygons, boolean isAdaptive) {
 		int x0 = Integer.MAX_VALUE;
 		int y0 = Integer.MAX_VALUE;
 		int x1 = Integer.MIN_VALUE;
@@ -138,15 +212,56 @@ public class CellBounds implements Shape, Serializable {
 			}
 		}
 		this.flagCell = flag;
+
+		if (isAdaptive && this.cellCount <= FINE_THRESHOLD) {
+			this.fineFlag = new long[FINE_SIZE];
+			cell.width = CellBounds.getFineWidth(this.w);
+			cell.height = CellBounds.getFineWidth(this.h);
+			cell.y = this.y;
+			for (int i = 0; i < 16; i++, cell.y += cell.height) {
+				cell.x = this.x;
+				for (int j = 0; j < 16; j++, cell.x += cell.width) {
+					for (Polygon p : polygons) {
+						if (p.intersects(cell)) {
+							this.fineFlag[i >> 2] |= 1L << (((i & 3) << 4) + j);
+							break;
+						}
+					}
+				}
+			}
+		} else {
+			this.fineFlag = null;
+		}
 	}
 	
 	public CellBounds(Polygon[] polygons) {
 		this(Arrays.asList(polygons));
 	}
+
+	public CellBounds(Polygon[] polygons, boolean isAdaptive) {
+		this(Arrays.asList(polygons), isAdaptive);
+	}
 	
 	public boolean contains(double x, double y) {
 		throw new UnsupportedOperationException("未実装");
 	}
+
+	/**
+	 * セルを用いて点を含みうるかどうか判定します。
+	 * 点を含むセルが領域と交差していればtrueを返すため、厳密な判定にはポリゴンによる判定が必要です。
+	 * @param x X座標
+	 * @param y Y座標
+	 * @return 点を含みうる場合はtrue
+	 */
+	public boolean mayContain(int x, int y) {
+		if (x < this.x || y < this.y || x > this.x + this.w || y > this.y + this.h) {
+			return false;
+		}
+		if (CellBounds.getCellFlag(this.x, this.y, this.w, this.h, this.flagCell, x, y, 0, 0) == 0) {
+			return false;
+		}
+		return this.fineFlag == null || CellBounds.intersectsFine(this.x, this.y, this.w, this.h, this.fineFlag, 0, x, y, 0, 0);
+	}
 	
 	public boolean contains(double x, double y, double w, double h) {
 		throw new UnsupportedOperationException("未実装");
@@ -194,15 +309,115 @@ public class CellBounds implements Shape, Serializable {
 	 * @return セルとの交差フラグ
 	 */
 	private long getCellFlag(Rectangle r) {
-		int cw = this.w >> 3;
-		int ch = this.h >> 3;
-		int bx = this.x - cw;
-		int by = this.y - ch;
-		int x0 = (r.x - bx) / cw - 1;
-		int y0 = (r.y - by) / ch - 1;
-		int x1 = (r.x + r.width - bx) / cw;
-		int y1 = (r.y + r.height - by) / ch;
-		return this.flagCell & this.getFlag(x0, x1, y0, y1);
+		return CellBounds.getCellFlag(this.x, this.y, this.w, this.h, this.flagCell, r);
+	}
+
+	/**
+	 * インスタンスを生成せずに、検索範囲とセルとの交差フラグを計算します。
+	 * @param x X座標
+	 * @param y Y座標
+	 * @param w 外接長方形の幅
+	 * @param h 外接長方形の高さ
+	 * @param flagCell セルとの交差フラグ
+	 * @param r 検索範囲
+	 * @return 検索範囲と重なるセルとの交差フラグ
+	 */
+	static long getCellFlag(int x, int y, int w, int h, long flagCell, Rectangle r) {
+		return CellBounds.getCellFlag(x, y, w, h, flagCell, r.x, r.y, r.width, r.height);
+	}
+
+	/**
+	 * インスタンスを生成せずに、検索範囲とセルとの交差フラグを計算します。
+	 * @param x X座標
+	 * @param y Y座標
+	 * @param w 外接長方形の幅
+	 * @param h 外接長方形の高さ
+	 * @param flagCell セルとの交差フラグ
+	 * @param rx 検索範囲のX座標
+	 * @param ry 検索範囲のY座標
+	 * @param rw 検索範囲の幅
+	 * @param rh 検索範囲の高さ
+	 * @return 検索範囲と重なるセルとの交差フラグ
+	 */
+	static long getCellFlag(int x, int y, int w, int h, long flagCell, int rx, int ry, int rw, int rh) {
+		int cw = w >> 3;
+		int ch = h >> 3;
+		int bx = x - cw;
+		int by = y - ch;
+		int x0 = (rx - bx) / cw - 1;
+		int y0 = (ry - by) / ch - 1;
+		int x1 = (rx + rw - bx) / cw;
+		int y1 = (ry + rh - by) / ch;
+		return flagCell & CellBounds.getFlag(x0, x1, y0, y1);
+	}
+
+	/**
+	 * 細分化したセルの幅を返します。
+	 * 16個のセルで外接長方形を覆うように切り上げます。
+	 * @param w 外接長方形の幅、または高さ
+	 * @return 細分化したセルの幅、または高さ
+	 */
+	private static int getFineWidth(int w) {
+		return (w >> 4) + 1;
+	}
+
+	/**
+	 * 16x16に細分化したセルとの交差フラグを返します。
+	 * 返り値の配列は変更しないでください。
+	 * @return 細分化したセルとの交差フラグ、細分化していなければnull
+	 */
+	public long[] getFineFlag() {
+		return this.fineFlag;
+	}
+
+	/**
+	 * インスタンスを生成せずに、16x16に細分化したセルを用いて交差判定を行います。
+	 * @param x X座標
+	 * @param y Y座標
+	 * @param w 外接長方形の幅
+	 * @param h 外接長方形の高さ
+	 * @param fine 細分化したセルとの交差フラグを格納した配列
+	 * @param offset 配列の中の交差フラグの位置
+	 * @param r 検索範囲
+	 * @return 交差していればtrue
+	 */
+	static boolean intersectsFine(int x, int y, int w, int h, long[] fine, int offset, Rectangle r) {
+		return CellBounds.intersectsFine(x, y, w, h, fine, offset, r.x, r.y, r.width, r.height);
+	}
+
+	/**
+	 * インスタンスを生成せずに、16x16に細分化したセルを用いて交差判定を行います。
+	 * @param x X座標
+	 * @param y Y座標
+	 * @param w 外接長方形の幅
+	 * @param h 外接長方形の高さ
+	 * @param fine 細分化したセルとの交差フラグを格納した配列
+	 * @param offset 配列の中の交差フラグの位置
+	 * @param rx 検索範囲のX座標
+	 * @param ry 検索範囲のY座標
+	 * @param rw 検索範囲の幅
+	 * @param rh 検索範囲の高さ
+	 * @return 交差していればtrue
+	 */
+	static boolean intersectsFine(int x, int y, int w, int h, long[] fine, int offset, int rx, int ry, int rw, int rh) {
+		int cw = CellBounds.getFineWidth(w);
+		int ch = CellBounds.getFineWidth(h);
+		int x0 = (rx <= x) ? 0 : (rx - x) / cw;
+		int y0 = (ry <= y) ? 0 : (ry - y) / ch;
+		long rx1 = (long) rx + rw - x;
+		long ry1 = (long) ry + rh - y;
+		if (x0 > 15 || y0 > 15 || rx1 < 0 || ry1 < 0) {
+			return false;
+		}
+		int x1 = (int) Math.min(rx1 / cw, 15);
+		int y1 = (int) Math.min(ry1 / ch, 15);
+		long row = ((1L << (x1 + 1)) - 1) & ~((1L << x0) - 1);
+		for (int i = y0; i <= y1; i++) {
+			if ((fine[offset + (i >> 2)] & (row << ((i & 3) << 4))) != 0) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -221,7 +436,7 @@ public class CellBounds implements Shape, Serializable {
 		return this.w >> 3;
 	}
 
-	private long getFlag(int x0, int x1, int y0, int y1) {
+	private static long getFlag(int x0, int x1, int y0, int y1) {
 		if (x0 < 0) {
 			x0 = 0;
 		} else if (x0 > 8) {
@@ -313,7 +528,10 @@ public class CellBounds implements Shape, Serializable {
 	 * @return 交差していればtrue
 	 */
 	public boolean intersectsCell(Rectangle r) {
-		return this.getCellFlag(r) != 0;
+		if (this.getCellFlag(r) == 0) {
+			return false;
+		}
+		return this.fineFlag == null || CellBounds.intersectsFine(this.x, this.y, this.w, this.h, this.fineFlag, 0, r);
 	}
 	
 	@Override
@@ -342,6 +560,20 @@ public class CellBounds implements Shape, Serializable {
 		disc.writeLong(this.flagCell);
 	}
 
+	/**
+	 * 細分化したセルとの交差フラグを書き込みます。
+	 * 細分化していない場合は何も書き込みません。
+	 * @param disc
+	 * @throws IOException
+	 */
+	public void writeFineFlag(DataOutput disc) throws IOException {
+		if (this.fineFlag != null) {
+			for (long flag : this.fineFlag) {
+				disc.writeLong(flag);
+			}
+		}
+	}
+
 	/**
 	 * 外接長方形を書き込みます。
 	 * @param disc
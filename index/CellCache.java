@@ -0,0 +1,228 @@
+package index;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * セルごとに展開したレコードのキャッシュ
+ *
+ * セル番号をキーとするLRUで、保持するセルの数が上限を超えると最も古く参照したセルを破棄します。
+ * セル番号は0からセルの総数未満の整数であるため、連結リストを配列で表現し、参照時にインスタンスを生成しません。
+ * 複数のスレッドから同時に呼び出すことができます。
+ * @author ma38su
+ */
+public class CellCache {
+
+	/**
+	 * 1セル分の展開したレコード
+	 * キャッシュに登録した後は変更しません。
+	 */
+	static class Records {
+		final int size;
+		final int[] code;
+		final int[] x;
+		final int[] y;
+		final int[] w;
+		final int[] h;
+		final long[] flag;
+
+		Records(int size) {
+			this.size = size;
+			this.code = new int[size];
+			this.x = new int[size];
+			this.y = new int[size];
+			this.w = new int[size];
+			this.h = new int[size];
+			this.flag = new long[size];
+		}
+	}
+
+	/**
+	 * 連結リストの終端
+	 */
+	private static final int NIL = -1;
+
+	/**
+	 * 保持するセルの数の上限
+	 */
+	private final int capacity;
+
+	/**
+	 * セル番号をインデックスとするレコード（保持していなければnull）
+	 */
+	private final Records[] records;
+
+	/**
+	 * LRUの連結リストの前のセル番号
+	 */
+	private final int[] prev;
+
+	/**
+	 * LRUの連結リストの次のセル番号
+	 */
+	private final int[] next;
+
+	/**
+	 * 最も新しく参照したセル番号
+	 */
+	private int head = NIL;
+
+	/**
+	 * 最も古く参照したセル番号
+	 */
+	private int tail = NIL;
+
+	/**
+	 * 保持しているセルの数
+	 */
+	private int size;
+
+	/**
+	 * ヒット数
+	 */
+	private final AtomicLong hitCount = new AtomicLong();
+
+	/**
+	 * ミス数
+	 */
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * コンストラクタ
+	 * @param cells セルの総数
+	 * @param capacity 保持するセルの数の上限
+	 */
+	public CellCache(int cells, int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("illegal capacity: " + capacity);
+		}
+		this.capacity = capacity;
+		this.records = new Records[cells];
+		this.prev = new int[cells];
+		this.next = new int[cells];
+	}
+
+	/**
+	 * セルのレコードを取得します。
+	 * 取得したセルは最も新しく参照したセルになります。
+	 * @param id セル番号
+	 * @return レコード、保持していなければnull
+	 */
+	synchronized Records get(int id) {
+		Records r = this.records[id];
+		if (r == null) {
+			this.missCount.incrementAndGet();
+			return null;
+		}
+		this.hitCount.incrementAndGet();
+		if (this.head != id) {
+			this.unlink(id);
+			this.linkFirst(id);
+		}
+		return r;
+	}
+
+	/**
+	 * セルのレコードを登録します。
+	 * 上限を超えた場合は、最も古く参照したセルを破棄します。
+	 * @param id セル番号
+	 * @param r レコード
+	 */
+	synchronized void put(int id, Records r) {
+		if (this.records[id] != null) {
+			this.unlink(id);
+			this.size--;
+		}
+		this.records[id] = r;
+		this.linkFirst(id);
+		this.size++;
+		while (this.size > this.capacity) {
+			int eldest = this.tail;
+			this.unlink(eldest);
+			this.records[eldest] = null;
+			this.size--;
+		}
+	}
+
+	private void unlink(int id) {
+		int p = this.prev[id];
+		int n = this.next[id];
+		if (p == NIL) {
+			this.head = n;
+		} else {
+			this.next[p] = n;
+		}
+		if (n == NIL) {
+			this.tail = p;
+		} else {
+			this.prev[n] = p;
+		}
+	}
+
+	private void linkFirst(int id) {
+		this.prev[id] = NIL;
+		this.next[id] = this.head;
+		if (this.head != NIL) {
+			this.prev[this.head] = id;
+		}
+		this.head = id;
+		if (this.tail == NIL) {
+			this.tail = id;
+		}
+	}
+
+	/**
+	 * 保持しているセルをすべて破棄します。
+	 * ヒット数とミス数は初期化しません。
+	 */
+	public synchronized void clear() {
+		while (this.head != NIL) {
+			int id = this.head;
+			this.head = this.next[id];
+			this.records[id] = null;
+		}
+		this.tail = NIL;
+		this.size = 0;
+	}
+
+	/**
+	 * 保持しているセルの数を返します。
+	 * @return 保持しているセルの数
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * 保持するセルの数の上限を返します。
+	 * @return 保持するセルの数の上限
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * ヒット数を返します。
+	 * @return ヒット数
+	 */
+	public long getHitCount() {
+		return this.hitCount.get();
+	}
+
+	/**
+	 * ミス数を返します。
+	 * @return ミス数
+	 */
+	public long getMissCount() {
+		return this.missCount.get();
+	}
+
+	/**
+	 * ヒット率を返します。
+	 * @return ヒット率、参照がなければ0
+	 */
+	public double getHitRatio() {
+		long hit = this.hitCount.get();
+		long total = hit + this.missCount.get();
+		return total == 0 ? 0 : (double) hit / total;
+	}
+}
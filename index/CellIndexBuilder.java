@@ -0,0 +1,388 @@
+package index;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import util.Log;
+
+/**
+ * セルメソッドのインデックス（sdf25k.idx, sdf25k.cell）を作成するクラス
+ *
+ * 市区町村ごとのCellBoundsの計算と、セルへの割り当てをFork/Joinで並列に行います。
+ * 出力はCellMethodで読み込める形式です。
+ * <ul>
+ * <li>市区町村は外接長方形と重なるセルのうち、CellBoundsの交差判定が真となるセルに登録します。</li>
+ * <li>セル内のレコードは市区町村番号の昇順に並べます。</li>
+ * <li>空のセルのポインタは、次のセルのレコードの位置を指します。</li>
+ * </ul>
+ * @author ma38su
+ */
+public class CellIndexBuilder {
+
+	/**
+	 * 1セルに含まれるレコード数の上限
+	 */
+	private static final int MAX_CELL_SIZE = 255;
+
+	/**
+	 * 並列処理で1タスクが担当する市区町村数の目安
+	 */
+	private static final int THRESHOLD = 16;
+
+	/**
+	 * X方向の分割数
+	 */
+	private final int cx;
+
+	/**
+	 * Y方向の分割数
+	 */
+	private final int cy;
+
+	/**
+	 * インデックスの範囲（nullの場合は市区町村の外接長方形の和）
+	 */
+	private Rectangle extent;
+
+	/**
+	 * 市区町村番号と中間表現
+	 */
+	private final SortedMap<Integer, CellBounds> records;
+
+	/**
+	 * 交差するセルが少ない市区町村のセルを細分化するかどうか
+	 */
+	private boolean isAdaptive;
+
+	/**
+	 * 処理を終えた市区町村の数
+	 */
+	private final AtomicInteger progress;
+
+	/**
+	 * 並列処理のためのスレッドプール
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * コンストラクタ
+	 * @param cx X方向の分割数
+	 * @param cy Y方向の分割数
+	 * @param parallelism 並列数
+	 */
+	public CellIndexBuilder(int cx, int cy, int parallelism) {
+		if (cx <= 0 || cx > 0xFFFF || cy <= 0 || cy > 0xFFFF) {
+			throw new IllegalArgumentException("illegal division: " + cx + "x" + cy);
+		}
+		this.cx = cx;
+		this.cy = cy;
+		this.records = new TreeMap<Integer, CellBounds>();
+		this.progress = new AtomicInteger();
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * インデックスの範囲を指定します。
+	 * 指定しない場合は、市区町村の外接長方形の和を範囲とします。
+	 * @param extent インデックスの範囲
+	 */
+	public void setExtent(Rectangle extent) {
+		this.extent = new Rectangle(extent);
+	}
+
+	/**
+	 * 交差するセルが少ない市区町村について、16x16に細分化した交差フラグを作成するかどうかを設定します。
+	 * 細分化した交差フラグはsdf25k.maskに書き込みます。
+	 * @param flag 細分化する場合はtrue
+	 */
+	public void setAdaptive(boolean flag) {
+		this.isAdaptive = flag;
+	}
+
+	/**
+	 * 処理を終えた市区町村の数を返します。
+	 * @return 処理を終えた市区町村の数
+	 */
+	public int getProgress() {
+		return this.progress.get();
+	}
+
+	/**
+	 * 計算済みの中間表現を追加します。
+	 * @param code 市区町村番号
+	 * @param bounds 中間表現
+	 */
+	public void put(int code, CellBounds bounds) {
+		if (code < 0 || code > 0xFFFF) {
+			throw new IllegalArgumentException("illegal code: " + code);
+		}
+		this.records.put(code, bounds);
+	}
+
+	/**
+	 * 市区町村のポリゴンから中間表現を並列に計算して追加します。
+	 * @param polygons 市区町村番号とポリゴン
+	 */
+	public void putAll(Map<Integer, Polygon[]> polygons) {
+		final int[] codes = new int[polygons.size()];
+		final Polygon[][] areas = new Polygon[polygons.size()][];
+		int i = 0;
+		for (Map.Entry<Integer, Polygon[]> entry : polygons.entrySet()) {
+			codes[i] = entry.getKey();
+			areas[i] = entry.getValue();
+			i++;
+		}
+		final CellBounds[] bounds = new CellBounds[codes.length];
+		this.invoke(codes.length, new Job() {
+			public void compute(int index) {
+				bounds[index] = new CellBounds(areas[index], CellIndexBuilder.this.isAdaptive);
+			}
+		});
+		for (i = 0; i < codes.length; i++) {
+			this.put(codes[i], bounds[i]);
+		}
+	}
+
+	/**
+	 * インデックスを書き込みます。
+	 * 市区町村がない場合は、setExtentで指定した範囲の空のインデックスを書き込みます。
+	 * @param dir 出力先のディレクトリ
+	 * @throws IOException 入出力エラー
+	 * @throws IllegalStateException 市区町村がなく、範囲も指定していない場合
+	 */
+	public void write(String dir) throws IOException {
+		final int[] codes = new int[this.records.size()];
+		final CellBounds[] bounds = new CellBounds[codes.length];
+		int n = 0;
+		for (Map.Entry<Integer, CellBounds> entry : this.records.entrySet()) {
+			codes[n] = entry.getKey();
+			bounds[n] = entry.getValue();
+			n++;
+		}
+		Rectangle extent = this.extent;
+		if (extent == null) {
+			if (bounds.length == 0) {
+				throw new IllegalStateException("no records and no extent");
+			}
+			extent = new Rectangle(bounds[0].getBounds());
+			for (CellBounds b : bounds) {
+				extent.add(b.getBounds());
+			}
+		}
+		final int x = extent.x;
+		final int y = extent.y;
+		final int cellWidth = (extent.width % this.cx == 0) ? extent.width / this.cx : extent.width / this.cx + 1;
+		final int cellHeight = (extent.height % this.cy) == 0 ? extent.height / this.cy : extent.height / this.cy + 1;
+
+		// 市区町村ごとに登録するセルを並列に求める
+		final int[][] cells = new int[codes.length][];
+		this.invoke(codes.length, new Job() {
+			public void compute(int index) {
+				cells[index] = CellIndexBuilder.this.getCells(bounds[index], x, y, cellWidth, cellHeight);
+			}
+		});
+
+		// 市区町村番号の昇順にセルへ割り当てる
+		int[] size = new int[this.cx * this.cy];
+		for (int[] c : cells) {
+			for (int cell : c) {
+				if (++size[cell] > MAX_CELL_SIZE) {
+					throw new IllegalStateException("too many records in cell: " + cell);
+				}
+			}
+		}
+		int[] start = new int[size.length + 1];
+		for (int i = 0; i < size.length; i++) {
+			start[i + 1] = start[i] + size[i];
+		}
+		int[] fill = Arrays.copyOf(start, size.length);
+		int[] entries = new int[start[size.length]];
+		for (int i = 0; i < cells.length; i++) {
+			for (int cell : cells[i]) {
+				entries[fill[cell]++] = i;
+			}
+		}
+
+		DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dir + File.separatorChar + "sdf25k.idx")));
+		try {
+			index.writeInt(extent.x);
+			index.writeInt(extent.y);
+			index.writeInt(extent.width);
+			index.writeInt(extent.height);
+			index.writeShort(this.cx);
+			index.writeShort(this.cy);
+			for (int i = 0; i < size.length; i++) {
+				index.writeLong((long) start[i] * (2 + CellBounds.DISC_SIZE));
+				index.writeByte(size[i]);
+			}
+		} finally {
+			index.close();
+		}
+		DataOutputStream disc = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dir + File.separatorChar + "sdf25k.cell")));
+		try {
+			for (int i : entries) {
+				disc.writeShort(codes[i]);
+				bounds[i].writeDisc(disc);
+			}
+		} finally {
+			disc.close();
+		}
+		FineMaskTable.write(dir, this.records);
+	}
+
+	/**
+	 * スレッドプールを終了します。
+	 */
+	public void shutdown() {
+		this.pool.shutdown();
+	}
+
+	/**
+	 * 中間表現を登録するセルを求めます。
+	 * @param bounds 中間表現
+	 * @param x インデックスの原点のX座標
+	 * @param y インデックスの原点のY座標
+	 * @param cellWidth セルの幅
+	 * @param cellHeight セルの高さ
+	 * @return セル番号の配列
+	 */
+	private int[] getCells(CellBounds bounds, int x, int y, int cellWidth, int cellHeight) {
+		Rectangle r = bounds.getBounds();
+		int cx0 = Math.max((r.x - x) / cellWidth, 0);
+		int cy0 = Math.max((r.y - y) / cellHeight, 0);
+		int cx1 = Math.min((r.x + r.width - x) / cellWidth, this.cx - 1);
+		int cy1 = Math.min((r.y + r.height - y) / cellHeight, this.cy - 1);
+		int[] cells = new int[Math.max(cx1 - cx0 + 1, 0) * Math.max(cy1 - cy0 + 1, 0)];
+		int n = 0;
+		Rectangle cell = new Rectangle(0, 0, cellWidth, cellHeight);
+		for (int i = cy0; i <= cy1; i++) {
+			cell.y = y + i * cellHeight;
+			for (int j = cx0; j <= cx1; j++) {
+				cell.x = x + j * cellWidth;
+				if (bounds.intersects(cell)) {
+					cells[n++] = i * this.cx + j;
+				}
+			}
+		}
+		return Arrays.copyOf(cells, n);
+	}
+
+	/**
+	 * 並列に処理を行い、完了を待ちながら進捗を出力します。
+	 * @param total 処理する件数
+	 * @param job 1件分の処理
+	 */
+	private void invoke(int total, Job job) {
+		long start = System.currentTimeMillis();
+		this.progress.set(0);
+		ForkJoinTask<Void> task = this.pool.submit(new RangeAction(job, 0, total));
+		while (true) {
+			try {
+				task.get(1, TimeUnit.SECONDS);
+				break;
+			} catch (TimeoutException e) {
+				Log.out(this, this.progress.get() + " / " + total);
+			} catch (InterruptedException e) {
+				task.cancel(true);
+				throw new IllegalStateException(e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		Log.out(this, total + " / " + total + " (" + (System.currentTimeMillis() - start) + "ms)");
+	}
+
+	/**
+	 * 並列に行う1件分の処理
+	 */
+	private interface Job {
+		/**
+		 * @param index 処理する番号
+		 */
+		public void compute(int index);
+	}
+
+	/**
+	 * 範囲を分割して並列に処理するタスク
+	 */
+	private class RangeAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Job job;
+		private final int from;
+		private final int to;
+
+		RangeAction(Job job, int from, int to) {
+			this.job = job;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= THRESHOLD) {
+				for (int i = this.from; i < this.to; i++) {
+					this.job.compute(i);
+					CellIndexBuilder.this.progress.incrementAndGet();
+				}
+			} else {
+				int mid = (this.from + this.to) >>> 1;
+				RecursiveAction.invokeAll(new RangeAction(this.job, this.from, mid), new RangeAction(this.job, mid, this.to));
+			}
+		}
+	}
+
+	/**
+	 * 市区町村のポリゴンからインデックスを作成します。
+	 * 入力はFileDatabase.writeSerializableArchiveで書き込んだ、
+	 * 市区町村番号をキーとするポリゴンの配列のMap（Map&lt;Integer, Polygon[]&gt;）です。
+	 * @param args [0] 入力ファイル, [1] 出力先のディレクトリ, [2] 1辺の分割数（省略時は256）, [3] adaptive を指定するとセルを細分化
+	 * @throws Exception 
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("usage: CellIndexBuilder <polygons> <output dir> [division] [adaptive]");
+			return;
+		}
+		int division = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+		boolean isAdaptive = args.length > 3 && "adaptive".equals(args[3]);
+		long start = System.currentTimeMillis();
+		Map<Integer, Polygon[]> polygons;
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(args[0])));
+		try {
+			@SuppressWarnings("unchecked")
+			Map<Integer, Polygon[]> obj = (Map<Integer, Polygon[]>) in.readObject();
+			polygons = obj;
+		} finally {
+			in.close();
+		}
+		Log.out(CellIndexBuilder.class, "read " + polygons.size() + " areas (" + (System.currentTimeMillis() - start) + "ms)");
+		CellIndexBuilder builder = new CellIndexBuilder(division, division, Runtime.getRuntime().availableProcessors());
+		try {
+			builder.setAdaptive(isAdaptive);
+			builder.putAll(polygons);
+			builder.write(args[1]);
+		} finally {
+			builder.shutdown();
+		}
+		Log.out(CellIndexBuilder.class, "finished (" + (System.currentTimeMillis() - start) + "ms)");
+	}
+}
@@ -1,27 +1,70 @@
 package index;
 
 import java.awt.Rectangle;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import util.Log;
 
 /**
  * セルメソッドを拡張した空間データベース
+ * 
+ * 範囲検索はファイルの位置を変更しない読み込みのみで行うため、
+ * 複数のスレッドから同時に検索することができます。
+ * ただし、検索中に{@link #close()}を呼び出してはいけません。
  * @author ma38su
  */
-public class CellMethod {
-	
+public class CellMethod implements SpatialIndex {
+
+	/**
+	 * インデックスファイルのヘッダのバイト数
+	 */
+	private static final int HEADER_SIZE = 20;
+
+	/**
+	 * インデックスファイルの1セルあたりのバイト数（ポインタ + 件数）
+	 */
+	private static final int POINTER_SIZE = 9;
+
+	/**
+	 * セルデータの1レコードのバイト数（市区町村番号 + CellBounds）
+	 */
+	private static final int RECORD_SIZE = 2 + CellBounds.DISC_SIZE;
+
+	/**
+	 * 1セルに含まれるレコード数の上限
+	 */
+	private static final int MAX_CELL_SIZE = 255;
+
+	/**
+	 * 市区町村番号の上限
+	 */
+	private static final int MAX_CODE = 0xFFFF;
+
 	/**
 	 * セルデータへのポインタ
 	 */
 	private RandomAccessFile index;
+
+	/**
+	 * メモリマップしたセルデータへのポインタ
+	 * ストリームで読み込む場合はnull
+	 */
+	private ByteBuffer indexBuffer;
 	
 	/**
 	 * セルの原点のX座標
@@ -59,36 +102,286 @@ public class CellMethod {
 	 * @throws IOException 
 	 */
 	public CellMethod(String dir) throws IOException {
-		this.index = new RandomAccessFile(dir + File.separatorChar + "sdf25k.idx", "r");
-		try {
-			this.x = this.index.readInt();
-			this.y = this.index.readInt();
-			int width = this.index.readInt();
-			int height = this.index.readInt();
-			this.cx = this.index.readUnsignedShort();
-			this.cy = this.index.readUnsignedShort();
-			if ((width % this.cx) == 0) {
-				this.cellWidth = width / this.cx;
-			} else {
-				this.cellWidth = width / this.cx + 1;
+		this(dir, false);
+	}
+
+	/**
+	 * コンストラクタ
+	 * メモリマップに失敗した場合は、RandomAccessFileによる読み込みを行います。
+	 * @param dir セルのインデックスデータのディレクトリ
+	 * @param isMapped インデックスをメモリマップして読み込む場合はtrue
+	 * @throws IOException 
+	 */
+	public CellMethod(String dir, boolean isMapped) throws IOException {
+		String indexPath = dir + File.separatorChar + "sdf25k.idx";
+		String discPath = dir + File.separatorChar + "sdf25k.cell";
+		if (isMapped) {
+			try {
+				this.indexBuffer = CellMethod.map(indexPath);
+				this.discBuffer = CellMethod.map(discPath);
+			} catch (IOException e) {
+				Log.err(this, e);
+				this.indexBuffer = null;
+				this.discBuffer = null;
 			}
-			if ((height % this.cy) == 0) {
-				this.cellHeight = height / this.cy;
-			} else {
-				this.cellHeight = height / this.cy + 1;
+		}
+		if (this.indexBuffer != null) {
+			try {
+				this.readHeader(this.indexBuffer.getInt(0), this.indexBuffer.getInt(4), this.indexBuffer.getInt(8), this.indexBuffer.getInt(12),
+						this.indexBuffer.getShort(16) & 0xFFFF, this.indexBuffer.getShort(18) & 0xFFFF);
+			} catch (IndexOutOfBoundsException e) {
+				throw new IllegalStateException(e);
 			}
-		} catch (IOException e) {
-			this.index.close();
-			throw new IllegalStateException(e);
+		} else {
+			this.index = new RandomAccessFile(indexPath, "r");
+			try {
+				this.readHeader(this.index.readInt(), this.index.readInt(), this.index.readInt(), this.index.readInt(),
+						this.index.readUnsignedShort(), this.index.readUnsignedShort());
+			} catch (IOException e) {
+				this.index.close();
+				throw new IllegalStateException(e);
+			}
+			this.disc = new RandomAccessFile(discPath, "r");
 		}
-		this.disc = new RandomAccessFile(dir + File.separatorChar + "sdf25k.cell", "r");
+		this.fine = FineMaskTable.read(dir);
 	}
-	
+
+	/**
+	 * インデックスのヘッダを設定します。
+	 * @param x セルの原点のX座標
+	 * @param y セルの原点のY座標
+	 * @param width 全体の幅
+	 * @param height 全体の高さ
+	 * @param cx X方向の分割数
+	 * @param cy Y方向の分割数
+	 */
+	private void readHeader(int x, int y, int width, int height, int cx, int cy) {
+		this.x = x;
+		this.y = y;
+		this.cx = cx;
+		this.cy = cy;
+		if ((width % this.cx) == 0) {
+			this.cellWidth = width / this.cx;
+		} else {
+			this.cellWidth = width / this.cx + 1;
+		}
+		if ((height % this.cy) == 0) {
+			this.cellHeight = height / this.cy;
+		} else {
+			this.cellHeight = height / this.cy + 1;
+		}
+	}
+
+	/**
+	 * ファイルを読み込み専用でメモリマップします。
+	 * マップ後のバッファはファイルを閉じても有効です。
+	 * @param path ファイルのパス
+	 * @return メモリマップしたバッファ
+	 * @throws IOException 入出力エラー
+	 */
+	private static ByteBuffer map(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("too large to map: " + path);
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} finally {
+			file.close();
+		}
+	}
+
 	/**
 	 * セルデータ
 	 */
 	private RandomAccessFile disc;
 
+	/**
+	 * メモリマップしたセルデータ
+	 * ストリームで読み込む場合はnull
+	 */
+	private ByteBuffer discBuffer;
+
+	/**
+	 * セルが覆う範囲を返します。
+	 * @return セルの原点と、分割数にセルの幅と高さを掛けた範囲
+	 */
+	public Rectangle getBounds() {
+		return new Rectangle(this.x, this.y, this.cellWidth * this.cx, this.cellHeight * this.cy);
+	}
+
+	/**
+	 * インデックスをメモリマップして読み込んでいるかどうか
+	 * @return メモリマップしていればtrue
+	 */
+	public boolean isMapped() {
+		return this.indexBuffer != null;
+	}
+
+	/**
+	 * 検索のためのスレッドごとの作業領域
+	 * 1セル分のレコードを展開するための配列と、重複を除くための市区町村番号のフラグを保持します。
+	 */
+	private static class Cursor {
+		final ByteBuffer buf = ByteBuffer.allocate(MAX_CELL_SIZE * RECORD_SIZE);
+		final int[] code = new int[MAX_CELL_SIZE];
+		final int[] x = new int[MAX_CELL_SIZE];
+		final int[] y = new int[MAX_CELL_SIZE];
+		final int[] w = new int[MAX_CELL_SIZE];
+		final int[] h = new int[MAX_CELL_SIZE];
+		final long[] flag = new long[MAX_CELL_SIZE];
+		final long[] visited = new long[(MAX_CODE + 1) >> 6];
+		final int[] range = new int[4];
+	}
+
+	/**
+	 * 16x16に細分化したセルとの交差フラグの表（表がなければnull）
+	 */
+	private FineMaskTable fine;
+
+	/**
+	 * セルごとに展開したレコードのキャッシュ（キャッシュしなければnull）
+	 */
+	private volatile CellCache cache;
+
+	/**
+	 * 検索で読み込んだセルの数
+	 */
+	private final AtomicLong accessCount = new AtomicLong();
+
+	/**
+	 * スレッドごとの作業領域
+	 */
+	private final ThreadLocal<Cursor> cursor = new ThreadLocal<Cursor>() {
+		@Override
+		protected Cursor initialValue() {
+			return new Cursor();
+		}
+	};
+
+	/**
+	 * セルに含まれるレコードを読み込みます。
+	 * ファイルの位置を変更しない読み込みを行うため、複数のスレッドから同時に呼び出すことができます。
+	 * @param i Y方向のセル番号
+	 * @param j X方向のセル番号
+	 * @param c レコードの展開先（呼び出し元のスレッドの作業領域）
+	 * @return 読み込んだレコード数
+	 * @throws IOException 入出力エラー
+	 */
+	private int readCell(int i, int j, Cursor c) throws IOException {
+		int id = i * this.cx + j;
+		CellCache cache = this.cache;
+		if (cache != null) {
+			CellCache.Records r = cache.get(id);
+			if (r != null) {
+				System.arraycopy(r.code, 0, c.code, 0, r.size);
+				System.arraycopy(r.x, 0, c.x, 0, r.size);
+				System.arraycopy(r.y, 0, c.y, 0, r.size);
+				System.arraycopy(r.w, 0, c.w, 0, r.size);
+				System.arraycopy(r.h, 0, c.h, 0, r.size);
+				System.arraycopy(r.flag, 0, c.flag, 0, r.size);
+				return r.size;
+			}
+		}
+		int offset = POINTER_SIZE * id + HEADER_SIZE;
+		ByteBuffer buf = c.buf;
+		long pointer;
+		int size;
+		if (this.indexBuffer != null) {
+			pointer = this.indexBuffer.getLong(offset);
+			size = this.indexBuffer.get(offset + 8) & 0xFF;
+		} else {
+			buf.clear();
+			buf.limit(POINTER_SIZE);
+			CellMethod.readFully(this.index.getChannel(), buf, offset);
+			pointer = buf.getLong(0);
+			size = buf.get(8) & 0xFF;
+		}
+		if (size > 0) {
+			ByteBuffer src;
+			int p;
+			if (this.discBuffer != null) {
+				src = this.discBuffer;
+				p = (int) pointer;
+			} else {
+				buf.clear();
+				buf.limit(size * RECORD_SIZE);
+				CellMethod.readFully(this.disc.getChannel(), buf, pointer);
+				src = buf;
+				p = 0;
+			}
+			for (int k = 0; k < size; k++, p += RECORD_SIZE) {
+				c.code[k] = src.getShort(p) & 0xFFFF;
+				c.x[k] = src.getInt(p + 2);
+				c.y[k] = src.getInt(p + 6);
+				c.w[k] = src.getInt(p + 10);
+				c.h[k] = src.getInt(p + 14);
+				c.flag[k] = src.getLong(p + 18);
+			}
+		}
+		if (cache != null) {
+			CellCache.Records r = new CellCache.Records(size);
+			System.arraycopy(c.code, 0, r.code, 0, size);
+			System.arraycopy(c.x, 0, r.x, 0, size);
+			System.arraycopy(c.y, 0, r.y, 0, size);
+			System.arraycopy(c.w, 0, r.w, 0, size);
+			System.arraycopy(c.h, 0, r.h, 0, size);
+			System.arraycopy(c.flag, 0, r.flag, 0, size);
+			cache.put(id, r);
+		}
+		return size;
+	}
+
+	/**
+	 * セルごとに展開したレコードをキャッシュします。
+	 * 同じセルを再び検索する場合は、ファイルを読み込まずにキャッシュを用います。
+	 * @param capacity キャッシュするセルの数の上限、0以下ならキャッシュしない
+	 */
+	public void setCacheSize(int capacity) {
+		this.cache = capacity > 0 ? new CellCache(this.cx * this.cy, capacity) : null;
+	}
+
+	/**
+	 * セルのキャッシュを返します。
+	 * @return キャッシュ、キャッシュしていなければnull
+	 */
+	public CellCache getCache() {
+		return this.cache;
+	}
+
+	/**
+	 * 作業領域に展開したレコードと検索範囲との交差フラグを計算します。
+	 * 細分化したセルによって交差しないと判定できる場合は0を返します。
+	 * @param c 作業領域
+	 * @param k レコードの番号
+	 * @param r 検索範囲
+	 * @return 検索範囲と重なるセルとの交差フラグ
+	 */
+	private long getCellFlag(Cursor c, int k, Rectangle r) {
+		long flag = CellBounds.getCellFlag(c.x[k], c.y[k], c.w[k], c.h[k], c.flag[k], r);
+		if (flag != 0 && this.fine != null && !this.fine.intersects(c.code[k], c.x[k], c.y[k], c.w[k], c.h[k], r)) {
+			return 0;
+		}
+		return flag;
+	}
+
+	/**
+	 * ファイルの位置を変更せずに、バッファの残りをすべて読み込みます。
+	 * @param channel 読み込むファイル
+	 * @param buf 読み込み先のバッファ
+	 * @param position 読み込みを開始するファイル上の位置
+	 * @throws IOException 入出力エラー
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
 	/**
 	 * 範囲検索
 	 * @param rect 検索範囲
@@ -130,20 +423,14 @@ public class CellMethod {
 			cy1 = 0;
 			return map;
 		}
+		Cursor c = this.cursor.get();
 		try {
 			for (int i = cy0; i <= cy1; i++) {
 				for (int j = cx0; j <= cx1; j++) {
-					this.index.seek(9 * (i * this.cx + j) + 20);
-					long pointer = this.index.readLong();
-					int size = this.index.readUnsignedByte();
-					if (size > 0) {
-						this.disc.seek(pointer);
-						for (int k = 0; k < size; k++) {
-							int code = this.disc.readUnsignedShort();
-							CellBounds bounds = new CellBounds(this.disc);
-							if (bounds.intersects(rect)) {
-								map.put(bounds, code);
-							}
+					int size = this.readCell(i, j, c);
+					for (int k = 0; k < size; k++) {
+						if (this.getCellFlag(c, k, rect) != 0) {
+							map.put(new CellBounds(c.x[k], c.y[k], c.w[k], c.h[k], c.flag[k]), c.code[k]);
 						}
 					}
 				}
@@ -192,24 +479,19 @@ public class CellMethod {
 			cy1 = 0;
 			return map;
 		}
+		Cursor c = this.cursor.get();
 		try {
 			for (int i = cy0; i <= cy1; i++) {
 				for (int j = cx0; j <= cx1; j++) {
-					this.index.seek(9 * (i * this.cx + j) + 20);
-					long pointer = this.index.readLong();
-					int size = this.index.readUnsignedByte();
-					if (size > 0) {
-						this.disc.seek(pointer);
-						for (int k = 0; k < size; k++) {
-							int code = this.disc.readUnsignedShort();
-							CellBounds bounds = new CellBounds(this.disc);
-							if (bounds.intersects(rect)) {
-								int prefCode = code / 1000;
-								if (!map.containsKey(prefCode)) {
-									map.put(prefCode, new HashSet<Integer>());
-								}
-								map.get(prefCode).add(code);
+					int size = this.readCell(i, j, c);
+					for (int k = 0; k < size; k++) {
+						if (this.getCellFlag(c, k, rect) != 0) {
+							int code = c.code[k];
+							int prefCode = code / 1000;
+							if (!map.containsKey(prefCode)) {
+								map.put(prefCode, new HashSet<Integer>());
 							}
+							map.get(prefCode).add(code);
 						}
 					}
 				}
@@ -221,11 +503,232 @@ public class CellMethod {
 		return map;
 	}
 
+	/**
+	 * 範囲検索
+	 * 検索範囲と交差する市区町村を1件ずつvisitorへ渡します。
+	 * 1つの市区町村は複数のセルに登録されていても1度だけ渡されます。
+	 * レコードごとのインスタンスは生成しません。
+	 * @param rect 検索範囲
+	 * @param visitor 検索結果を受け取るクラス
+	 * @return 入出力エラーがなければtrue
+	 */
+	public boolean search(Rectangle rect, CellVisitor visitor) {
+		Cursor c = this.cursor.get();
+		int[] range = c.range;
+		if (!this.getCellRange(rect.x, rect.y, rect.width, rect.height, range)) {
+			return true;
+		}
+		long[] visited = c.visited;
+		Arrays.fill(visited, 0L);
+		this.accessCount.addAndGet((range[2] - range[0] + 1) * (range[3] - range[1] + 1));
+		try {
+			for (int i = range[1]; i <= range[3]; i++) {
+				for (int j = range[0]; j <= range[2]; j++) {
+					int size = this.readCell(i, j, c);
+					for (int k = 0; k < size; k++) {
+						int code = c.code[k];
+						long bit = 1L << (code & 0x3F);
+						if ((visited[code >> 6] & bit) != 0) {
+							continue;
+						}
+						visited[code >> 6] |= bit;
+						long flag = this.getCellFlag(c, k, rect);
+						if (flag != 0) {
+							visitor.visit(code, Long.bitCount(flag), c.x[k], c.y[k], c.w[k], c.h[k]);
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	public long getAccessCount() {
+		return this.accessCount.get();
+	}
+
+	/**
+	 * 点検索
+	 * 点を含むセルに登録された市区町村のうち、セルを用いた判定で点を含みうる市区町村をvisitorへ渡します。
+	 * 読み込むセルは1つのみで、重複の除去やインスタンスの生成は行いません。
+	 * 厳密に点を含むかどうかは、ポリゴンによる判定が必要です。
+	 * @param x X座標
+	 * @param y Y座標
+	 * @param visitor 検索結果を受け取るクラス（重なるセルの数は常に1）
+	 * @return 入出力エラーがなければtrue
+	 */
+	public boolean searchPoint(int x, int y, CellVisitor visitor) {
+		int px = x - this.x;
+		int py = y - this.y;
+		if (px < 0 || py < 0) {
+			return true;
+		}
+		int j = px / this.cellWidth;
+		int i = py / this.cellHeight;
+		if (j >= this.cx || i >= this.cy) {
+			return true;
+		}
+		Cursor c = this.cursor.get();
+		try {
+			int size = this.readCell(i, j, c);
+			for (int k = 0; k < size; k++) {
+				if (x < c.x[k] || y < c.y[k] || x > c.x[k] + c.w[k] || y > c.y[k] + c.h[k]) {
+					continue;
+				}
+				if (CellBounds.getCellFlag(c.x[k], c.y[k], c.w[k], c.h[k], c.flag[k], x, y, 0, 0) == 0) {
+					continue;
+				}
+				if (this.fine != null && !this.fine.intersects(c.code[k], c.x[k], c.y[k], c.w[k], c.h[k], x, y, 0, 0)) {
+					continue;
+				}
+				visitor.visit(c.code[k], 1, c.x[k], c.y[k], c.w[k], c.h[k]);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 差分の範囲検索
+	 * 検索範囲をprevからcurrへ変更したときに、新たに交差した市区町村をentered、
+	 * 交差しなくなった市区町村をleftへ渡します。
+	 * 2つの検索範囲の差となる領域に重なるセルのみを読み込むため、
+	 * 平行移動では移動量に比例した読み込みで済みます。
+	 * @param prev 変更前の検索範囲
+	 * @param curr 変更後の検索範囲
+	 * @param entered 新たに交差した市区町村を受け取るクラス（重なるセルの数はcurrに対するもの）
+	 * @param left 交差しなくなった市区町村を受け取るクラス（重なるセルの数はprevに対するもの）
+	 * @return 入出力エラーがなければtrue
+	 */
+	public boolean searchDelta(Rectangle prev, Rectangle curr, CellVisitor entered, CellVisitor left) {
+		Cursor c = this.cursor.get();
+		Arrays.fill(c.visited, 0L);
+		try {
+			this.searchDifference(curr, prev, prev, curr, entered, left, c);
+			this.searchDifference(prev, curr, prev, curr, entered, left, c);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * aからbを除いた領域を長方形に分割して、差分の範囲検索を行います。
+	 * @param a 領域
+	 * @param b 除く領域
+	 * @param prev 変更前の検索範囲
+	 * @param curr 変更後の検索範囲
+	 * @param entered 新たに交差した市区町村を受け取るクラス
+	 * @param left 交差しなくなった市区町村を受け取るクラス
+	 * @param c 作業領域
+	 * @throws IOException 入出力エラー
+	 */
+	private void searchDifference(Rectangle a, Rectangle b, Rectangle prev, Rectangle curr, CellVisitor entered, CellVisitor left, Cursor c) throws IOException {
+		if (!a.intersects(b)) {
+			this.searchDifference(a.x, a.y, a.width, a.height, prev, curr, entered, left, c);
+			return;
+		}
+		int ax1 = a.x + a.width;
+		int ay1 = a.y + a.height;
+		int bx1 = b.x + b.width;
+		int by1 = b.y + b.height;
+		if (a.y < b.y) {
+			this.searchDifference(a.x, a.y, a.width, b.y - a.y, prev, curr, entered, left, c);
+		}
+		if (by1 < ay1) {
+			this.searchDifference(a.x, by1, a.width, ay1 - by1, prev, curr, entered, left, c);
+		}
+		int y0 = Math.max(a.y, b.y);
+		int y1 = Math.min(ay1, by1);
+		if (a.x < b.x) {
+			this.searchDifference(a.x, y0, b.x - a.x, y1 - y0, prev, curr, entered, left, c);
+		}
+		if (bx1 < ax1) {
+			this.searchDifference(bx1, y0, ax1 - bx1, y1 - y0, prev, curr, entered, left, c);
+		}
+	}
+
+	/**
+	 * 指定した領域に重なるセルに含まれる市区町村について、検索範囲との交差の変化を調べます。
+	 * @param x 領域のX座標
+	 * @param y 領域のY座標
+	 * @param width 領域の幅
+	 * @param height 領域の高さ
+	 * @param prev 変更前の検索範囲
+	 * @param curr 変更後の検索範囲
+	 * @param entered 新たに交差した市区町村を受け取るクラス
+	 * @param left 交差しなくなった市区町村を受け取るクラス
+	 * @param c 作業領域
+	 * @throws IOException 入出力エラー
+	 */
+	private void searchDifference(int x, int y, int width, int height, Rectangle prev, Rectangle curr, CellVisitor entered, CellVisitor left, Cursor c) throws IOException {
+		int[] range = c.range;
+		if (!this.getCellRange(x, y, width, height, range)) {
+			return;
+		}
+		long[] visited = c.visited;
+		this.accessCount.addAndGet((range[2] - range[0] + 1) * (range[3] - range[1] + 1));
+		for (int i = range[1]; i <= range[3]; i++) {
+			for (int j = range[0]; j <= range[2]; j++) {
+				int size = this.readCell(i, j, c);
+				for (int k = 0; k < size; k++) {
+					int code = c.code[k];
+					long bit = 1L << (code & 0x3F);
+					if ((visited[code >> 6] & bit) != 0) {
+						continue;
+					}
+					visited[code >> 6] |= bit;
+					long flagPrev = this.getCellFlag(c, k, prev);
+					long flagCurr = this.getCellFlag(c, k, curr);
+					if (flagPrev == 0 && flagCurr != 0) {
+						entered.visit(code, Long.bitCount(flagCurr), c.x[k], c.y[k], c.w[k], c.h[k]);
+					} else if (flagPrev != 0 && flagCurr == 0) {
+						left.visit(code, Long.bitCount(flagPrev), c.x[k], c.y[k], c.w[k], c.h[k]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 領域と重なるセルの範囲を求めます。
+	 * @param x 領域のX座標
+	 * @param y 領域のY座標
+	 * @param width 領域の幅
+	 * @param height 領域の高さ
+	 * @param range セルの範囲の格納先 {X方向の最小, Y方向の最小, X方向の最大, Y方向の最大}
+	 * @return 重なるセルがあればtrue
+	 */
+	private boolean getCellRange(int x, int y, int width, int height, int[] range) {
+		x -= this.x;
+		y -= this.y;
+		int cx0 = x / this.cellWidth;
+		int cy0 = y / this.cellHeight;
+		int cx1 = (x + width) / this.cellWidth;
+		int cy1 = (y + height) / this.cellHeight;
+		if (cx0 >= this.cx || cy0 >= this.cy || cx1 < 0 || cy1 < 0) {
+			return false;
+		}
+		range[0] = Math.max(cx0, 0);
+		range[1] = Math.max(cy0, 0);
+		range[2] = Math.min(cx1, this.cx - 1);
+		range[3] = Math.min(cy1, this.cy - 1);
+		return true;
+	}
+
 	/**
 	 * ファイルを閉じる。
 	 * @throws IOException
 	 */
 	public void close() throws IOException {
+		this.indexBuffer = null;
+		this.discBuffer = null;
 		if (this.disc != null) {
 			this.disc.close();
 			this.disc = null;
@@ -250,4 +753,64 @@ public class CellMethod {
 			this.index = null;
 		}
 	}
+
+	/**
+	 * 複数のスレッドから同時に範囲検索を行い、1つのスレッドで検索した結果と一致することを確かめます。
+	 * ストリームで読み込む場合と、メモリマップして読み込む場合の両方を確かめます。
+	 * @param args [0] セルのインデックスデータのディレクトリ（省略時は.data/index）, [1] スレッド数（省略時は16）, [2] スレッドごとの検索回数（省略時は2000）
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String dir = args.length > 0 ? args[0] : ".data" + File.separatorChar + "index";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		final int queries = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		for (boolean isMapped : new boolean[]{false, true}) {
+			final CellMethod cell = new CellMethod(dir, isMapped);
+			try {
+				// 大きさの異なる検索範囲を無作為に作り、1つのスレッドで検索した結果を正解とする
+				Rectangle bounds = cell.getBounds();
+				Random random = new Random(0);
+				final Rectangle[] rects = new Rectangle[400];
+				final Map<?, ?>[] expected = new Map<?, ?>[rects.length];
+				final int[] expectedSize = new int[rects.length];
+				for (int i = 0; i < rects.length; i++) {
+					int width = 1 + random.nextInt(Math.max(1, bounds.width / (4 << random.nextInt(6))));
+					int height = 1 + random.nextInt(Math.max(1, bounds.height / (4 << random.nextInt(6))));
+					rects[i] = new Rectangle(bounds.x + random.nextInt(Math.max(1, bounds.width - width)),
+							bounds.y + random.nextInt(Math.max(1, bounds.height - height)), width, height);
+					expected[i] = cell.search(rects[i]);
+					expectedSize[i] = cell.search2(rects[i]).size();
+				}
+				final AtomicLong mismatch = new AtomicLong();
+				Thread[] workers = new Thread[threads];
+				long start = System.currentTimeMillis();
+				for (int t = 0; t < threads; t++) {
+					final long seed = t;
+					workers[t] = new Thread() {
+						@Override
+						public void run() {
+							Random random = new Random(seed);
+							for (int q = 0; q < queries; q++) {
+								int i = random.nextInt(rects.length);
+								if (!expected[i].equals(cell.search(rects[i])) || expectedSize[i] != cell.search2(rects[i]).size()) {
+									mismatch.incrementAndGet();
+								}
+							}
+						}
+					};
+					workers[t].start();
+				}
+				for (Thread worker : workers) {
+					worker.join();
+				}
+				Log.out(CellMethod.class, (cell.isMapped() ? "mapped" : "stream") + ": " + threads + " threads x " + queries + " queries, "
+						+ mismatch.get() + " mismatches (" + (System.currentTimeMillis() - start) + "ms)");
+				if (mismatch.get() > 0) {
+					throw new IllegalStateException(mismatch.get() + " mismatches");
+				}
+			} finally {
+				cell.close();
+			}
+		}
+	}
 }
@@ -0,0 +1,143 @@
+package index;
+
+/**
+ * 検索範囲と重なるセルの数が多い順に、上位の市区町村を保持するクラス
+ * 
+ * 配列によるヒープを用いるため、生成後はインスタンスを生成しません。
+ * 重なるセルの数が等しい場合は、市区町村番号の小さい方を優先します。
+ * @author ma38su
+ */
+public class CellTopK implements CellVisitor {
+
+	/**
+	 * 重なるセルの数と市区町村番号を連結したキー（最小ヒープ）
+	 */
+	private final long[] key;
+
+	private final int[] x;
+
+	private final int[] y;
+
+	private final int[] width;
+
+	private final int[] height;
+
+	/**
+	 * 保持している件数
+	 */
+	private int size;
+
+	/**
+	 * コンストラクタ
+	 * @param k 保持する件数の上限
+	 */
+	public CellTopK(int k) {
+		if (k <= 0) {
+			throw new IllegalArgumentException("k must be positive: " + k);
+		}
+		this.key = new long[k];
+		this.x = new int[k];
+		this.y = new int[k];
+		this.width = new int[k];
+		this.height = new int[k];
+	}
+
+	/**
+	 * 保持している市区町村をすべて破棄します。
+	 */
+	public void clear() {
+		this.size = 0;
+	}
+
+	/**
+	 * 保持している件数を返します。
+	 * @return 保持している件数
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	public void visit(int code, int overlap, int x, int y, int width, int height) {
+		// 番号の小さい方を大きいキーにするため、番号は反転して格納する
+		long k = ((long) overlap << 32) | (~code & 0xFFFFFFFFL);
+		if (this.size < this.key.length) {
+			this.set(this.size, k, x, y, width, height);
+			this.siftUp(this.size++);
+		} else if (k > this.key[0]) {
+			this.set(0, k, x, y, width, height);
+			this.siftDown(0, this.size);
+		}
+	}
+
+	/**
+	 * 保持している市区町村を重なるセルの数の多い順に渡し、保持している市区町村を破棄します。
+	 * @param visitor 結果を受け取るクラス
+	 */
+	public void drain(CellVisitor visitor) {
+		int n = this.size;
+		// ヒープソートで最小値を末尾から順に並べる
+		for (int i = n - 1; i > 0; i--) {
+			this.swap(0, i);
+			this.siftDown(0, i);
+		}
+		for (int i = 0; i < n; i++) {
+			long k = this.key[i];
+			visitor.visit(~(int) k, (int) (k >>> 32), this.x[i], this.y[i], this.width[i], this.height[i]);
+		}
+		this.size = 0;
+	}
+
+	private void set(int i, long k, int x, int y, int width, int height) {
+		this.key[i] = k;
+		this.x[i] = x;
+		this.y[i] = y;
+		this.width[i] = width;
+		this.height[i] = height;
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (this.key[parent] <= this.key[i]) {
+				break;
+			}
+			this.swap(parent, i);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i, int n) {
+		while (true) {
+			int child = (i << 1) + 1;
+			if (child >= n) {
+				break;
+			}
+			if (child + 1 < n && this.key[child + 1] < this.key[child]) {
+				child++;
+			}
+			if (this.key[i] <= this.key[child]) {
+				break;
+			}
+			this.swap(i, child);
+			i = child;
+		}
+	}
+
+	private void swap(int i, int j) {
+		long k = this.key[i];
+		this.key[i] = this.key[j];
+		this.key[j] = k;
+		int t = this.x[i];
+		this.x[i] = this.x[j];
+		this.x[j] = t;
+		t = this.y[i];
+		this.y[i] = this.y[j];
+		this.y[j] = t;
+		t = this.width[i];
+		this.width[i] = this.width[j];
+		this.width[j] = t;
+		t = this.height[i];
+		this.height[i] = this.height[j];
+		this.height[j] = t;
+	}
+}
@@ -0,0 +1,19 @@
+package index;
+
+/**
+ * セルによる範囲検索の結果を受け取るインターフェース
+ * @author ma38su
+ */
+public interface CellVisitor {
+
+	/**
+	 * 検索範囲と交差する市区町村を受け取ります。
+	 * @param code 市区町村番号
+	 * @param overlap 検索範囲と重なるセルの数
+	 * @param x 外接長方形のX座標
+	 * @param y 外接長方形のY座標
+	 * @param width 外接長方形の幅
+	 * @param height 外接長方形の高さ
+	 */
+	public void visit(int code, int overlap, int x, int y, int width, int height);
+}
@@ -0,0 +1,168 @@
+package index;
+
+import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * 16x16に細分化したセルとの交差フラグの表
+ *
+ * セルデータ（sdf25k.cell）のレコードは8x8の交差フラグのみを持ち、
+ * 細分化した市区町村の交差フラグはこの表（sdf25k.mask）に格納します。
+ * 表がなければ、8x8の交差フラグのみで判定します。
+ *
+ * ファイル形式（sdf25k.mask）
+ * <pre>
+ * int 件数
+ * 件数分、市区町村番号の昇順に
+ *   unsigned short 市区町村番号, long[4] 交差フラグ
+ * </pre>
+ * @author ma38su
+ */
+public class FineMaskTable {
+
+	/**
+	 * 細分化した交差フラグのファイル名
+	 */
+	public static final String FILE_NAME = "sdf25k.mask";
+
+	/**
+	 * 市区町村番号から交差フラグの位置への対応（細分化していない市区町村は-1）
+	 */
+	private final int[] index;
+
+	/**
+	 * 交差フラグ
+	 */
+	private final long[] flags;
+
+	private FineMaskTable(int[] index, long[] flags) {
+		this.index = index;
+		this.flags = flags;
+	}
+
+	/**
+	 * 表を読み込みます。
+	 * @param dir インデックスデータのディレクトリ
+	 * @return 表、ファイルがなければnull
+	 * @throws IOException 入出力エラー
+	 */
+	public static FineMaskTable read(String dir) throws IOException {
+		File file = new File(dir + File.separatorChar + FILE_NAME);
+		if (!file.isFile()) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			int size = in.readInt();
+			int[] index = new int[0x10000];
+			Arrays.fill(index, -1);
+			long[] flags = new long[size * CellBounds.FINE_SIZE];
+			for (int i = 0; i < size; i++) {
+				index[in.readUnsignedShort()] = i * CellBounds.FINE_SIZE;
+				for (int j = 0; j < CellBounds.FINE_SIZE; j++) {
+					flags[i * CellBounds.FINE_SIZE + j] = in.readLong();
+				}
+			}
+			return new FineMaskTable(index, flags);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * 細分化した市区町村の交差フラグを書き込みます。
+	 * 細分化した市区町村がなければ、ファイルを削除します。
+	 * @param dir インデックスデータのディレクトリ
+	 * @param records 市区町村番号と中間表現
+	 * @throws IOException 入出力エラー
+	 */
+	public static void write(String dir, SortedMap<Integer, CellBounds> records) throws IOException {
+		File file = new File(dir + File.separatorChar + FILE_NAME);
+		int size = 0;
+		for (CellBounds bounds : records.values()) {
+			if (bounds.getFineFlag() != null) {
+				size++;
+			}
+		}
+		if (size == 0) {
+			if (file.exists() && !file.delete()) {
+				throw new IOException("failed to delete: " + file);
+			}
+			return;
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(size);
+			for (Map.Entry<Integer, CellBounds> entry : records.entrySet()) {
+				if (entry.getValue().getFineFlag() != null) {
+					out.writeShort(entry.getKey());
+					entry.getValue().writeFineFlag(out);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * 細分化したセルを用いて交差判定を行います。
+	 * 細分化していない市区町村は常にtrueを返します。
+	 * @param code 市区町村番号
+	 * @param x X座標
+	 * @param y Y座標
+	 * @param w 外接長方形の幅
+	 * @param h 外接長方形の高さ
+	 * @param r 検索範囲
+	 * @return 交差しうる場合はtrue
+	 */
+	public boolean intersects(int code, int x, int y, int w, int h, Rectangle r) {
+		return this.intersects(code, x, y, w, h, r.x, r.y, r.width, r.height);
+	}
+
+	/**
+	 * 細分化したセルを用いて交差判定を行います。
+	 * 細分化していない市区町村は常にtrueを返します。
+	 * @param code 市区町村番号
+	 * @param x X座標
+	 * @param y Y座標
+	 * @param w 外接長方形の幅
+	 * @param h 外接長方形の高さ
+	 * @param rx 検索範囲のX座標
+	 * @param ry 検索範囲のY座標
+	 * @param rw 検索範囲の幅
+	 * @param rh 検索範囲の高さ
+	 * @return 交差しうる場合はtrue
+	 */
+	public boolean intersects(int code, int x, int y, int w, int h, int rx, int ry, int rw, int rh) {
+		int offset = this.index[code];
+		return offset < 0 || CellBounds.intersectsFine(x, y, w, h, this.flags, offset, rx, ry, rw, rh);
+	}
+
+	/**
+	 * 細分化したセルとの交差フラグを返します。
+	 * @param code 市区町村番号
+	 * @return 交差フラグ、細分化していなければnull
+	 */
+	public long[] getFineFlag(int code) {
+		int offset = this.index[code];
+		return offset < 0 ? null : Arrays.copyOfRange(this.flags, offset, offset + CellBounds.FINE_SIZE);
+	}
+
+	/**
+	 * 細分化した市区町村の数を返します。
+	 * @return 細分化した市区町村の数
+	 */
+	public int size() {
+		return this.flags.length / CellBounds.FINE_SIZE;
+	}
+}
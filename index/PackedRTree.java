@@ -0,0 +1,465 @@
+package index;
+
+import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import util.Log;
+
+/**
+ * STR（Sort-Tile-Recursive）で一括構築した静的なR-tree
+ *
+ * セルメソッドと同じ市区町村の中間表現（CellBounds）を葉に格納します。
+ * ファイルはメモリマップして読み込み、検索時にインスタンスを生成しません。
+ * 読み込みのみを行うため、複数のスレッドから同時に検索することができます。
+ *
+ * ファイル形式（sdf25k.rtree）
+ * <pre>
+ * int    ノードの最大の子の数
+ * int    レベル数 L
+ * int[L] レベルごとのエントリ数（0: 葉, L-1: 根）
+ * レベル0から順に、エントリの配列
+ *   葉    : unsigned short 市区町村番号, CellBounds（24 bytes）
+ *   内部  : int x, int y, int w, int h, int 子の先頭, int 子の数
+ * </pre>
+ * 根のノードは最上位のレベルのすべてのエントリです。
+ * @author ma38su
+ */
+public class PackedRTree implements SpatialIndex {
+
+	/**
+	 * R-treeのファイル名
+	 */
+	public static final String FILE_NAME = "sdf25k.rtree";
+
+	/**
+	 * ノードの最大の子の数の標準値
+	 */
+	public static final int DEFAULT_FANOUT = 16;
+
+	/**
+	 * 葉のエントリのバイト数
+	 */
+	private static final int LEAF_SIZE = 2 + CellBounds.DISC_SIZE;
+
+	/**
+	 * 内部ノードのエントリのバイト数
+	 */
+	private static final int NODE_SIZE = 24;
+
+	/**
+	 * メモリマップしたR-tree
+	 */
+	private ByteBuffer buf;
+
+	/**
+	 * レベルごとのエントリ数
+	 */
+	private final int[] count;
+
+	/**
+	 * レベルごとのエントリの配列の先頭位置
+	 */
+	private final int[] offset;
+
+	/**
+	 * 16x16に細分化したセルとの交差フラグの表（表がなければnull）
+	 */
+	private final FineMaskTable fine;
+
+	/**
+	 * 検索で読み込んだノードの数
+	 */
+	private final AtomicLong accessCount = new AtomicLong();
+
+	/**
+	 * コンストラクタ
+	 * @param dir インデックスデータのディレクトリ
+	 * @throws IOException
+	 */
+	public PackedRTree(String dir) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(dir + File.separatorChar + FILE_NAME, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("too large to map: " + FILE_NAME);
+			}
+			this.buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			file.close();
+		}
+		try {
+			int levels = this.buf.getInt(4);
+			this.count = new int[levels];
+			this.offset = new int[levels];
+			int p = 8 + levels * 4;
+			for (int i = 0; i < levels; i++) {
+				this.count[i] = this.buf.getInt(8 + i * 4);
+				this.offset[i] = p;
+				p += this.count[i] * (i == 0 ? LEAF_SIZE : NODE_SIZE);
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalStateException(e);
+		}
+		this.fine = FineMaskTable.read(dir);
+	}
+
+	/**
+	 * R-treeのファイルが存在するかどうか確認します。
+	 * @param dir インデックスデータのディレクトリ
+	 * @return 存在すればtrue
+	 */
+	public static boolean exists(String dir) {
+		return new File(dir + File.separatorChar + FILE_NAME).isFile();
+	}
+
+	public boolean search(Rectangle rect, CellVisitor visitor) {
+		int top = this.count.length - 1;
+		this.accessCount.addAndGet(this.search(top, 0, this.count[top], rect, visitor));
+		return true;
+	}
+
+	/**
+	 * ノードを再帰的に検索します。
+	 * @param level ノードのレベル
+	 * @param first ノードの先頭のエントリ
+	 * @param n ノードのエントリ数
+	 * @param rect 検索範囲
+	 * @param visitor 検索結果を受け取るクラス
+	 * @return 読み込んだノードの数
+	 */
+	private int search(int level, int first, int n, Rectangle rect, CellVisitor visitor) {
+		int nodes = 1;
+		ByteBuffer buf = this.buf;
+		if (level == 0) {
+			for (int i = 0, p = this.offset[0] + first * LEAF_SIZE; i < n; i++, p += LEAF_SIZE) {
+				int x = buf.getInt(p + 2);
+				int y = buf.getInt(p + 6);
+				int w = buf.getInt(p + 10);
+				int h = buf.getInt(p + 14);
+				if (PackedRTree.intersects(x, y, w, h, rect)) {
+					int code = buf.getShort(p) & 0xFFFF;
+					long flag = this.getCellFlag(code, x, y, w, h, buf.getLong(p + 18), rect);
+					if (flag != 0) {
+						visitor.visit(code, Long.bitCount(flag), x, y, w, h);
+					}
+				}
+			}
+		} else {
+			for (int i = 0, p = this.offset[level] + first * NODE_SIZE; i < n; i++, p += NODE_SIZE) {
+				if (PackedRTree.intersects(buf.getInt(p), buf.getInt(p + 4), buf.getInt(p + 8), buf.getInt(p + 12), rect)) {
+					nodes += this.search(level - 1, buf.getInt(p + 16), buf.getInt(p + 20), rect, visitor);
+				}
+			}
+		}
+		return nodes;
+	}
+
+	public boolean searchDelta(Rectangle prev, Rectangle curr, CellVisitor entered, CellVisitor left) {
+		int top = this.count.length - 1;
+		this.accessCount.addAndGet(this.searchDelta(top, 0, this.count[top], prev, curr, entered, left));
+		return true;
+	}
+
+	/**
+	 * ノードを再帰的に差分の範囲検索します。
+	 * 2つの検索範囲の差となる領域に交差するノードのみを読み込みます。
+	 * @param level ノードのレベル
+	 * @param first ノードの先頭のエントリ
+	 * @param n ノードのエントリ数
+	 * @param prev 変更前の検索範囲
+	 * @param curr 変更後の検索範囲
+	 * @param entered 新たに交差した市区町村を受け取るクラス
+	 * @param left 交差しなくなった市区町村を受け取るクラス
+	 * @return 読み込んだノードの数
+	 */
+	private int searchDelta(int level, int first, int n, Rectangle prev, Rectangle curr, CellVisitor entered, CellVisitor left) {
+		int nodes = 1;
+		ByteBuffer buf = this.buf;
+		if (level == 0) {
+			for (int i = 0, p = this.offset[0] + first * LEAF_SIZE; i < n; i++, p += LEAF_SIZE) {
+				int x = buf.getInt(p + 2);
+				int y = buf.getInt(p + 6);
+				int w = buf.getInt(p + 10);
+				int h = buf.getInt(p + 14);
+				if (PackedRTree.intersectsDifference(x, y, w, h, prev, curr)) {
+					int code = buf.getShort(p) & 0xFFFF;
+					long flag = buf.getLong(p + 18);
+					long flagPrev = this.getCellFlag(code, x, y, w, h, flag, prev);
+					long flagCurr = this.getCellFlag(code, x, y, w, h, flag, curr);
+					if (flagPrev == 0 && flagCurr != 0) {
+						entered.visit(code, Long.bitCount(flagCurr), x, y, w, h);
+					} else if (flagPrev != 0 && flagCurr == 0) {
+						left.visit(code, Long.bitCount(flagPrev), x, y, w, h);
+					}
+				}
+			}
+		} else {
+			for (int i = 0, p = this.offset[level] + first * NODE_SIZE; i < n; i++, p += NODE_SIZE) {
+				if (PackedRTree.intersectsDifference(buf.getInt(p), buf.getInt(p + 4), buf.getInt(p + 8), buf.getInt(p + 12), prev, curr)) {
+					nodes += this.searchDelta(level - 1, buf.getInt(p + 16), buf.getInt(p + 20), prev, curr, entered, left);
+				}
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * 葉のエントリと検索範囲との交差フラグを計算します。
+	 * 細分化したセルによって交差しないと判定できる場合は0を返します。
+	 * @param code 市区町村番号
+	 * @param x X座標
+	 * @param y Y座標
+	 * @param w 幅
+	 * @param h 高さ
+	 * @param flagCell セルとの交差フラグ
+	 * @param r 検索範囲
+	 * @return 検索範囲と重なるセルとの交差フラグ
+	 */
+	private long getCellFlag(int code, int x, int y, int w, int h, long flagCell, Rectangle r) {
+		long flag = CellBounds.getCellFlag(x, y, w, h, flagCell, r);
+		if (flag != 0 && this.fine != null && !this.fine.intersects(code, x, y, w, h, r)) {
+			return 0;
+		}
+		return flag;
+	}
+
+	/**
+	 * 外接長方形と検索範囲の交差判定を行います。境界で接する場合も交差とします。
+	 * @param x X座標
+	 * @param y Y座標
+	 * @param w 幅
+	 * @param h 高さ
+	 * @param r 検索範囲
+	 * @return 交差していればtrue
+	 */
+	private static boolean intersects(int x, int y, int w, int h, Rectangle r) {
+		return x <= r.x + r.width && r.x <= x + w && y <= r.y + r.height && r.y <= y + h;
+	}
+
+	/**
+	 * 外接長方形と、2つの検索範囲のどちらか一方のみに含まれる領域との交差判定を行います。
+	 * @param x X座標
+	 * @param y Y座標
+	 * @param w 幅
+	 * @param h 高さ
+	 * @param prev 変更前の検索範囲
+	 * @param curr 変更後の検索範囲
+	 * @return 交差していればtrue
+	 */
+	private static boolean intersectsDifference(int x, int y, int w, int h, Rectangle prev, Rectangle curr) {
+		boolean isPrev = PackedRTree.intersects(x, y, w, h, prev);
+		boolean isCurr = PackedRTree.intersects(x, y, w, h, curr);
+		if (isPrev != isCurr) {
+			return true;
+		} else if (!isPrev) {
+			return false;
+		}
+		// 両方と交差する場合は、外接長方形がもう一方の範囲に含まれていなければ差の領域と交差しうる
+		return !PackedRTree.contains(prev, x, y, w, h) || !PackedRTree.contains(curr, x, y, w, h);
+	}
+
+	/**
+	 * 検索範囲が外接長方形を含むかどうか判定します。
+	 * @param r 検索範囲
+	 * @param x X座標
+	 * @param y Y座標
+	 * @param w 幅
+	 * @param h 高さ
+	 * @return 含んでいればtrue
+	 */
+	private static boolean contains(Rectangle r, int x, int y, int w, int h) {
+		return r.x < x && x + w < r.x + r.width && r.y < y && y + h < r.y + r.height;
+	}
+
+	public long getAccessCount() {
+		return this.accessCount.get();
+	}
+
+	public void close() throws IOException {
+		this.buf = null;
+	}
+
+	/**
+	 * セルメソッドのセルデータからR-treeを構築して書き込みます。
+	 * 複数のセルに登録されている市区町村は1つにまとめます。
+	 * @param dir インデックスデータのディレクトリ
+	 * @param fanout ノードの最大の子の数
+	 * @throws IOException 入出力エラー
+	 */
+	public static void build(String dir, int fanout) throws IOException {
+		if (fanout < 2) {
+			throw new IllegalArgumentException("fanout must be at least 2: " + fanout);
+		}
+		List<Entry> leaves = new ArrayList<Entry>();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dir + File.separatorChar + "sdf25k.cell")));
+		try {
+			Set<Integer> codes = new HashSet<Integer>();
+			while (true) {
+				int code;
+				try {
+					code = in.readUnsignedShort();
+				} catch (EOFException e) {
+					break;
+				}
+				CellBounds bounds = new CellBounds(in);
+				if (codes.add(code)) {
+					leaves.add(new Entry(code, bounds));
+				}
+			}
+		} finally {
+			in.close();
+		}
+		List<List<Entry>> levels = new ArrayList<List<Entry>>();
+		List<Entry> current = PackedRTree.sortTileRecursive(leaves, fanout);
+		levels.add(current);
+		while (current.size() > fanout) {
+			List<Entry> parents = new ArrayList<Entry>();
+			for (int i = 0; i < current.size(); i += fanout) {
+				parents.add(new Entry(current, i, Math.min(fanout, current.size() - i)));
+			}
+			current = PackedRTree.sortTileRecursive(parents, fanout);
+			levels.add(current);
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dir + File.separatorChar + FILE_NAME)));
+		try {
+			out.writeInt(fanout);
+			out.writeInt(levels.size());
+			for (List<Entry> level : levels) {
+				out.writeInt(level.size());
+			}
+			for (Entry leaf : levels.get(0)) {
+				out.writeShort(leaf.code);
+				leaf.bounds.writeDisc(out);
+			}
+			for (int i = 1; i < levels.size(); i++) {
+				for (Entry node : levels.get(i)) {
+					out.writeInt(node.x);
+					out.writeInt(node.y);
+					out.writeInt(node.w);
+					out.writeInt(node.h);
+					out.writeInt(node.first);
+					out.writeInt(node.n);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * STRによってエントリを並べ替えます。
+	 * X座標の中心で並べてスライスに分割し、スライスごとにY座標の中心で並べます。
+	 * @param entries エントリ
+	 * @param fanout ノードの最大の子の数
+	 * @return 並べ替えたエントリ
+	 */
+	private static List<Entry> sortTileRecursive(List<Entry> entries, int fanout) {
+		List<Entry> list = new ArrayList<Entry>(entries);
+		Collections.sort(list, new Comparator<Entry>() {
+			public int compare(Entry o1, Entry o2) {
+				return Long.signum(o1.getCenterX() - o2.getCenterX());
+			}
+		});
+		int pages = (list.size() + fanout - 1) / fanout;
+		int slices = (int) Math.ceil(Math.sqrt(pages));
+		int sliceSize = slices * fanout;
+		Comparator<Entry> comparatorY = new Comparator<Entry>() {
+			public int compare(Entry o1, Entry o2) {
+				return Long.signum(o1.getCenterY() - o2.getCenterY());
+			}
+		};
+		for (int i = 0; i < list.size(); i += sliceSize) {
+			Collections.sort(list.subList(i, Math.min(i + sliceSize, list.size())), comparatorY);
+		}
+		return list;
+	}
+
+	/**
+	 * 構築時のエントリ
+	 */
+	private static class Entry {
+		int code;
+		CellBounds bounds;
+		int x;
+		int y;
+		int w;
+		int h;
+		int first;
+		int n;
+
+		/**
+		 * 葉のエントリ
+		 */
+		Entry(int code, CellBounds bounds) {
+			this.code = code;
+			this.bounds = bounds;
+			Rectangle rect = bounds.getBounds();
+			this.x = rect.x;
+			this.y = rect.y;
+			this.w = rect.width;
+			this.h = rect.height;
+		}
+
+		/**
+		 * 子のエントリをまとめた内部ノードのエントリ
+		 */
+		Entry(List<Entry> children, int first, int n) {
+			this.first = first;
+			this.n = n;
+			long x0 = Long.MAX_VALUE;
+			long y0 = Long.MAX_VALUE;
+			long x1 = Long.MIN_VALUE;
+			long y1 = Long.MIN_VALUE;
+			for (int i = first; i < first + n; i++) {
+				Entry child = children.get(i);
+				x0 = Math.min(x0, child.x);
+				y0 = Math.min(y0, child.y);
+				x1 = Math.max(x1, (long) child.x + child.w);
+				y1 = Math.max(y1, (long) child.y + child.h);
+			}
+			this.x = (int) x0;
+			this.y = (int) y0;
+			this.w = (int) (x1 - x0);
+			this.h = (int) (y1 - y0);
+		}
+
+		long getCenterX() {
+			return 2L * this.x + this.w;
+		}
+
+		long getCenterY() {
+			return 2L * this.y + this.h;
+		}
+	}
+
+	/**
+	 * セルデータからR-treeを構築します。
+	 * @param args [0] インデックスデータのディレクトリ, [1] ノードの最大の子の数（省略可）
+	 * @throws IOException 入出力エラー
+	 */
+	public static void main(String[] args) throws IOException {
+		String dir = args.length > 0 ? args[0] : ".data" + File.separatorChar + "index";
+		int fanout = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_FANOUT;
+		long start = System.currentTimeMillis();
+		PackedRTree.build(dir, fanout);
+		Log.out(PackedRTree.class, FILE_NAME + ": " + (System.currentTimeMillis() - start) + "ms");
+	}
+}
@@ -0,0 +1,234 @@
+package index;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import util.Log;
+
+/**
+ * 座標から市区町村を求める逆ジオコーディング
+ *
+ * 点を含むセルのみを読み込み（CellMethod.searchPoint）、
+ * セルの交差フラグで候補を絞り込んだ後に、ポリゴンで厳密に判定します。
+ * 複数の座標をまとめて与えると、ForkJoinPoolで並列に判定します。
+ * @author ma38su
+ */
+public class ReverseGeocoder {
+
+	/**
+	 * 市区町村が見つからない場合の戻り値
+	 */
+	public static final int NOT_FOUND = -1;
+
+	/**
+	 * 並列処理で1タスクが担当する座標の数
+	 */
+	private static final int THRESHOLD = 4096;
+
+	/**
+	 * セルメソッド
+	 */
+	private final CellMethod cell;
+
+	/**
+	 * 市区町村番号をインデックスとするポリゴン
+	 */
+	private final Polygon[][] areas;
+
+	/**
+	 * 並列処理のスレッドプール
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * コンストラクタ
+	 * @param cell セルメソッド
+	 * @param areas 市区町村番号とポリゴン
+	 * @param parallelism 並列数
+	 */
+	public ReverseGeocoder(CellMethod cell, Map<Integer, Polygon[]> areas, int parallelism) {
+		this.cell = cell;
+		this.areas = new Polygon[0x10000][];
+		for (Map.Entry<Integer, Polygon[]> entry : areas.entrySet()) {
+			Polygon[] polygons = entry.getValue();
+			for (Polygon p : polygons) {
+				// 外接長方形を事前に計算し、判定時の遅延初期化を避ける
+				p.getBounds();
+			}
+			this.areas[entry.getKey()] = polygons;
+		}
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * コンストラクタ
+	 * @param cell セルメソッド
+	 * @param areas 市区町村番号とポリゴン
+	 */
+	public ReverseGeocoder(CellMethod cell, Map<Integer, Polygon[]> areas) {
+		this(cell, areas, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * 座標を含む市区町村を求めます。
+	 * @param x X座標（経度）
+	 * @param y Y座標（緯度）
+	 * @return 市区町村番号、見つからなければNOT_FOUND
+	 */
+	public int lookup(int x, int y) {
+		PointVisitor visitor = new PointVisitor(this.areas);
+		return visitor.lookup(this.cell, x, y);
+	}
+
+	/**
+	 * 複数の座標を含む市区町村を並列に求めます。
+	 * @param xs X座標（経度）の配列
+	 * @param ys Y座標（緯度）の配列
+	 * @param codes 市区町村番号を格納する配列、見つからなければNOT_FOUNDを格納
+	 */
+	public void lookup(int[] xs, int[] ys, int[] codes) {
+		if (xs.length != ys.length || xs.length > codes.length) {
+			throw new IllegalArgumentException("illegal length: " + xs.length + ", " + ys.length + ", " + codes.length);
+		}
+		this.pool.invoke(new LookupAction(xs, ys, codes, 0, xs.length));
+	}
+
+	/**
+	 * スレッドプールを終了します。
+	 */
+	public void shutdown() {
+		this.pool.shutdown();
+	}
+
+	/**
+	 * 座標の範囲を分割して判定するタスク
+	 */
+	private class LookupAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int[] xs;
+		private final int[] ys;
+		private final int[] codes;
+		private final int from;
+		private final int to;
+
+		public LookupAction(int[] xs, int[] ys, int[] codes, int from, int to) {
+			this.xs = xs;
+			this.ys = ys;
+			this.codes = codes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= THRESHOLD) {
+				PointVisitor visitor = new PointVisitor(ReverseGeocoder.this.areas);
+				for (int i = this.from; i < this.to; i++) {
+					this.codes[i] = visitor.lookup(ReverseGeocoder.this.cell, this.xs[i], this.ys[i]);
+				}
+			} else {
+				int mid = (this.from + this.to) >>> 1;
+				RecursiveAction.invokeAll(new LookupAction(this.xs, this.ys, this.codes, this.from, mid),
+						new LookupAction(this.xs, this.ys, this.codes, mid, this.to));
+			}
+		}
+	}
+
+	/**
+	 * セルの交差フラグで絞り込んだ候補を、ポリゴンで判定するクラス
+	 * スレッドごとに生成して使い回します。
+	 */
+	private static class PointVisitor implements CellVisitor {
+		private final Polygon[][] areas;
+		private int px;
+		private int py;
+		private int result;
+
+		public PointVisitor(Polygon[][] areas) {
+			this.areas = areas;
+		}
+
+		public int lookup(CellMethod cell, int x, int y) {
+			this.px = x;
+			this.py = y;
+			this.result = NOT_FOUND;
+			cell.searchPoint(x, y, this);
+			return this.result;
+		}
+
+		public void visit(int code, int overlap, int x, int y, int width, int height) {
+			if (this.result != NOT_FOUND) {
+				return;
+			}
+			Polygon[] polygons = this.areas[code];
+			if (polygons == null) {
+				return;
+			}
+			for (Polygon p : polygons) {
+				if (p.contains(this.px, this.py)) {
+					this.result = code;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 逆ジオコーディングの処理速度を計測します。
+	 * 日本全域の外接長方形から一様乱数で座標を生成して判定します。
+	 * @param args [0] インデックスデータのディレクトリ, [1] ポリゴンのファイル, [2] 座標の数（省略時は1000000）
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("usage: ReverseGeocoder <index dir> <polygons> [count]");
+			return;
+		}
+		int n = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+		Map<Integer, Polygon[]> polygons;
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(args[1])));
+		try {
+			@SuppressWarnings("unchecked")
+			Map<Integer, Polygon[]> obj = (Map<Integer, Polygon[]>) in.readObject();
+			polygons = obj;
+		} finally {
+			in.close();
+		}
+		CellMethod cell = new CellMethod(args[0], true);
+		ReverseGeocoder geocoder = new ReverseGeocoder(cell, polygons);
+		try {
+			int[] xs = new int[n];
+			int[] ys = new int[n];
+			int[] codes = new int[n];
+			Rectangle bounds = cell.getBounds();
+			Random random = new Random(0);
+			for (int i = 0; i < n; i++) {
+				xs[i] = bounds.x + random.nextInt(bounds.width);
+				ys[i] = bounds.y + random.nextInt(bounds.height);
+			}
+			// JITのウォームアップ
+			geocoder.lookup(xs, ys, codes);
+			long start = System.nanoTime();
+			geocoder.lookup(xs, ys, codes);
+			long time = System.nanoTime() - start;
+			int found = 0;
+			for (int code : codes) {
+				if (code != NOT_FOUND) {
+					found++;
+				}
+			}
+			Log.out(ReverseGeocoder.class, n + " points, " + found + " found, " + (time / 1000000) + "ms, "
+					+ (long) (n * 60e9 / time) + " points/min (" + Runtime.getRuntime().availableProcessors() + " threads)");
+		} finally {
+			geocoder.shutdown();
+			cell.close();
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package index;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import util.Log;
+
+/**
+ * 差分の範囲検索（searchDelta）を適用した結果が、全体の範囲検索の結果と一致することを確かめるクラス
+ *
+ * 平行移動、拡大縮小、離れた位置への移動を無作為に繰り返し、移動ごとに差分を適用した市区町村と、
+ * 移動後の検索範囲を全体の範囲検索した市区町村を比較します。
+ * @author ma38su
+ */
+public class SearchDeltaCheck {
+
+	/**
+	 * 市区町村番号の上限
+	 */
+	private static final int MAX_CODE = 0x10000;
+
+	/**
+	 * 市区町村番号ごとに、範囲検索で受け取った回数を数えるクラス
+	 */
+	private static class Counter implements CellVisitor {
+		final int[] count = new int[MAX_CODE];
+		final int delta;
+
+		Counter(int delta) {
+			this.delta = delta;
+		}
+
+		public void visit(int code, int overlap, int x, int y, int width, int height) {
+			this.count[code] += this.delta;
+		}
+	}
+
+	private SearchDeltaCheck() {
+	}
+
+	/**
+	 * 差分を適用した結果と全体の範囲検索の結果を比較します。
+	 * @param index 空間インデックス
+	 * @param bounds 検索範囲を作る範囲
+	 * @param steps 移動の回数
+	 * @return 一致しなかった移動の回数
+	 */
+	public static int check(SpatialIndex index, Rectangle bounds, int steps) {
+		Random random = new Random(0);
+		Rectangle prev = SearchDeltaCheck.jump(random, bounds);
+		Counter applied = new Counter(1);
+		final int[] state = applied.count;
+		if (!index.search(prev, applied)) {
+			throw new IllegalStateException("search failed");
+		}
+		CellVisitor left = new CellVisitor() {
+			public void visit(int code, int overlap, int x, int y, int width, int height) {
+				state[code]--;
+			}
+		};
+		int mismatch = 0;
+		for (int step = 0; step < steps; step++) {
+			Rectangle curr;
+			int action = random.nextInt(10);
+			if (action < 7) {
+				// 平行移動
+				curr = new Rectangle(prev);
+				curr.translate(random.nextInt(prev.width / 4 + 1) - prev.width / 8, random.nextInt(prev.height / 4 + 1) - prev.height / 8);
+			} else if (action < 9) {
+				// 中心を固定した拡大縮小
+				double scale = 0.8 + random.nextDouble() * 0.45;
+				int width = Math.max(1, (int) (prev.width * scale));
+				int height = Math.max(1, (int) (prev.height * scale));
+				curr = new Rectangle(prev.x + (prev.width - width) / 2, prev.y + (prev.height - height) / 2, width, height);
+			} else {
+				curr = SearchDeltaCheck.jump(random, bounds);
+			}
+			if (!index.searchDelta(prev, curr, applied, left)) {
+				throw new IllegalStateException("searchDelta failed");
+			}
+			Counter expected = new Counter(1);
+			if (!index.search(curr, expected)) {
+				throw new IllegalStateException("search failed");
+			}
+			if (!Arrays.equals(state, expected.count)) {
+				mismatch++;
+				// 次の移動は正しい結果から始める
+				System.arraycopy(expected.count, 0, state, 0, MAX_CODE);
+			}
+			prev = curr;
+		}
+		return mismatch;
+	}
+
+	/**
+	 * 範囲内の無作為な位置と大きさの検索範囲を作ります。
+	 */
+	private static Rectangle jump(Random random, Rectangle bounds) {
+		int width = Math.max(1, bounds.width / (4 << random.nextInt(5)));
+		int height = Math.max(1, bounds.height / (4 << random.nextInt(5)));
+		return new Rectangle(bounds.x + random.nextInt(bounds.width - width + 1), bounds.y + random.nextInt(bounds.height - height + 1), width, height);
+	}
+
+	/**
+	 * 小さな平行移動について、全体の範囲検索と差分の範囲検索の1回あたりの時間を計測します。
+	 * @param index 空間インデックス
+	 * @param bounds 検索範囲を作る範囲
+	 * @param queries 計測する検索の回数
+	 * @return [0] 全体の範囲検索, [1] 差分の範囲検索の1回あたりの時間（ナノ秒）
+	 */
+	public static long[] measure(SpatialIndex index, Rectangle bounds, int queries) {
+		CellVisitor ignore = new CellVisitor() {
+			public void visit(int code, int overlap, int x, int y, int width, int height) {
+			}
+		};
+		int width = bounds.width / 15;
+		int height = bounds.height / 15;
+		Rectangle[] rects = new Rectangle[queries + 1];
+		Random random = new Random(1);
+		rects[0] = new Rectangle(bounds.x + random.nextInt(bounds.width - width), bounds.y + random.nextInt(bounds.height - height), width, height);
+		for (int i = 1; i < rects.length; i++) {
+			rects[i] = new Rectangle(rects[i - 1]);
+			// 1画面の1%程度の平行移動
+			rects[i].translate(random.nextInt(width / 50 + 1) - width / 100, random.nextInt(height / 50 + 1) - height / 100);
+		}
+		long[] time = new long[2];
+		// 1回目は実行時コンパイルの影響を受けるため、2回目を計測する
+		for (int repeat = 0; repeat < 2; repeat++) {
+			long start = System.nanoTime();
+			for (int i = 1; i < rects.length; i++) {
+				index.search(rects[i], ignore);
+			}
+			time[0] = (System.nanoTime() - start) / queries;
+			start = System.nanoTime();
+			for (int i = 1; i < rects.length; i++) {
+				index.searchDelta(rects[i - 1], rects[i], ignore, ignore);
+			}
+			time[1] = (System.nanoTime() - start) / queries;
+		}
+		return time;
+	}
+
+	/**
+	 * セルメソッドと、ファイルがあればR-treeの差分の範囲検索を確かめます。
+	 * @param args [0] インデックスデータのディレクトリ（省略時は.data/index）, [1] 移動の回数（省略時は20000）
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String dir = args.length > 0 ? args[0] : ".data" + File.separatorChar + "index";
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		CellMethod cell = new CellMethod(dir, true);
+		Rectangle bounds = cell.getBounds();
+		SpatialIndex[] indexes = PackedRTree.exists(dir) ? new SpatialIndex[]{cell, new PackedRTree(dir)} : new SpatialIndex[]{cell};
+		int mismatch = 0;
+		try {
+			for (SpatialIndex index : indexes) {
+				String name = index.getClass().getSimpleName();
+				long start = System.currentTimeMillis();
+				int m = SearchDeltaCheck.check(index, bounds, steps);
+				Log.out(SearchDeltaCheck.class, name + ": " + steps + " steps, " + m + " mismatches (" + (System.currentTimeMillis() - start) + "ms)");
+				long[] time = SearchDeltaCheck.measure(index, bounds, 20000);
+				Log.out(SearchDeltaCheck.class, name + ": small pan, search " + time[0] + "ns, searchDelta " + time[1] + "ns");
+				mismatch += m;
+			}
+		} finally {
+			for (SpatialIndex index : indexes) {
+				index.close();
+			}
+		}
+		if (mismatch > 0) {
+			throw new IllegalStateException(mismatch + " mismatches");
+		}
+	}
+}
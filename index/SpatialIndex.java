@@ -0,0 +1,44 @@
+package index;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+
+/**
+ * 市区町村の範囲検索を行う空間インデックス
+ * @author ma38su
+ */
+public interface SpatialIndex {
+
+	/**
+	 * 範囲検索
+	 * 検索範囲と交差する市区町村を1件ずつvisitorへ渡します。
+	 * @param rect 検索範囲
+	 * @param visitor 検索結果を受け取るクラス
+	 * @return 入出力エラーがなければtrue
+	 */
+	public boolean search(Rectangle rect, CellVisitor visitor);
+
+	/**
+	 * 差分の範囲検索
+	 * 検索範囲をprevからcurrへ変更したときに、新たに交差した市区町村をentered、
+	 * 交差しなくなった市区町村をleftへ渡します。
+	 * @param prev 変更前の検索範囲
+	 * @param curr 変更後の検索範囲
+	 * @param entered 新たに交差した市区町村を受け取るクラス
+	 * @param left 交差しなくなった市区町村を受け取るクラス
+	 * @return 入出力エラーがなければtrue
+	 */
+	public boolean searchDelta(Rectangle prev, Rectangle curr, CellVisitor entered, CellVisitor left);
+
+	/**
+	 * これまでの検索で読み込んだセル、またはノードの数を返します。
+	 * @return 読み込んだセル、またはノードの数
+	 */
+	public long getAccessCount();
+
+	/**
+	 * ファイルを閉じる。
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+}
@@ -0,0 +1,141 @@
+package index;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.util.BitSet;
+import java.util.Random;
+
+import util.FixedPoint;
+import util.Log;
+
+/**
+ * セルメソッドとR-treeの範囲検索を比較するクラス
+ *
+ * 市区町村、都道府県、地方、日本全体の大きさの検索範囲ごとに、両方の空間インデックスで同じ市区町村が得られることを確かめ、
+ * 検索1回あたりに読み込んだセル、またはノードの数と検索時間を出力します。
+ * @author ma38su
+ */
+public class SpatialIndexBenchmark {
+
+	/**
+	 * 検索範囲の種類
+	 */
+	private static final String[] VIEWPORT_NAME = {"city", "prefecture", "region", "japan"};
+
+	/**
+	 * 検索範囲の種類ごとの1辺の長さ（経度・緯度、0以下はインデックス全体）
+	 */
+	private static final double[] VIEWPORT_DEGREE = {0.1, 1, 5, 0};
+
+	/**
+	 * 市区町村番号を集めるクラス
+	 */
+	private static class Collector implements CellVisitor {
+		final BitSet codes = new BitSet();
+
+		public void visit(int code, int overlap, int x, int y, int width, int height) {
+			this.codes.set(code);
+		}
+	}
+
+	private SpatialIndexBenchmark() {
+	}
+
+	/**
+	 * 範囲内の無作為な位置に、指定した大きさの検索範囲を作ります。
+	 * @param random 乱数
+	 * @param bounds インデックスの範囲
+	 * @param degree 1辺の長さ（経度・緯度、0以下はインデックス全体）
+	 * @param n 検索範囲の数
+	 * @return 検索範囲
+	 */
+	private static Rectangle[] viewports(Random random, Rectangle bounds, double degree, int n) {
+		Rectangle[] rects = new Rectangle[n];
+		int size = (int) (degree * FixedPoint.SHIFT);
+		for (int i = 0; i < n; i++) {
+			if (size <= 0) {
+				rects[i] = new Rectangle(bounds);
+			} else {
+				int width = Math.min(size, bounds.width);
+				int height = Math.min(size, bounds.height);
+				rects[i] = new Rectangle(bounds.x + random.nextInt(bounds.width - width + 1), bounds.y + random.nextInt(bounds.height - height + 1), width, height);
+			}
+		}
+		return rects;
+	}
+
+	/**
+	 * 検索1回あたりの読み込んだセル、またはノードの数と時間を計測します。
+	 * @param index 空間インデックス
+	 * @param rects 検索範囲
+	 * @return [0] 読み込んだセル、またはノードの数の合計, [1] 時間の合計（ナノ秒）
+	 */
+	private static long[] measure(SpatialIndex index, Rectangle[] rects) {
+		CellVisitor ignore = new CellVisitor() {
+			public void visit(int code, int overlap, int x, int y, int width, int height) {
+			}
+		};
+		long access = index.getAccessCount();
+		long start = System.nanoTime();
+		for (Rectangle rect : rects) {
+			index.search(rect, ignore);
+		}
+		return new long[]{index.getAccessCount() - access, System.nanoTime() - start};
+	}
+
+	/**
+	 * @param args [0] インデックスデータのディレクトリ（省略時は.data/index）, [1] 検索範囲の種類ごとの検索回数（省略時は3000）,
+	 * [2] R-treeのノードの最大の子の数（R-treeのファイルがない場合に作成する、省略時はPackedRTree.DEFAULT_FANOUT）
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		String dir = args.length > 0 ? args[0] : ".data" + File.separatorChar + "index";
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+		int fanout = args.length > 2 ? Integer.parseInt(args[2]) : PackedRTree.DEFAULT_FANOUT;
+		if (!PackedRTree.exists(dir)) {
+			Log.out(SpatialIndexBenchmark.class, "build " + PackedRTree.FILE_NAME + " (fanout " + fanout + ")");
+			PackedRTree.build(dir, fanout);
+		}
+		CellMethod grid = new CellMethod(dir, true);
+		PackedRTree tree = new PackedRTree(dir);
+		int mismatch = 0;
+		try {
+			Rectangle bounds = grid.getBounds();
+			Random random = new Random(0);
+			Rectangle[][] viewports = new Rectangle[VIEWPORT_NAME.length][];
+			for (int k = 0; k < VIEWPORT_NAME.length; k++) {
+				viewports[k] = SpatialIndexBenchmark.viewports(random, bounds, VIEWPORT_DEGREE[k], queries);
+				for (Rectangle rect : viewports[k]) {
+					Collector expected = new Collector();
+					Collector actual = new Collector();
+					grid.search(rect, expected);
+					tree.search(rect, actual);
+					if (!expected.codes.equals(actual.codes)) {
+						mismatch++;
+					}
+				}
+			}
+			// 最初の検索は実行時コンパイルの影響を受けるため、すべての種類の検索範囲で数回検索してから計測する
+			for (int repeat = 0; repeat < 3; repeat++) {
+				for (Rectangle[] rects : viewports) {
+					SpatialIndexBenchmark.measure(grid, rects);
+					SpatialIndexBenchmark.measure(tree, rects);
+				}
+			}
+			for (int k = 0; k < VIEWPORT_NAME.length; k++) {
+				long[] cells = SpatialIndexBenchmark.measure(grid, viewports[k]);
+				long[] nodes = SpatialIndexBenchmark.measure(tree, viewports[k]);
+				Log.out(SpatialIndexBenchmark.class, String.format("%-10s: grid %.1f cells %.2fus | rtree %.1f nodes %.2fus",
+						VIEWPORT_NAME[k], (double) cells[0] / queries, cells[1] / 1000.0 / queries,
+						(double) nodes[0] / queries, nodes[1] / 1000.0 / queries));
+			}
+		} finally {
+			grid.close();
+			tree.close();
+		}
+		Log.out(SpatialIndexBenchmark.class, mismatch + " mismatches");
+		if (mismatch > 0) {
+			throw new IllegalStateException(mismatch + " mismatches");
+		}
+	}
+}
@@ -2,12 +2,9 @@ package labeling;
 
 import java.awt.BasicStroke;
 import java.awt.Color;
-import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.Shape;
 import java.awt.Stroke;
-import java.awt.font.FontRenderContext;
-import java.awt.font.GlyphVector;
 
 /**
  * 配置済みラベル
@@ -49,18 +46,17 @@ public class FixedLabel {
 	/**
 	 * 影をつけてラベルを描画
 	 * @param g
+	 * @param outline 原点に置いた文字列の輪郭
 	 * @param fill フォントの色
 	 * @param border 影の色
 	 */
-	void draw(Graphics2D g, Color fill, Color border) {
-		Font font = g.getFont();
-		FontRenderContext render = g.getFontRenderContext();
-		GlyphVector glyph = font.createGlyphVector(render, this.name);
+	void draw(Graphics2D g, Shape outline, Color fill, Color border) {
 		g.setColor(border);
 
 		g.setStroke(SHADOW_STROKE);
-		Shape shape = glyph.getOutline(this.x, this.y);
-		g.draw(shape);
+		g.translate(this.x, this.y);
+		g.draw(outline);
+		g.translate(-this.x, -this.y);
 		g.setColor(fill);
 
 		g.setStroke(BASIC_STROKE);
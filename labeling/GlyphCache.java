@@ -0,0 +1,83 @@
+package labeling;
+
+import java.awt.Font;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 文字列の輪郭のキャッシュ
+ *
+ * ラベルの影は文字列の輪郭を太い線でなぞって描画するため、文字列ごとに原点に置いた輪郭を保持し、描画時に平行移動します。
+ * 描画先のFontRenderContextが変わった場合は、すべての輪郭を破棄します。
+ * 保持する輪郭の数が上限を超えると最も古く参照した輪郭を破棄します。
+ * @author ma38su
+ */
+class GlyphCache {
+
+	/**
+	 * フォント
+	 */
+	private final Font font;
+
+	/**
+	 * 輪郭を作成したときのFontRenderContext
+	 */
+	private FontRenderContext context;
+
+	/**
+	 * 参照順の文字列の輪郭
+	 */
+	private final LinkedHashMap<String, Shape> outlines;
+
+	/**
+	 * 作成した輪郭の数
+	 */
+	private long createCount;
+
+	/**
+	 * コンストラクタ
+	 * @param font フォント
+	 * @param capacity 保持する輪郭の数の上限
+	 */
+	GlyphCache(Font font, final int capacity) {
+		this.font = font;
+		this.outlines = new LinkedHashMap<String, Shape>(capacity * 4 / 3 + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Shape> eldest) {
+				return this.size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * 原点に置いた文字列の輪郭を取得します。
+	 * @param context 描画先のFontRenderContext
+	 * @param text 文字列
+	 * @return 文字列の輪郭
+	 */
+	Shape getOutline(FontRenderContext context, String text) {
+		if (!context.equals(this.context)) {
+			this.outlines.clear();
+			this.context = context;
+		}
+		Shape outline = this.outlines.get(text);
+		if (outline == null) {
+			outline = this.font.createGlyphVector(context, text).getOutline();
+			this.outlines.put(text, outline);
+			this.createCount++;
+		}
+		return outline;
+	}
+
+	/**
+	 * これまでに作成した輪郭の数を返します。
+	 * @return 輪郭の数
+	 */
+	long getCreateCount() {
+		return this.createCount;
+	}
+}
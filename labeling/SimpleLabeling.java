@@ -7,6 +7,7 @@ import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
 import java.awt.geom.AffineTransform;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -28,6 +29,11 @@ public class SimpleLabeling {
 	private static final int LABEL_CITY = 1;
 	private static final int LABEL_STATION = 2;
 	private static final int LABEL_BUSSTOP = 3;
+
+	/**
+	 * フォントごとに保持する文字列の輪郭の数の上限
+	 */
+	private static final int GLYPH_CACHE_SIZE = 1024;
 	
 	/**
 	 * フォント
@@ -60,6 +66,11 @@ public class SimpleLabeling {
 	};
 
 	
+	/**
+	 * フォントごとの文字列の輪郭のキャッシュ
+	 */
+	private final GlyphCache[] GLYPHS;
+
 	/**
 	 * フォントメトリクス
 	 */
@@ -120,6 +131,11 @@ public class SimpleLabeling {
 
 		this.lapList = new ArrayList<Rectangle>();
 		this.fixedLabelMap = new HashMap<Integer, List<FixedLabel>>();
+
+		this.GLYPHS = new GlyphCache[FONTS.length];
+		for (int i = 0; i < FONTS.length; i++) {
+			this.GLYPHS[i] = new GlyphCache(FONTS[i], GLYPH_CACHE_SIZE);
+		}
 		
 		this.isTextAntialiasing = false;
 		this.isLabelFailureVisible = false;
@@ -218,8 +234,10 @@ public class SimpleLabeling {
 			Color foreColor = FOREGROUND_COLORS[type];
 			if (this.isLabelShadowVisible) {
 				Color shadowColor = SHADOW_COLORS[type];
+				FontRenderContext render = this.g.getFontRenderContext();
+				GlyphCache glyphs = this.GLYPHS[type];
 				for (FixedLabel label : entry.getValue()) {
-					label.draw(this.g, foreColor, shadowColor);
+					label.draw(this.g, glyphs.getOutline(render, label.getName()), foreColor, shadowColor);
 				}
 			} else {
 				this.g.setColor(foreColor);
@@ -259,6 +277,18 @@ public class SimpleLabeling {
 		}
 	}
 
+	/**
+	 * これまでに作成した文字列の輪郭の数を返します。
+	 * @return 輪郭の数
+	 */
+	public long getGlyphCreateCount() {
+		long count = 0;
+		for (GlyphCache glyphs : this.GLYPHS) {
+			count += glyphs.getCreateCount();
+		}
+		return count;
+	}
+
 	public boolean isTextAntialiasing() {
 		return this.isTextAntialiasing;
 	}
@@ -0,0 +1,457 @@
+package map;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+import index.BoundsIndex;
+import util.Log;
+
+/**
+ * 市区町村ごとにポリゴンを読み込むクラス
+ *
+ * 市区町村ごとのポリゴンを市区町村番号のファイル（PolygonArchive）から読み込み、
+ * 画面と交差する市区町村のみを保持します。
+ * 都道府県単位のポリゴンとその空間インデックスは、読み込みや破棄のあった都道府県についてupdateを呼び出したスレッドで組み立て、
+ * 変更しない組み立て結果として公開します。描画スレッドはファイルの読み込みや組み立てを待ちません。
+ * メモリ使用量が上限を超えると、画面と交差していない市区町村のうち、最後に表示されたのが最も古いものから破棄します。
+ * updateとtakeUpdatedBoundsは1つのスレッド（MapDataManager）から呼び出します。
+ * @author ma38su
+ */
+public class CityStore {
+
+	/**
+	 * 組み立てた都道府県単位のポリゴン
+	 * 公開した後は変更しません。
+	 */
+	private static class Assembly {
+
+		/**
+		 * 都道府県に含まれる読み込んだ市区町村のポリゴン
+		 */
+		final Polygon[] polygons;
+
+		/**
+		 * ポリゴンの外接長方形
+		 */
+		final Rectangle bounds;
+
+		/**
+		 * ポリゴンの空間インデックス
+		 */
+		final BoundsIndex index;
+
+		Assembly(Polygon[] polygons, Rectangle bounds) {
+			this.polygons = polygons;
+			this.bounds = bounds;
+			this.index = new BoundsIndex(polygons);
+		}
+	}
+
+	/**
+	 * 市区町村ごとのファイルを置くディレクトリ名
+	 */
+	public static final String DIR_NAME = "city";
+
+	/**
+	 * Polygonのインスタンス1つあたりの推定バイト数（配列のヘッダを含む）
+	 */
+	private static final int POLYGON_OVERHEAD = 80;
+
+	/**
+	 * 市区町村番号の上限
+	 */
+	private static final int MAX_CODE = 0x10000;
+
+	/**
+	 * 都道府県の数
+	 */
+	private static final int PREFECTURES = 47;
+
+	/**
+	 * 市区町村ごとのファイルのディレクトリ
+	 */
+	private final File dir;
+
+	/**
+	 * メモリ使用量の上限（バイト）
+	 */
+	private final long budget;
+
+	/**
+	 * 市区町村番号をインデックスとするポリゴン（読み込んでいなければnull）
+	 */
+	private final Polygon[][] city = new Polygon[MAX_CODE][];
+
+	/**
+	 * 市区町村ごとの推定メモリ使用量
+	 */
+	private final int[] size = new int[MAX_CODE];
+
+	/**
+	 * 市区町村が最後に画面と交差したフレーム
+	 */
+	private final long[] lastVisible = new long[MAX_CODE];
+
+	/**
+	 * ファイルが存在しない市区町村（読み込みを繰り返さない）
+	 * 読み込みに失敗した市区町村は含めず、次の更新で読み込み直します。
+	 */
+	private final boolean[] isMissing = new boolean[MAX_CODE];
+
+	/**
+	 * 読み込みや破棄があり、組み立て直す都道府県
+	 */
+	private final boolean[] isModified = new boolean[PREFECTURES];
+
+	/**
+	 * 公開している都道府県単位のポリゴン（読み込んだ市区町村がなければnull）
+	 * 組み立て直すたびに配列を複製して置き換えます。
+	 */
+	private volatile Assembly[] assembly = new Assembly[PREFECTURES];
+
+	/**
+	 * 前回のtakeUpdatedBounds以降に読み込んだ市区町村の外接長方形（読み込んでいなければnull）
+	 */
+	private Rectangle updated;
+
+	/**
+	 * 推定メモリ使用量の合計
+	 */
+	private long total;
+
+	/**
+	 * 検索ごとに進めるフレーム番号
+	 */
+	private long frame;
+
+	/**
+	 * 読み込み回数
+	 */
+	private int loadCount;
+
+	/**
+	 * 読み込んだファイルのバイト数の合計
+	 */
+	private long loadBytes;
+
+	/**
+	 * 破棄した回数
+	 */
+	private int evictionCount;
+
+	/**
+	 * コンストラクタ
+	 * @param dir 地図データのディレクトリ
+	 * @param budget メモリ使用量の上限（バイト）
+	 */
+	public CityStore(String dir, long budget) {
+		this.dir = new File(dir, DIR_NAME);
+		this.budget = budget;
+	}
+
+	/**
+	 * 市区町村ごとのファイルのディレクトリが存在するかどうか
+	 * @param dir 地図データのディレクトリ
+	 * @return 存在すればtrue
+	 */
+	public static boolean exists(String dir) {
+		return new File(dir, DIR_NAME).isDirectory();
+	}
+
+	/**
+	 * フレームを進め、画面と交差する市区町村のうち、読み込んでいないものを読み込みます。
+	 * 読み込んだ後、メモリ使用量が上限を超えていれば画面と交差していない市区町村を破棄し、
+	 * 変化のあった都道府県のポリゴンを組み立てて公開します。
+	 * ファイルの読み込み中はロックを保持しないため、描画スレッドは前回公開したポリゴンを描画できます。
+	 * @param visibleCount 市区町村番号ごとの画面と交差するセルの数
+	 * @return 読み込んだ市区町村の数
+	 */
+	public int update(int[] visibleCount) {
+		this.frame++;
+		int count = 0;
+		for (int code = 0; code < MAX_CODE; code++) {
+			if (visibleCount[code] > 0) {
+				this.lastVisible[code] = this.frame;
+				if (this.city[code] == null && !this.isMissing[code] && this.load(code)) {
+					count++;
+				}
+			}
+		}
+		if (this.total > this.budget) {
+			int evicted = this.evict(visibleCount);
+			if (evicted > 0) {
+				Log.out(this, this.toString());
+			}
+		}
+		this.publish();
+		return count;
+	}
+
+	/**
+	 * 市区町村のポリゴンを読み込みます。
+	 * @param code 市区町村番号
+	 * @return 読み込めればtrue
+	 */
+	private boolean load(int code) {
+		File file = new File(this.dir, code + PolygonArchive.EXTENSION);
+		if (!file.isFile()) {
+			this.isMissing[code] = true;
+			return false;
+		}
+		Polygon[] area;
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				Polygon[][] polygons = PolygonArchive.read(in);
+				area = polygons.length > 0 ? polygons[0] : new Polygon[0];
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// 一時的な失敗の可能性があるため、次の更新で読み込み直す
+			Log.err(this, file + ": " + e.getMessage());
+			return false;
+		}
+		int bytes = 0;
+		for (Polygon p : area) {
+			// 外接長方形を事前に計算し、描画時の遅延初期化を避ける
+			if (this.updated == null) {
+				this.updated = new Rectangle(p.getBounds());
+			} else {
+				this.updated.add(p.getBounds());
+			}
+			bytes += POLYGON_OVERHEAD + (p.npoints << 3);
+		}
+		this.city[code] = area;
+		this.size[code] = bytes;
+		synchronized (this) {
+			this.total += bytes;
+			this.loadCount++;
+			this.loadBytes += file.length();
+		}
+		this.invalidate(code);
+		return true;
+	}
+
+	/**
+	 * 画面と交差していない市区町村を古いものから破棄します。
+	 * @param visibleCount 市区町村番号ごとの画面と交差するセルの数（1以上は破棄しない）
+	 * @return 破棄した市区町村の数
+	 */
+	private int evict(int[] visibleCount) {
+		int count = 0;
+		while (this.total > this.budget) {
+			int eldest = -1;
+			for (int code = 0; code < MAX_CODE; code++) {
+				if (this.city[code] != null && visibleCount[code] == 0 && (eldest < 0 || this.lastVisible[code] < this.lastVisible[eldest])) {
+					eldest = code;
+				}
+			}
+			if (eldest < 0) {
+				break;
+			}
+			this.city[eldest] = null;
+			synchronized (this) {
+				this.total -= this.size[eldest];
+				this.evictionCount++;
+			}
+			this.size[eldest] = 0;
+			this.invalidate(eldest);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * 市区町村を含む都道府県のポリゴンを組み立て直すようにします。
+	 * @param code 市区町村番号
+	 */
+	private void invalidate(int code) {
+		int i = code / 1000 - 1;
+		if (i >= 0 && i < PREFECTURES) {
+			this.isModified[i] = true;
+		}
+	}
+
+	/**
+	 * 組み立て直す都道府県のポリゴンを組み立て、まとめて公開します。
+	 */
+	private void publish() {
+		Assembly[] assembly = null;
+		for (int i = 0; i < PREFECTURES; i++) {
+			if (this.isModified[i]) {
+				if (assembly == null) {
+					assembly = this.assembly.clone();
+				}
+				assembly[i] = this.assemble(i);
+				this.isModified[i] = false;
+			}
+		}
+		if (assembly != null) {
+			this.assembly = assembly;
+		}
+	}
+
+	/**
+	 * 読み込んだ市区町村のポリゴンを都道府県単位で返します。
+	 * @param i 都道府県のインデックス（都道府県番号 - 1）
+	 * @return 都道府県に含まれる読み込んだ市区町村のポリゴン、読み込んだ市区町村がなければnull
+	 */
+	public Polygon[] getPolygons(int i) {
+		Assembly assembly = this.assembly[i];
+		return assembly == null ? null : assembly.polygons;
+	}
+
+	/**
+	 * 読み込んだ市区町村のポリゴンの外接長方形を都道府県単位で返します。
+	 * @param i 都道府県のインデックス（都道府県番号 - 1）
+	 * @return 外接長方形、読み込んだ市区町村がなければnull
+	 */
+	public Rectangle getBounds(int i) {
+		Assembly assembly = this.assembly[i];
+		return assembly == null ? null : assembly.bounds;
+	}
+
+	/**
+	 * 読み込んだ市区町村のポリゴンの空間インデックスを都道府県単位で返します。
+	 * @param i 都道府県のインデックス（都道府県番号 - 1）
+	 * @param polygons getPolygonsで取得したポリゴン
+	 * @return 空間インデックス、ポリゴンを組み立て直していればnull
+	 */
+	public BoundsIndex getIndex(int i, Polygon[] polygons) {
+		Assembly assembly = this.assembly[i];
+		return assembly != null && assembly.polygons == polygons ? assembly.index : null;
+	}
+
+	/**
+	 * 都道府県に含まれる読み込んだ市区町村のポリゴンを連結します。
+	 * @param i 都道府県のインデックス（都道府県番号 - 1）
+	 * @return 組み立てたポリゴン、読み込んだ市区町村がなければnull
+	 */
+	private Assembly assemble(int i) {
+		int from = (i + 1) * 1000;
+		int to = Math.min(from + 1000, MAX_CODE);
+		int n = 0;
+		for (int code = from; code < to; code++) {
+			if (this.city[code] != null) {
+				n += this.city[code].length;
+			}
+		}
+		if (n == 0) {
+			return null;
+		}
+		Polygon[] polygons = new Polygon[n];
+		Rectangle rect = null;
+		int k = 0;
+		for (int code = from; code < to; code++) {
+			if (this.city[code] != null) {
+				for (Polygon p : this.city[code]) {
+					polygons[k++] = p;
+					if (rect == null) {
+						rect = new Rectangle(p.getBounds());
+					} else {
+						rect.add(p.getBounds());
+					}
+				}
+			}
+		}
+		return new Assembly(polygons, rect);
+	}
+
+	/**
+	 * 前回の呼び出し以降に読み込んだ市区町村の外接長方形を返します。
+	 * @return 外接長方形、読み込んでいなければnull
+	 */
+	public Rectangle takeUpdatedBounds() {
+		Rectangle rect = this.updated;
+		this.updated = null;
+		return rect;
+	}
+
+	/**
+	 * 読み込んでいる市区町村の推定メモリ使用量の合計を返します。
+	 * @return 推定メモリ使用量（バイト）
+	 */
+	public synchronized long getTotalSize() {
+		return this.total;
+	}
+
+	/**
+	 * 読み込んだファイルのバイト数の合計を返します。
+	 * @return 読み込んだバイト数
+	 */
+	public synchronized long getLoadBytes() {
+		return this.loadBytes;
+	}
+
+	/**
+	 * 読み込み回数を返します。
+	 * @return 読み込み回数
+	 */
+	public synchronized int getLoadCount() {
+		return this.loadCount;
+	}
+
+	/**
+	 * 破棄した回数を返します。
+	 * @return 破棄した回数
+	 */
+	public synchronized int getEvictionCount() {
+		return this.evictionCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "city store: " + (this.total >> 10) + "KB / " + (this.budget >> 10) + "KB, load " + this.loadCount
+				+ " (" + (this.loadBytes >> 10) + "KB read), eviction " + this.evictionCount;
+	}
+
+	/**
+	 * 市区町村のポリゴンを、市区町村ごとのファイルに分割します。
+	 * 入力はCellIndexBuilderと同じ、市区町村番号をキーとするポリゴンの配列のMap（Map&lt;Integer, Polygon[]&gt;）です。
+	 * @param args [0] 入力ファイル, [1] 地図データのディレクトリ（DIR_NAMEのディレクトリに書き込む）
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("usage: CityStore <polygons> <map dir>");
+			return;
+		}
+		long start = System.currentTimeMillis();
+		Map<Integer, Polygon[]> polygons;
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(args[0])));
+		try {
+			@SuppressWarnings("unchecked")
+			Map<Integer, Polygon[]> obj = (Map<Integer, Polygon[]>) in.readObject();
+			polygons = obj;
+		} finally {
+			in.close();
+		}
+		File dir = new File(args[1], DIR_NAME);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("cannot create " + dir);
+		}
+		long bytes = 0;
+		for (Map.Entry<Integer, Polygon[]> entry : polygons.entrySet()) {
+			File file = new File(dir, entry.getKey() + PolygonArchive.EXTENSION);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			try {
+				PolygonArchive.write(out, new Polygon[][]{entry.getValue()});
+			} finally {
+				out.close();
+			}
+			bytes += file.length();
+		}
+		Log.out(CityStore.class, "wrote " + polygons.size() + " cities, " + (bytes >> 10) + "KB (" + (System.currentTimeMillis() - start) + "ms)");
+	}
+}
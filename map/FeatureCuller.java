@@ -0,0 +1,169 @@
+package map;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.util.BitSet;
+
+/**
+ * 画面上で小さすぎる図形を点にまとめるクラス
+ *
+ * 外接長方形の幅と高さがどちらも閾値（画素）より小さい図形は、頂点をたどって描画せず、中心に正方形の点を1つ描画します。
+ * 描画範囲を閾値の大きさの格子に分け、すでに点を描画した格子に入る図形は描画しません。
+ * 色や線の太さが異なる図形を描画する前には、resetで描画済みの格子を消去します。
+ * 座標は緯度経度座標系の整数で扱い、経度・緯度から画素への変換を設定したGraphics2Dに描画します。
+ * 描画するスレッドごとにインスタンスを作成します。
+ * @author ma38su
+ */
+public class FeatureCuller {
+
+	/**
+	 * 描画範囲の左端のX座標
+	 */
+	private final int minX;
+
+	/**
+	 * 描画範囲の下端のY座標
+	 */
+	private final int minY;
+
+	/**
+	 * 格子の1辺の長さ（緯度経度座標系）、0以下であれば図形を点にまとめない
+	 */
+	private final double cell;
+
+	/**
+	 * 格子の列数
+	 */
+	private final int columns;
+
+	/**
+	 * 格子の行数
+	 */
+	private final int rows;
+
+	/**
+	 * 表示倍率
+	 */
+	private final float scale;
+
+	/**
+	 * 点を描画した格子
+	 */
+	private final BitSet marked;
+
+	/**
+	 * 点として描画した図形の数
+	 */
+	private long collapsedCount;
+
+	/**
+	 * 同じ格子に点を描画済みのため、描画しなかった図形の数
+	 */
+	private long mergedCount;
+
+	/**
+	 * コンストラクタ
+	 * @param area 描画範囲（緯度経度座標系）
+	 * @param scale 表示倍率
+	 * @param threshold 点にまとめる図形の大きさの閾値（画素）、0であれば点にまとめない
+	 */
+	public FeatureCuller(Rectangle area, float scale, int threshold) {
+		this.minX = area.x;
+		this.minY = area.y;
+		this.scale = scale;
+		this.cell = threshold / (double) scale;
+		if (threshold > 0) {
+			this.columns = (int) Math.min(4096, Math.ceil(area.width / this.cell) + 1);
+			this.rows = (int) Math.min(4096, Math.ceil(area.height / this.cell) + 1);
+			this.marked = new BitSet(this.columns * this.rows);
+		} else {
+			this.columns = 0;
+			this.rows = 0;
+			this.marked = null;
+		}
+	}
+
+	/**
+	 * 図形が点にまとめる大きさかどうかを返します。
+	 * @param bounds 図形の外接長方形
+	 * @return 幅と高さがどちらも閾値より小さければtrue
+	 */
+	public boolean isSmall(Rectangle bounds) {
+		return bounds.width < this.cell && bounds.height < this.cell;
+	}
+
+	/**
+	 * 小さな図形を点として描画します。
+	 * 同じ格子に点を描画済みであれば描画しません。
+	 * @param g 経度・緯度から画素への変換を設定したGraphics2D
+	 * @param bounds 図形の外接長方形
+	 * @param size 点の1辺の長さ（画素）
+	 */
+	public void fill(Graphics2D g, Rectangle bounds, float size) {
+		if (this.mark(bounds)) {
+			this.fill(g, bounds, size, false);
+		}
+	}
+
+	/**
+	 * 小さな図形を点として描画します。
+	 * 同じ図形を色や太さを変えて重ねる場合に、markの結果に従って呼び出します。
+	 * @param g 経度・緯度から画素への変換を設定したGraphics2D
+	 * @param bounds 図形の外接長方形
+	 * @param size 点の1辺の長さ（画素）
+	 * @param isOverlay 同じ図形に重ねる点であればtrue（数えない）
+	 */
+	public void fill(Graphics2D g, Rectangle bounds, float size, boolean isOverlay) {
+		int s = Math.max(1, Math.round(size / this.scale));
+		g.fillRect(bounds.x + bounds.width / 2 - s / 2, bounds.y + bounds.height / 2 - s / 2, s, s);
+		if (!isOverlay) {
+			this.collapsedCount++;
+		}
+	}
+
+	/**
+	 * 図形の中心を含む格子に点を描画したことを記録します。
+	 * @param bounds 図形の外接長方形
+	 * @return 点を描画していない格子であればtrue、描画済みであればfalse
+	 */
+	public boolean mark(Rectangle bounds) {
+		long x = (long) ((bounds.x + bounds.width / 2 - (long) this.minX) / this.cell);
+		long y = (long) ((bounds.y + bounds.height / 2 - (long) this.minY) / this.cell);
+		if (x < 0 || y < 0 || x >= this.columns || y >= this.rows) {
+			// 描画範囲の外側は重なりを確かめずに描画する
+			return true;
+		}
+		int i = (int) (y * this.columns + x);
+		if (this.marked.get(i)) {
+			this.mergedCount++;
+			return false;
+		}
+		this.marked.set(i);
+		return true;
+	}
+
+	/**
+	 * 点を描画した格子を消去します。
+	 */
+	public void reset() {
+		if (this.marked != null) {
+			this.marked.clear();
+		}
+	}
+
+	/**
+	 * 点として描画した図形の数を返します。
+	 * @return 図形の数
+	 */
+	public long getCollapsedCount() {
+		return this.collapsedCount;
+	}
+
+	/**
+	 * 同じ格子に点を描画済みのため、描画しなかった図形の数を返します。
+	 * @return 図形の数
+	 */
+	public long getMergedCount() {
+		return this.mergedCount;
+	}
+}
@@ -1,9 +1,11 @@
 package map;
 
 import java.awt.Polygon;
+import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 
 /**
  * 数値地図のデータ管理
@@ -31,5 +33,25 @@ public class FileDatabase {
 		return ret;
 	}
 
+	/**
+	 * ポリゴンを列指向のバイナリ形式（PolygonArchive）で書き込みます。
+	 * @param path パス
+	 * @param polygons ポリゴン
+	 * @return 書き込み成否
+	 */
+	public static boolean writePolygonArchive(String path, Polygon[][] polygons) {
+		boolean ret = true;
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(path));
+			try {
+				PolygonArchive.write(out, polygons);
+			} finally {
+				out.close();
+			}
+		} catch (Exception e) {
+			ret = false;
+		}
+		return ret;
+	}
 
 }
@@ -1,20 +1,21 @@
 package map;
 
-import index.CellBounds;
-import index.CellMethod;
+import index.BoundsIndex;
+import index.CellVisitor;
+import index.SpatialIndex;
 
 import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
 
 import map.KsjDataManager;
 import map.ksj.PrefectureDataset;
 import map.ksj.RailwayDataset;
+import util.Log;
 import view.MapPanel;
 import view.StatusBar;
 
@@ -25,9 +26,9 @@ import view.StatusBar;
 public class MapDataManager extends Thread {
 
 	/**
-	 * セル型の地域検索クラス
+	 * 地域検索のための空間インデックス
 	 */
-	private final CellMethod cell;
+	private final SpatialIndex cell;
 	
 	/**
 	 * 都道府県名
@@ -44,6 +45,86 @@ public class MapDataManager extends Thread {
 	private final KsjDataManager ksjMgr;
 	
 	private Rectangle screen;
+
+	/**
+	 * 前回検索した範囲
+	 * 次の検索ではこの範囲との差分のみを検索します。全体を検索し直す場合はnull
+	 */
+	private Rectangle searched;
+
+	/**
+	 * 都道府県ごとの検索範囲と交差する市区町村の数
+	 */
+	private final int[] visibleCount = new int[47];
+
+	/**
+	 * 市区町村番号ごとの検索範囲と交差するセルの数
+	 * 市区町村単位で読み込む場合のみ集計します。
+	 */
+	private final int[] cityCount;
+
+	/**
+	 * 市区町村ごとのポリゴン
+	 * 都道府県単位で読み込む場合はnull
+	 */
+	private final CityStore cityStore;
+
+	/**
+	 * 都道府県データを読み込まない場合に、PrefectureLoaderへ渡す表示範囲
+	 */
+	private final int[] emptyCount = new int[47];
+
+	/**
+	 * 都道府県データの境界のポリゴンの空間インデックス
+	 * 都道府県データを読み込んだときに作成し、解放したときに破棄します。
+	 */
+	private final BoundsIndex[] polygonIndex = new BoundsIndex[47];
+
+	/**
+	 * 空間インデックスを作成したポリゴン
+	 */
+	private final Polygon[][] indexedPolygons = new Polygon[47][];
+
+	/**
+	 * 都道府県データのメモリ使用量の管理
+	 */
+	private final PrefectureCache prefectureCache;
+
+	/**
+	 * 都道府県データの先読み
+	 */
+	private final Prefetcher prefetcher;
+
+	/**
+	 * 都道府県データを並列に読み込むクラス
+	 */
+	private final PrefectureLoader loader;
+
+	/**
+	 * 並列に読み込む都道府県データの数の上限
+	 * ファイルの読み込みはKsjDataManagerで排他し、空間インデックスの作成と反映を並列に行います。
+	 * システムプロパティ map.loaderThreads で変更できます。
+	 * 1を指定すると、都道府県データを1つずつ読み込みます。
+	 */
+	private static final int DEFAULT_LOADER_THREADS = 4;
+
+	/**
+	 * 表示範囲の版番号
+	 * 再描画の要求ごとに増やし、検索した版番号と異なれば検索し直します。
+	 */
+	private volatile long version;
+
+	/**
+	 * 読み込みがすべて完了し、都道府県データの解放を要求されていればtrue
+	 * 解放は画面と交差する市区町村の数を更新するスレッド（run）でのみ行います。
+	 */
+	private boolean isDumpRequested;
+
+	/**
+	 * 都道府県データのメモリ使用量の上限の初期値（MB）
+	 * システムプロパティ map.prefectureBudget で変更できます。
+	 */
+	private static final int DEFAULT_PREFECTURE_BUDGET = 256;
 	
 	private final RailwayDataset railway;
 	
@@ -52,12 +133,31 @@ public class MapDataManager extends Thread {
 	 */
 	private final StatusBar statusbar;
 
-	public MapDataManager(String dir, MapPanel panel, final CellMethod cell, StatusBar statusbar) {
+	public MapDataManager(String dir, MapPanel panel, final SpatialIndex cell, StatusBar statusbar) {
 		this.ksjMgr = new KsjDataManager(dir + File.separatorChar + "org", dir + File.separatorChar + "csv");
 		this.panel = panel;
 		this.cell = cell;
 		this.statusbar = statusbar;
 		this.prefecture = new PrefectureDataset[47];
+		long budget = (long) Integer.getInteger("map.prefectureBudget", DEFAULT_PREFECTURE_BUDGET) << 20;
+		this.prefectureCache = new PrefectureCache(this.prefecture.length, budget);
+		this.prefetcher = new Prefetcher(this, cell);
+		if ("city".equals(System.getProperty("map.loadGranularity"))) {
+			if (CityStore.exists(dir)) {
+				this.cityStore = new CityStore(dir, budget);
+				this.cityCount = new int[0x10000];
+				Log.out(this, "load granularity: city");
+			} else {
+				Log.err(this, CityStore.DIR_NAME + " not found, load by prefecture.");
+				this.cityStore = null;
+				this.cityCount = null;
+			}
+		} else {
+			this.cityStore = null;
+			this.cityCount = null;
+		}
+		int threads = Integer.getInteger("map.loaderThreads", Math.min(DEFAULT_LOADER_THREADS, Runtime.getRuntime().availableProcessors()));
+		this.loader = new PrefectureLoader(this, panel, this.prefecture.length, Math.max(1, threads));
 
 		this.railway = this.ksjMgr.getRailwayDataset();
 
@@ -69,16 +169,67 @@ public class MapDataManager extends Thread {
 	}
 
 	/**
-	 * 引数の都道府県番号に含まれていないデータの解放
-	 * @param codes 都道府県番号
+	 * メモリ使用量が上限を超えていれば、画面と交差していない都道府県データを解放します。
+	 * 最後に画面と交差したのが最も古い都道府県データから解放し、画面と交差している都道府県データは解放しません。
+	 * 画面と交差する市区町村の数を検索中に読まないよう、このスレッド（run）からのみ呼び出します。
 	 */
-	public synchronized void dumpPrefecture(Set<Integer> codes) {
-//		for (Integer code : codes) {
-//			int prefCode = code / 1000;
-//			this.prefecture[prefCode - 1] = null;
-//		}
+	private synchronized void dumpPrefecture() {
+		int evicted = this.prefectureCache.evict(this.prefecture, this.visibleCount);
+		if (evicted > 0) {
+			for (int i = 0; i < this.prefecture.length; i++) {
+				if (this.prefecture[i] == null) {
+					this.polygonIndex[i] = null;
+					this.indexedPolygons[i] = null;
+				}
+			}
+			Log.out(this, this.prefectureCache.toString());
+		}
 		this.statusbar.finishReading();
 	}
+
+	/**
+	 * 都道府県データのメモリ使用量の管理を返します。
+	 * @return 読み込み、再読み込み、破棄の回数を保持するクラス
+	 */
+	public PrefectureCache getPrefectureCache() {
+		return this.prefectureCache;
+	}
+
+	/**
+	 * 都道府県データの先読みを返します。
+	 * @return 先読みクラス
+	 */
+	public Prefetcher getPrefetcher() {
+		return this.prefetcher;
+	}
+
+	/**
+	 * 都道府県が画面と交差しているかどうか
+	 * @param prefCode 都道府県番号
+	 * @return 画面と交差していればtrue
+	 */
+	public boolean isVisible(int prefCode) {
+		return this.visibleCount[prefCode - 1] > 0;
+	}
+
+	/**
+	 * 都道府県データを先読みします。
+	 * メモリ使用量が上限に達している場合や、市区町村単位で読み込む場合は読み込みません。
+	 * @param prefCode 都道府県番号
+	 */
+	public void prefetchPrefecture(int prefCode) {
+		if (this.cityStore == null && this.prefecture[prefCode - 1] == null && this.prefectureCache.getTotalSize() < this.prefectureCache.getBudget()) {
+			this.loader.prefetch(prefCode, this.version);
+		}
+	}
+
+	/**
+	 * 都道府県データを並列に読み込むクラスを返します。
+	 * @return 読み込みにかかった時間や取り消した数を保持するクラス
+	 */
+	public PrefectureLoader getLoader() {
+		return this.loader;
+	}
 	
 	public String getPrefecture(int i) {
 		return this.name[i];
@@ -88,50 +239,187 @@ public class MapDataManager extends Thread {
 		return this.prefecture;
 	}
 
+	/**
+	 * 都道府県の境界のポリゴンを返します。
+	 * 市区町村単位で読み込む場合は、読み込んだ市区町村のポリゴンを都道府県単位にまとめて返します。
+	 * @param i 都道府県のインデックス（都道府県番号 - 1）
+	 * @return ポリゴン、読み込んでいなければnull
+	 */
+	public Polygon[] getPolygons(int i) {
+		if (this.cityStore != null) {
+			return this.cityStore.getPolygons(i);
+		}
+		PrefectureDataset data = this.prefecture[i];
+		return data == null ? null : data.getPolygons();
+	}
+
+	/**
+	 * 都道府県の境界のポリゴンの外接長方形を返します。
+	 * @param i 都道府県のインデックス（都道府県番号 - 1）
+	 * @return 外接長方形、読み込んでいなければnull
+	 */
+	public Rectangle getBounds(int i) {
+		if (this.cityStore != null) {
+			return this.cityStore.getBounds(i);
+		}
+		PrefectureDataset data = this.prefecture[i];
+		return data == null ? null : data.getBounds();
+	}
+
+	/**
+	 * 都道府県の境界のポリゴンの空間インデックスを返します。
+	 * @param i 都道府県のインデックス（都道府県番号 - 1）
+	 * @param polygons getPolygonsで取得したポリゴン
+	 * @return 空間インデックス、ポリゴンに対応する空間インデックスがなければnull
+	 */
+	public BoundsIndex getPolygonIndex(int i, Polygon[] polygons) {
+		if (this.cityStore != null) {
+			return this.cityStore.getIndex(i, polygons);
+		}
+		synchronized (this) {
+			return this.indexedPolygons[i] == polygons ? this.polygonIndex[i] : null;
+		}
+	}
+
+	/**
+	 * 市区町村ごとのポリゴンを返します。
+	 * @return 市区町村ごとのポリゴン、都道府県単位で読み込む場合はnull
+	 */
+	public CityStore getCityStore() {
+		return this.cityStore;
+	}
+
 	/**
 	 * 指定した都道府県番号の国土数値情報を読み込みます。
+	 * PrefectureLoaderのスレッドから呼び出されます。
 	 * @param prefCode 都道府県番号
-	 * @throws IOException 入出力エラー
+	 * @param isPrefetch 先読みの場合はtrue
+	 * @return 読み込んだ都道府県データ、読み込めなかった場合はnull
 	 */
-	private void readPrefecture(final int prefCode) {
-		if (this.prefecture[prefCode - 1] == null) {
-			this.statusbar.startReading("READ PREF: " + this.name[prefCode - 1]);
-			this.prefecture[prefCode - 1] = ksjMgr.getPrefectureData(prefCode);
-			this.panel.repaint();
+	PrefectureDataset loadPrefecture(int prefCode, boolean isPrefetch) {
+		this.statusbar.startReading((isPrefetch ? "PREFETCH PREF: " : "READ PREF: ") + this.name[prefCode - 1]);
+		PrefectureDataset data;
+		// KsjDataManagerはスレッドセーフであることが保証されていないため、ファイルの読み込みは1つずつ行い、
+		// 空間インデックスの作成と反映のみを並列に行う
+		synchronized (this.ksjMgr) {
+			data = this.ksjMgr.getPrefectureData(prefCode);
+		}
+		if (data == null) {
+			// 読み込めなかった都道府県は記録せず、次の検索で読み込み直す
+			return null;
+		}
+		Polygon[] polygons = data.getPolygons();
+		// 描画時に表示範囲のポリゴンのみを取り出せるよう、読み込んだスレッドで空間インデックスを作成する
+		BoundsIndex index = polygons == null ? null : new BoundsIndex(polygons);
+		synchronized (this) {
+			this.prefecture[prefCode - 1] = data;
+			this.polygonIndex[prefCode - 1] = index;
+			this.indexedPolygons[prefCode - 1] = polygons;
+			this.prefectureCache.loaded(prefCode - 1, data, isPrefetch);
+		}
+		this.panel.invalidateArea(data.getBounds());
+		return data;
+	}
+
+	/**
+	 * 実行中の読み込みがすべて完了したときに、PrefectureLoaderから呼び出されます。
+	 * 読み込んだ分でメモリ使用量が上限を超えていれば、このスレッド（run）で都道府県データを解放します。
+	 */
+	void finishLoading() {
+		if (this.panel.isOperation()) {
 			this.statusbar.finishReading();
+		} else {
+			synchronized (this.cell) {
+				this.isDumpRequested = true;
+				this.cell.notifyAll();
+			}
 		}
 	}
 
 	@Override
 	public void run() {
-		Set<Integer> prefSet = new HashSet<Integer>();
+		final int[] count = this.visibleCount;
+		final int[] cityCount = this.cityCount;
+		CellVisitor entered = new CellVisitor() {
+			public void visit(int code, int overlap, int x, int y, int width, int height) {
+				count[code / 1000 - 1]++;
+				if (cityCount != null) {
+					cityCount[code]++;
+				}
+			}
+		};
+		CellVisitor left = new CellVisitor() {
+			public void visit(int code, int overlap, int x, int y, int width, int height) {
+				count[code / 1000 - 1]--;
+				if (cityCount != null) {
+					cityCount[code]--;
+				}
+			}
+		};
+		this.prefetcher.start();
+		long processed = -1;
 		while (true) {
 			try {
-				if (this.panel.getMode() > 1) {
-					Rectangle rect;
-					do {
-						rect = new Rectangle(this.screen);
-						this.statusbar.startReading("SEARCH AREA");
-						Map<CellBounds, Integer> map = this.cell.search2(rect);
-						for (int val : map.values()) {
-							prefSet.add(val / 1000);
+				long version;
+				boolean isDump;
+				synchronized (this.cell) {
+					while (this.version == processed && !this.isDumpRequested) {
+						this.cell.wait();
+					}
+					version = this.version;
+					isDump = this.isDumpRequested;
+					this.isDumpRequested = false;
+				}
+				boolean isChanged = version != processed;
+				processed = version;
+				if (isChanged && this.panel.getMode() > 1) {
+					Rectangle rect = new Rectangle(this.screen);
+					this.statusbar.startReading("SEARCH AREA");
+					boolean isSearched;
+					if (this.searched == null) {
+						Arrays.fill(count, 0);
+						if (cityCount != null) {
+							Arrays.fill(cityCount, 0);
 						}
-						if (!this.panel.isOperation()) {
-							this.statusbar.startReading("DUMP PREF");
-							this.dumpPrefecture(prefSet);
+						isSearched = this.cell.search(rect, entered);
+					} else {
+						isSearched = this.cell.searchDelta(this.searched, rect, entered, left);
+					}
+					this.searched = isSearched ? rect : null;
+					this.prefectureCache.nextFrame(count);
+					if (!this.panel.isOperation()) {
+						this.statusbar.startReading("DUMP PREF");
+						this.dumpPrefecture();
+					}
+					if (this.cityStore == null) {
+						this.loader.update(version, count, this.prefecture);
+					} else {
+						this.statusbar.startReading("READ CITY");
+						if (this.cityStore.update(cityCount) > 0) {
+							this.panel.invalidateArea(this.cityStore.takeUpdatedBounds());
+							this.panel.repaint();
 						}
-						for (int prefCode : prefSet) {
-							this.readPrefecture(prefCode);
+						this.statusbar.finishReading();
+						// 境界は市区町村単位で読み込むため、都道府県データはバス路線か市区町村名を表示する場合のみ読み込む
+						boolean isPrefectureNeeded = (this.panel.getMode() >= 3 && this.panel.isBusVisible()) || this.panel.isCityLabelVisible();
+						this.loader.update(version, isPrefectureNeeded ? count : this.emptyCount, this.prefecture);
+					}
+				} else {
+					if (this.panel.getMode() <= 1) {
+						this.searched = null;
+					}
+					if (isDump) {
+						// 読み込みが完了した分でメモリ使用量が上限を超えていれば解放する
+						if (this.panel.isOperation()) {
+							this.statusbar.finishReading();
+						} else {
+							this.dumpPrefecture();
 						}
-					} while (!this.screen.equals(rect));
-				}
-				synchronized (this.cell) {
-					this.cell.wait();
+					}
 				}
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
-			prefSet.clear();
 		}
 	}
 
@@ -142,8 +430,12 @@ public class MapDataManager extends Thread {
 	 */
 	private static final String worldPolygon = "/.data/freegis.dat";
 
+	/**
+	 * 表示範囲の版番号を進め、検索し直します。
+	 */
 	public void wakeup() {
 		synchronized (this.cell) {
+			this.version++;
 			this.cell.notifyAll();
 		}
 	}
@@ -158,7 +450,7 @@ public class MapDataManager extends Thread {
 	 * @return 世界地図データ
 	 */
 	public Polygon[][] getWorldPolygon() {
-		return readSerializableArchive(worldPolygon, Polygon[][].class);
+		return readPolygonArchive(worldPolygon);
 	}
 
 	/**
@@ -166,13 +458,91 @@ public class MapDataManager extends Thread {
 	 * @return 都道府県データ
 	 */
 	public Polygon[][] getPrefecturePolygon() {
-		return readSerializableArchive(prefPolygon, Polygon[][].class);
+		return readPolygonArchive(prefPolygon);
+	}
+
+	/**
+	 * 表示モードごとに簡略化した世界地図データを取得します。
+	 * @param modes 表示モードの数
+	 * @return 表示モードをインデックスとする世界地図データ
+	 */
+	public static Polygon[][][] getWorldPolygonLevels(int modes) {
+		return readPolygonLevels(worldPolygon, modes);
+	}
+
+	/**
+	 * 表示モードごとに簡略化した都道府県データを取得します。
+	 * @param modes 表示モードの数
+	 * @return 表示モードをインデックスとする都道府県データ
+	 */
+	public static Polygon[][][] getPrefecturePolygonLevels(int modes) {
+		return readPolygonLevels(prefPolygon, modes);
+	}
+
+	/**
+	 * 表示モードごとに簡略化したポリゴン（PolygonSimplifierで作成したファイル）を読み込みます。
+	 * 簡略化したファイルがない表示モードは、簡略化していないポリゴンを共有します。
+	 * @param path 直列化したファイルのパス
+	 * @param modes 表示モードの数
+	 * @return 表示モードをインデックスとするポリゴン
+	 */
+	public static Polygon[][][] readPolygonLevels(String path, int modes) {
+		Polygon[][][] levels = new Polygon[modes][][];
+		Polygon[][] full = null;
+		for (int mode = 0; mode < modes; mode++) {
+			String level = PolygonSimplifier.getLevelPath(path, mode);
+			InputStream in = System.class.getResourceAsStream(level);
+			if (in != null) {
+				try {
+					try {
+						levels[mode] = PolygonArchive.read(in);
+					} finally {
+						in.close();
+					}
+				} catch (IOException e) {
+					Log.err(MapDataManager.class, level + ": " + e.getMessage());
+				}
+			}
+			if (levels[mode] == null) {
+				if (full == null) {
+					full = readPolygonArchive(path);
+				}
+				levels[mode] = full;
+			} else {
+				Log.out(MapDataManager.class, level + ": " + PolygonSimplifier.countPoints(levels[mode]) + " points");
+			}
+		}
+		return levels;
 	}
 
 	public Polygon[] getJapan() {
 		return this.ksjMgr.getJapanPolygon();
 	}
 	
+	/**
+	 * ポリゴンを読み込みます。
+	 * 拡張子を .poly に置き換えたファイル（PolygonArchive）があればそれを読み込み、
+	 * なければ直列化したファイルを読み込みます。
+	 * @param path 直列化したファイルのパス
+	 * @return 読み込んだポリゴン、失敗した場合はnull
+	 */
+	public static Polygon[][] readPolygonArchive(String path) {
+		String archive = path.substring(0, path.lastIndexOf('.')) + PolygonArchive.EXTENSION;
+		InputStream in = System.class.getResourceAsStream(archive);
+		if (in != null) {
+			try {
+				try {
+					return PolygonArchive.read(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				Log.err(MapDataManager.class, archive + ": " + e.getMessage());
+			}
+		}
+		return readSerializableArchive(path, Polygon[][].class);
+	}
+
 	/**
 	 * @param path
 	 * @param c
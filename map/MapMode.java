@@ -0,0 +1,58 @@
+package map;
+
+/**
+ * 地図の表示モードと倍率の対応表
+ * 
+ * 描画する地図パネルと、表示モードごとに図形を単純化するツールで共有します。
+ * @author ma38su
+ */
+public class MapMode {
+
+	/**
+	 * 倍率に対応したモードの番号
+	 * 0: この倍率以下でFreeGISを表示
+	 * 1: この倍率以下で国土数値情報の都道府県界を表示
+	 * 2: この倍率以下で鉄道を表示
+	 * 3: この倍率以下でバス路線を表示
+	 */
+	private static final float[] MODE_SCALE = {
+			0.000020f,	// 0
+			0.000500f,	// 1
+			0.002000f,	// 2
+	};
+
+	private MapMode() {
+	}
+
+	/**
+	 * 倍率に対応する表示モードを返します。
+	 * @param scale 倍率
+	 * @return 表示モード
+	 */
+	public static int getMode(float scale) {
+		int i = 0;
+		do {
+			if (Float.compare(scale, MapMode.MODE_SCALE[i]) < 0) {
+				break;
+			}
+		} while (++i < MapMode.MODE_SCALE.length);
+		return i;
+	}
+
+	/**
+	 * 表示モードの数を返します。
+	 * @return 表示モードの数
+	 */
+	public static int getModeCount() {
+		return MapMode.MODE_SCALE.length + 1;
+	}
+
+	/**
+	 * 表示モードの倍率の上限を返します。
+	 * @param mode 表示モード（最も大きい表示モードを除く）
+	 * @return 倍率の上限
+	 */
+	public static float getModeScale(int mode) {
+		return MapMode.MODE_SCALE[mode];
+	}
+}
@@ -0,0 +1,360 @@
+package map;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+
+import util.Log;
+
+/**
+ * ポリゴンの配列の配列（Polygon[][]）を格納する列指向のバイナリ形式
+ *
+ * Javaの直列化に比べて、Polygonごとのクラス記述や配列のヘッダを持たず、
+ * 座標は直前の点との差分を可変長整数で格納するため、小さく高速に読み込めます。
+ *
+ * ファイル形式（整数はビッグエンディアン、varintはLEB128、zigzagは符号付き整数の符号を最下位ビットに移したもの）
+ * <pre>
+ * int   MAGIC
+ * short VERSION
+ * int   グループ数（外側の配列の長さ）
+ * int   リング数（Polygonの総数）
+ * int   点数（全Polygonの点の総数）
+ * グループ数分 varint グループに含まれるリング数
+ * リング数分   varint リングの点数
+ * リング数分   zigzag x, zigzag y, varint 幅, varint 高さ（外接長方形、x, yは直前のリングの外接長方形との差分）
+ * リング数分、点数分
+ *   zigzag x, zigzag y（直前の点との差分、各リングの最初の点は直前のリングの最後の点との差分）
+ * </pre>
+ * 外接長方形はリングの座標の列より前にあるため、座標を展開せずに読み込めます。
+ * @author ma38su
+ */
+public class PolygonArchive {
+
+	/**
+	 * ファイルの識別子（"PLYA"）
+	 */
+	public static final int MAGIC = 0x504C5941;
+
+	/**
+	 * 形式のバージョン
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * ヘッダのバイト数
+	 */
+	private static final int HEADER_SIZE = 4 + 2 + 4 + 4 + 4;
+
+	/**
+	 * 拡張子
+	 */
+	public static final String EXTENSION = ".poly";
+
+	/**
+	 * 読み込み中のデータ
+	 */
+	private final byte[] data;
+
+	/**
+	 * 読み込み位置
+	 */
+	private int position;
+
+	private PolygonArchive(byte[] data) {
+		this.data = data;
+	}
+
+	/**
+	 * ポリゴンを書き込みます。
+	 * @param out 出力先
+	 * @param polygons ポリゴン（nullを含まないこと）
+	 * @throws IOException 入出力エラー
+	 */
+	public static void write(OutputStream out, Polygon[][] polygons) throws IOException {
+		int rings = 0;
+		long points = 0;
+		for (Polygon[] group : polygons) {
+			rings += group.length;
+			for (Polygon p : group) {
+				points += p.npoints;
+			}
+		}
+		if (points > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("too many points: " + points);
+		}
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(MAGIC);
+		header.writeShort(VERSION);
+		header.writeInt(polygons.length);
+		header.writeInt(rings);
+		header.writeInt((int) points);
+
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		for (Polygon[] group : polygons) {
+			PolygonArchive.writeVarint(buf, group.length);
+		}
+		for (Polygon[] group : polygons) {
+			for (Polygon p : group) {
+				PolygonArchive.writeVarint(buf, p.npoints);
+			}
+		}
+		int px = 0;
+		int py = 0;
+		for (Polygon[] group : polygons) {
+			for (Polygon p : group) {
+				Rectangle r = p.getBounds();
+				PolygonArchive.writeVarint(buf, PolygonArchive.zigzag(r.x - px));
+				PolygonArchive.writeVarint(buf, PolygonArchive.zigzag(r.y - py));
+				PolygonArchive.writeVarint(buf, r.width);
+				PolygonArchive.writeVarint(buf, r.height);
+				px = r.x;
+				py = r.y;
+			}
+		}
+		px = 0;
+		py = 0;
+		for (Polygon[] group : polygons) {
+			for (Polygon p : group) {
+				for (int i = 0; i < p.npoints; i++) {
+					PolygonArchive.writeVarint(buf, PolygonArchive.zigzag(p.xpoints[i] - px));
+					PolygonArchive.writeVarint(buf, PolygonArchive.zigzag(p.ypoints[i] - py));
+					px = p.xpoints[i];
+					py = p.ypoints[i];
+				}
+			}
+		}
+		buf.writeTo(header);
+		header.flush();
+	}
+
+	/**
+	 * ポリゴンを読み込みます。
+	 * @param in 入力
+	 * @return ポリゴン
+	 * @throws IOException 入出力エラー、または形式が異なる場合
+	 */
+	public static Polygon[][] read(InputStream in) throws IOException {
+		PolygonArchive archive = new PolygonArchive(PolygonArchive.readAll(in));
+		int[] header = archive.readHeader();
+		int[] groupSize = archive.readVarints(header[0]);
+		int[] ringSize = archive.readVarints(header[1]);
+		// 外接長方形は読み飛ばす（Polygonは必要になった時点で計算する）
+		for (int i = 0; i < header[1] * 4; i++) {
+			archive.readVarint();
+		}
+		int total = 0;
+		for (int n : ringSize) {
+			total += n;
+		}
+		if (total != header[2]) {
+			throw new IOException("illegal number of points: " + total);
+		}
+		Polygon[][] polygons = new Polygon[header[0]][];
+		byte[] b = archive.data;
+		int p = archive.position;
+		int px = 0;
+		int py = 0;
+		int ring = 0;
+		try {
+			for (int i = 0; i < polygons.length; i++) {
+				Polygon[] group = new Polygon[groupSize[i]];
+				for (int j = 0; j < group.length; j++) {
+					int n = ringSize[ring++];
+					int[] xpoints = new int[n];
+					int[] ypoints = new int[n];
+					for (int k = 0; k < n; k++) {
+						// 座標の展開は件数が多いため、可変長整数の読み込みを展開する
+						int v = b[p++];
+						int value = v & 0x7F;
+						for (int shift = 7; v < 0; shift += 7) {
+							v = b[p++];
+							value |= (v & 0x7F) << shift;
+						}
+						px += (value >>> 1) ^ -(value & 1);
+						v = b[p++];
+						value = v & 0x7F;
+						for (int shift = 7; v < 0; shift += 7) {
+							v = b[p++];
+							value |= (v & 0x7F) << shift;
+						}
+						py += (value >>> 1) ^ -(value & 1);
+						xpoints[k] = px;
+						ypoints[k] = py;
+					}
+					// 配列を複製するコンストラクタを避けて直接設定する
+					Polygon polygon = new Polygon();
+					polygon.xpoints = xpoints;
+					polygon.ypoints = ypoints;
+					polygon.npoints = n;
+					group[j] = polygon;
+				}
+				polygons[i] = group;
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new EOFException();
+		}
+		return polygons;
+	}
+
+	/**
+	 * 座標を展開せずに、ポリゴンの外接長方形のみを読み込みます。
+	 * @param in 入力
+	 * @return Polygon[][]と同じ構造の外接長方形
+	 * @throws IOException 入出力エラー、または形式が異なる場合
+	 */
+	public static Rectangle[][] readBounds(InputStream in) throws IOException {
+		PolygonArchive archive = new PolygonArchive(PolygonArchive.readAll(in));
+		int[] header = archive.readHeader();
+		int[] groupSize = archive.readVarints(header[0]);
+		for (int i = 0; i < header[1]; i++) {
+			archive.readVarint();
+		}
+		Rectangle[][] bounds = new Rectangle[header[0]][];
+		int px = 0;
+		int py = 0;
+		for (int i = 0; i < bounds.length; i++) {
+			bounds[i] = new Rectangle[groupSize[i]];
+			for (int j = 0; j < bounds[i].length; j++) {
+				px += PolygonArchive.unzigzag(archive.readVarint());
+				py += PolygonArchive.unzigzag(archive.readVarint());
+				bounds[i][j] = new Rectangle(px, py, archive.readVarint(), archive.readVarint());
+			}
+		}
+		return bounds;
+	}
+
+	/**
+	 * ヘッダを読み込みます。
+	 * @return グループ数、リング数、点数
+	 * @throws IOException 形式が異なる場合
+	 */
+	private int[] readHeader() throws IOException {
+		if (this.data.length < HEADER_SIZE) {
+			throw new EOFException();
+		}
+		int magic = this.readInt();
+		if (magic != MAGIC) {
+			throw new IOException("illegal magic: " + Integer.toHexString(magic));
+		}
+		int version = ((this.data[this.position++] & 0xFF) << 8) | (this.data[this.position++] & 0xFF);
+		if (version != VERSION) {
+			throw new IOException("unsupported version: " + version);
+		}
+		return new int[]{this.readInt(), this.readInt(), this.readInt()};
+	}
+
+	private int readInt() {
+		byte[] b = this.data;
+		int p = this.position;
+		this.position += 4;
+		return ((b[p] & 0xFF) << 24) | ((b[p + 1] & 0xFF) << 16) | ((b[p + 2] & 0xFF) << 8) | (b[p + 3] & 0xFF);
+	}
+
+	private int[] readVarints(int n) throws IOException {
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = this.readVarint();
+		}
+		return values;
+	}
+
+	/**
+	 * 可変長整数を読み込みます。
+	 * @return 値
+	 * @throws IOException データが途中で終わっている場合
+	 */
+	private int readVarint() throws IOException {
+		byte[] b = this.data;
+		int p = this.position;
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (p >= b.length) {
+				throw new EOFException();
+			}
+			int v = b[p++];
+			value |= (v & 0x7F) << shift;
+			if (v >= 0) {
+				this.position = p;
+				return value;
+			}
+		}
+		throw new IOException("illegal varint at " + this.position);
+	}
+
+	private static void writeVarint(OutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * 入力をすべて読み込みます。
+	 * @param in 入力
+	 * @return 読み込んだデータ
+	 * @throws IOException 入出力エラー
+	 */
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 8192));
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) >= 0) {
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * 直列化したポリゴン（Polygon[][]）のファイルを変換します。
+	 * 変換したファイルは拡張子を .poly に置き換えたパスに書き込み、読み込み時間を比較します。
+	 * @param args 変換するファイル（.dat）
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		for (String path : args) {
+			String dst = (path.endsWith(".dat") ? path.substring(0, path.length() - 4) : path) + EXTENSION;
+			long start = System.nanoTime();
+			Polygon[][] polygons;
+			ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(path)));
+			try {
+				polygons = (Polygon[][]) in.readObject();
+			} finally {
+				in.close();
+			}
+			long serialized = System.nanoTime() - start;
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(dst));
+			try {
+				PolygonArchive.write(out, polygons);
+			} finally {
+				out.close();
+			}
+			start = System.nanoTime();
+			InputStream src = new FileInputStream(dst);
+			try {
+				PolygonArchive.read(src);
+			} finally {
+				src.close();
+			}
+			Log.out(PolygonArchive.class, path + " -> " + dst + " (serialization " + (serialized / 1000000) + "ms, archive " + ((System.nanoTime() - start) / 1000000) + "ms)");
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package map;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+
+/**
+ * 描画範囲の外側の頂点を除くクラス
+ *
+ * Sutherland-Hodgman法と同じく、描画範囲の4辺の半平面ごとに外側の頂点を除きます。
+ * ただし、辺と半平面の境界の交点は追加せず、前後の頂点と同じ半平面の外側にある頂点のみを除きます。
+ * 除いた頂点の代わりの辺は半平面の外側に収まるため、描画範囲の内側の塗りつぶしと境界は元のポリゴンと変わりません。
+ * 交点を丸めることがないため、描画範囲の内側にある辺は元の座標のまま描画されます。
+ * 境界を描画する場合は、線の太さの半分より広げた描画範囲を指定します。
+ *
+ * 座標は緯度経度座標系の整数のまま扱い、結果は内部の配列に格納して次の呼び出しまで保持します。
+ * 描画するスレッドごとにインスタンスを作成します。
+ * @author ma38su
+ */
+public class PolygonClipper {
+
+	private static final int LEFT = 1;
+	private static final int RIGHT = 2;
+	private static final int BOTTOM = 4;
+	private static final int TOP = 8;
+
+	private final int minX;
+	private final int minY;
+	private final int maxX;
+	private final int maxY;
+
+	/**
+	 * 頂点を除く場合はtrue（falseの場合は頂点数を数えるのみ）
+	 */
+	private final boolean isEnabled;
+
+	/**
+	 * 結果のX座標
+	 */
+	private int[] x = new int[64];
+
+	/**
+	 * 結果のY座標
+	 */
+	private int[] y = new int[64];
+
+	/**
+	 * 入力した頂点数
+	 */
+	private long inputCount;
+
+	/**
+	 * 結果の頂点数
+	 */
+	private long outputCount;
+
+	/**
+	 * コンストラクタ
+	 * @param area 描画範囲（緯度経度座標系）
+	 * @param isEnabled 頂点を除く場合はtrue
+	 */
+	public PolygonClipper(Rectangle area, boolean isEnabled) {
+		this.minX = area.x;
+		this.minY = area.y;
+		this.maxX = (int) Math.min(Integer.MAX_VALUE, (long) area.x + area.width);
+		this.maxY = (int) Math.min(Integer.MAX_VALUE, (long) area.y + area.height);
+		this.isEnabled = isEnabled;
+	}
+
+	/**
+	 * 座標が描画範囲のどの半平面の外側にあるかを返します。
+	 * @return LEFT、RIGHT、BOTTOM、TOPの論理和（内側であれば0）
+	 */
+	private int outcode(int x, int y) {
+		int code = 0;
+		if (x < this.minX) {
+			code |= LEFT;
+		} else if (x > this.maxX) {
+			code |= RIGHT;
+		}
+		if (y < this.minY) {
+			code |= BOTTOM;
+		} else if (y > this.maxY) {
+			code |= TOP;
+		}
+		return code;
+	}
+
+	private void ensureCapacity(int n) {
+		if (this.x.length < n) {
+			this.x = new int[Integer.highestOneBit(n) << 1];
+			this.y = new int[this.x.length];
+		}
+	}
+
+	/**
+	 * ポリゴンの描画範囲の外側の頂点を除きます。
+	 * @param p ポリゴン
+	 * @return 結果の頂点数
+	 */
+	public int clipPolygon(Polygon p) {
+		return this.clipPolygon(p.xpoints, p.ypoints, p.npoints);
+	}
+
+	/**
+	 * ポリゴンの描画範囲の外側の頂点を除きます。
+	 * 最初の頂点は常に残すため、頂点の順序と始点は変わりません。
+	 * @param xs X座標
+	 * @param ys Y座標
+	 * @param n 頂点数
+	 * @return 結果の頂点数
+	 */
+	public int clipPolygon(int[] xs, int[] ys, int n) {
+		this.ensureCapacity(n);
+		this.inputCount += n;
+		if (!this.isEnabled || n < 4) {
+			System.arraycopy(xs, 0, this.x, 0, n);
+			System.arraycopy(ys, 0, this.y, 0, n);
+			this.outputCount += n;
+			return n;
+		}
+		int first = this.outcode(xs[0], ys[0]);
+		this.x[0] = xs[0];
+		this.y[0] = ys[0];
+		int k = 1;
+		int prev = first;
+		int code = this.outcode(xs[1], ys[1]);
+		for (int i = 1; i < n; i++) {
+			int next = (i + 1 < n) ? this.outcode(xs[i + 1], ys[i + 1]) : first;
+			// 直前に残した頂点、この頂点、次の頂点がすべて同じ半平面の外側にあれば、この頂点を除いても範囲内は変わらない
+			if ((prev & code & next) == 0) {
+				this.x[k] = xs[i];
+				this.y[k] = ys[i];
+				k++;
+				prev = code;
+			}
+			code = next;
+		}
+		this.outputCount += k;
+		return k;
+	}
+
+	/**
+	 * 折れ線の描画範囲の外側の頂点を除きます。
+	 * 両端の線分が描画範囲の外側にある場合は、端点も除きます。
+	 * @param xs X座標
+	 * @param ys Y座標
+	 * @param n 頂点数
+	 * @return 結果の頂点数（2未満であれば描画範囲と交差しない）
+	 */
+	public int clipPolyline(int[] xs, int[] ys, int n) {
+		this.ensureCapacity(n);
+		this.inputCount += n;
+		if (!this.isEnabled || n < 3) {
+			System.arraycopy(xs, 0, this.x, 0, n);
+			System.arraycopy(ys, 0, this.y, 0, n);
+			this.outputCount += n;
+			return n;
+		}
+		int k = 0;
+		int prev = 0;
+		int code = this.outcode(xs[0], ys[0]);
+		for (int i = 0; i < n; i++) {
+			int next = (i + 1 < n) ? this.outcode(xs[i + 1], ys[i + 1]) : -1;
+			if (k == 0) {
+				// 始点は、最初の線分が外側にあれば除く
+				if (i + 1 < n && (code & next) != 0) {
+					code = next;
+					continue;
+				}
+			} else if ((prev & code & next) != 0) {
+				code = next;
+				continue;
+			}
+			this.x[k] = xs[i];
+			this.y[k] = ys[i];
+			k++;
+			prev = code;
+			code = next;
+		}
+		// 終点は、最後の線分が外側にあれば除く
+		while (k >= 2 && (this.outcode(this.x[k - 1], this.y[k - 1]) & this.outcode(this.x[k - 2], this.y[k - 2])) != 0) {
+			k--;
+		}
+		this.outputCount += k;
+		return k;
+	}
+
+	/**
+	 * 結果のX座標を返します。
+	 * @return X座標（次の呼び出しで上書きされる）
+	 */
+	public int[] getX() {
+		return this.x;
+	}
+
+	/**
+	 * 結果のY座標を返します。
+	 * @return Y座標（次の呼び出しで上書きされる）
+	 */
+	public int[] getY() {
+		return this.y;
+	}
+
+	/**
+	 * 入力した頂点数の合計を返します。
+	 * @return 頂点数
+	 */
+	public long getInputCount() {
+		return this.inputCount;
+	}
+
+	/**
+	 * 結果の頂点数の合計を返します。
+	 * @return 頂点数
+	 */
+	public long getOutputCount() {
+		return this.outputCount;
+	}
+}
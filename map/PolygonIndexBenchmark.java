@@ -0,0 +1,88 @@
+package map;
+
+import java.awt.Polygon;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import index.BoundsIndex;
+import util.Log;
+
+/**
+ * 地図データのポリゴンで空間インデックス（BoundsIndex）の検索時間を計測するクラス
+ *
+ * 市区町村ごとのファイル（CityStoreのディレクトリ）があれば都道府県に含まれる市区町村のポリゴンを、
+ * なければ都道府県のポリゴンのファイルから1つの都道府県のポリゴンを読み込みます。
+ * @author ma38su
+ */
+public class PolygonIndexBenchmark {
+
+	/**
+	 * @param args [0] 市区町村ごとのファイルのディレクトリ、またはポリゴンのファイル（.dat、または .poly）
+	 * （省略時は.data/city、なければ.data/prefecture.poly）, [1] 都道府県のインデックス（省略時は0: 北海道）, [2] 表示倍率（省略時は0.004）
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		File path;
+		if (args.length > 0) {
+			path = new File(args[0]);
+		} else {
+			path = new File(".data", CityStore.DIR_NAME);
+			if (!path.isDirectory()) {
+				path = new File(".data", "prefecture" + PolygonArchive.EXTENSION);
+			}
+		}
+		int group = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		float scale = args.length > 2 ? Float.parseFloat(args[2]) : 0.004f;
+		Polygon[] target = path.isDirectory() ? PolygonIndexBenchmark.readCities(path, group + 1) : PolygonIndexBenchmark.read(path)[group];
+		if (target.length == 0) {
+			Log.err(PolygonIndexBenchmark.class, "no polygons in " + path);
+			return;
+		}
+		Log.out(PolygonIndexBenchmark.class, path + " [" + group + "], scale " + scale);
+		BoundsIndex.benchmark(target, scale);
+	}
+
+	/**
+	 * ポリゴンのファイルを読み込みます。
+	 * @param file ポリゴンのファイル（.dat、または .poly）
+	 * @return ポリゴン
+	 * @throws Exception
+	 */
+	private static Polygon[][] read(File file) throws Exception {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			if (file.getName().endsWith(PolygonArchive.EXTENSION)) {
+				return PolygonArchive.read(in);
+			}
+			return (Polygon[][]) new ObjectInputStream(in).readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * 都道府県に含まれる市区町村のポリゴンを読み込みます。
+	 * @param dir 市区町村ごとのファイルのディレクトリ
+	 * @param prefCode 都道府県番号
+	 * @return 市区町村のポリゴン
+	 * @throws Exception
+	 */
+	private static Polygon[] readCities(File dir, int prefCode) throws Exception {
+		List<Polygon> polygons = new ArrayList<Polygon>();
+		for (int code = prefCode * 1000; code < (prefCode + 1) * 1000; code++) {
+			File file = new File(dir, code + PolygonArchive.EXTENSION);
+			if (file.isFile()) {
+				for (Polygon[] group : PolygonIndexBenchmark.read(file)) {
+					polygons.addAll(Arrays.asList(group));
+				}
+			}
+		}
+		return polygons.toArray(new Polygon[polygons.size()]);
+	}
+}
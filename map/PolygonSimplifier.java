@@ -0,0 +1,368 @@
+package map;
+
+import java.awt.Polygon;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import util.Log;
+
+/**
+ * 表示モードごとの簡略化したポリゴンを作成するクラス
+ *
+ * Douglas-Peucker法でポリゴンの頂点を間引きます。
+ * 隣接するポリゴンの共有する境界が同じ形に簡略化されるように、
+ * 複数のリングの接続点（頂点を含むリングの数が前後の頂点と異なる点）は必ず残し、
+ * 接続点の間の頂点列は、向きによらず同じ結果になるよう、端点の座標の小さい方から簡略化します。
+ *
+ * 簡略化したポリゴンは、元のファイルの拡張子の前に .lod<i>表示モード</i> を付けたPolygonArchiveとして、元のファイルと同じ場所に書き込みます。
+ * 許容誤差は各表示モードの倍率の上限で{@link #TOLERANCE}ピクセルです。
+ * @author ma38su
+ */
+public class PolygonSimplifier {
+
+	/**
+	 * 表示モードの倍率の上限での許容誤差（ピクセル）
+	 */
+	public static final double TOLERANCE = 0.5;
+
+	/**
+	 * 簡略化したファイルの拡張子の前に付ける文字列
+	 */
+	public static final String LEVEL_SUFFIX = ".lod";
+
+	/**
+	 * リングに残す頂点数の下限
+	 */
+	private static final int MIN_POINTS = 3;
+
+	/**
+	 * 座標ごとの、頂点を含むリングの数
+	 */
+	private final Map<Long, int[]> degree;
+
+	/**
+	 * 許容誤差の2乗
+	 */
+	private final double tolerance2;
+
+	/**
+	 * コンストラクタ
+	 * @param polygons 簡略化するポリゴン（共有する境界を検出する範囲）
+	 * @param tolerance 許容誤差（座標の単位）
+	 */
+	private PolygonSimplifier(Polygon[][] polygons, double tolerance) {
+		this.tolerance2 = tolerance * tolerance;
+		this.degree = new HashMap<Long, int[]>();
+		for (Polygon[] group : polygons) {
+			for (Polygon p : group) {
+				long prev = Long.MIN_VALUE;
+				long first = PolygonSimplifier.key(p.xpoints[0], p.ypoints[0]);
+				for (int i = 0; i < p.npoints; i++) {
+					long key = PolygonSimplifier.key(p.xpoints[i], p.ypoints[i]);
+					// 閉じたリングの終点と、連続する同じ点は数えない
+					if (key == prev || (i > 0 && i == p.npoints - 1 && key == first)) {
+						continue;
+					}
+					int[] count = this.degree.get(key);
+					if (count == null) {
+						this.degree.put(key, new int[]{1});
+					} else {
+						count[0]++;
+					}
+					prev = key;
+				}
+			}
+		}
+	}
+
+	/**
+	 * ポリゴンを簡略化します。
+	 * 配列の構造（グループ数とリング数）は変えないため、元のポリゴンと同じインデックスで参照できます。
+	 * @param polygons ポリゴン
+	 * @param tolerance 許容誤差（座標の単位）
+	 * @return 簡略化したポリゴン
+	 */
+	public static Polygon[][] simplify(Polygon[][] polygons, double tolerance) {
+		PolygonSimplifier simplifier = new PolygonSimplifier(polygons, tolerance);
+		Polygon[][] ret = new Polygon[polygons.length][];
+		for (int i = 0; i < polygons.length; i++) {
+			ret[i] = new Polygon[polygons[i].length];
+			for (int j = 0; j < polygons[i].length; j++) {
+				ret[i][j] = simplifier.simplify(polygons[i][j]);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * 表示モードの倍率の上限から許容誤差を求めます。
+	 * @param mode 表示モード
+	 * @return 許容誤差（座標の単位）、簡略化しない表示モードは0
+	 */
+	public static double getTolerance(int mode) {
+		if (mode >= MapMode.getModeCount() - 1) {
+			return 0;
+		}
+		return TOLERANCE / MapMode.getModeScale(mode);
+	}
+
+	/**
+	 * 表示モードに対応する簡略化したファイルのパスを返します。
+	 * @param path 元のファイルのパス
+	 * @param mode 表示モード
+	 * @return 簡略化したファイルのパス
+	 */
+	public static String getLevelPath(String path, int mode) {
+		int index = path.lastIndexOf('.');
+		return path.substring(0, index) + LEVEL_SUFFIX + mode + PolygonArchive.EXTENSION;
+	}
+
+	private static long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	private int degree(int x, int y) {
+		int[] count = this.degree.get(PolygonSimplifier.key(x, y));
+		return count == null ? 0 : count[0];
+	}
+
+	/**
+	 * リングを簡略化します。
+	 * @param p リング
+	 * @return 簡略化したリング
+	 */
+	private Polygon simplify(Polygon p) {
+		int n = p.npoints;
+		if (n > 1 && p.xpoints[0] == p.xpoints[n - 1] && p.ypoints[0] == p.ypoints[n - 1]) {
+			// 閉じたリングの終点は始点と同じ
+			n--;
+		}
+		if (n <= MIN_POINTS) {
+			return p;
+		}
+		int[] xpoints = p.xpoints;
+		int[] ypoints = p.ypoints;
+		int[] degree = new int[n];
+		for (int i = 0; i < n; i++) {
+			degree[i] = this.degree(xpoints[i], ypoints[i]);
+		}
+		boolean[] keep = new boolean[n];
+		int anchors = 0;
+		for (int i = 0; i < n; i++) {
+			int prev = degree[(i + n - 1) % n];
+			int next = degree[(i + 1) % n];
+			if (degree[i] > 2 || degree[i] != prev || degree[i] != next) {
+				keep[i] = true;
+				anchors++;
+			}
+		}
+		if (anchors == 0) {
+			// 他のリングと接しないリングは、始点と始点から最も遠い点を残す
+			keep[0] = true;
+			keep[this.farthest(xpoints, ypoints, n, 0)] = true;
+		} else if (anchors == 1) {
+			for (int i = 0; i < n; i++) {
+				if (keep[i]) {
+					keep[this.farthest(xpoints, ypoints, n, i)] = true;
+					break;
+				}
+			}
+		}
+		int start = 0;
+		while (!keep[start]) {
+			start++;
+		}
+		int i = start;
+		do {
+			int j = (i + 1) % n;
+			while (!keep[j]) {
+				j = (j + 1) % n;
+			}
+			this.simplifyRun(xpoints, ypoints, n, i, j, keep);
+			i = j;
+		} while (i != start);
+
+		int count = 0;
+		for (boolean k : keep) {
+			if (k) {
+				count++;
+			}
+		}
+		if (count < MIN_POINTS) {
+			// 点や線に潰れたリングは、元の頂点から等間隔に残す
+			for (int k = 0; k < MIN_POINTS; k++) {
+				keep[k * n / MIN_POINTS] = true;
+			}
+			count = 0;
+			for (boolean k : keep) {
+				if (k) {
+					count++;
+				}
+			}
+		}
+		int[] x = new int[count];
+		int[] y = new int[count];
+		int k = 0;
+		for (int l = 0; l < n; l++) {
+			if (keep[l]) {
+				x[k] = xpoints[l];
+				y[k] = ypoints[l];
+				k++;
+			}
+		}
+		Polygon polygon = new Polygon();
+		polygon.xpoints = x;
+		polygon.ypoints = y;
+		polygon.npoints = count;
+		return polygon;
+	}
+
+	private int farthest(int[] xpoints, int[] ypoints, int n, int from) {
+		int index = (from + 1) % n;
+		long max = -1;
+		for (int i = 0; i < n; i++) {
+			long dx = (long) xpoints[i] - xpoints[from];
+			long dy = (long) ypoints[i] - ypoints[from];
+			long d = dx * dx + dy * dy;
+			if (d > max) {
+				max = d;
+				index = i;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * 接続点の間の頂点列を簡略化します。
+	 * 隣接するリングでは同じ頂点列が逆向きに現れるため、端点の座標の小さい方から処理します。
+	 * @param xpoints X座標
+	 * @param ypoints Y座標
+	 * @param n 頂点数
+	 * @param from 始点のインデックス
+	 * @param to 終点のインデックス（リングを一周する場合は始点と同じ）
+	 * @param keep 残す頂点
+	 */
+	private void simplifyRun(int[] xpoints, int[] ypoints, int n, int from, int to, boolean[] keep) {
+		int length = (to - from + n) % n;
+		if (length == 0) {
+			length = n;
+		}
+		if (length < 2) {
+			return;
+		}
+		int[] index = new int[length + 1];
+		for (int i = 0; i <= length; i++) {
+			index[i] = (from + i) % n;
+		}
+		int first = index[0];
+		int last = index[length];
+		if (xpoints[last] < xpoints[first] || (xpoints[last] == xpoints[first] && ypoints[last] < ypoints[first])) {
+			for (int i = 0, j = length; i < j; i++, j--) {
+				int t = index[i];
+				index[i] = index[j];
+				index[j] = t;
+			}
+		}
+		this.douglasPeucker(xpoints, ypoints, index, 0, length, keep);
+	}
+
+	private void douglasPeucker(int[] xpoints, int[] ypoints, int[] index, int from, int to, boolean[] keep) {
+		if (to - from < 2) {
+			return;
+		}
+		double ax = xpoints[index[from]];
+		double ay = ypoints[index[from]];
+		double bx = xpoints[index[to]];
+		double by = ypoints[index[to]];
+		double dx = bx - ax;
+		double dy = by - ay;
+		double length2 = dx * dx + dy * dy;
+		double max = -1;
+		int farthest = -1;
+		for (int i = from + 1; i < to; i++) {
+			double px = xpoints[index[i]] - ax;
+			double py = ypoints[index[i]] - ay;
+			double d;
+			if (length2 == 0) {
+				d = px * px + py * py;
+			} else {
+				double cross = px * dy - py * dx;
+				d = cross * cross / length2;
+			}
+			if (d > max) {
+				max = d;
+				farthest = i;
+			}
+		}
+		if (max > this.tolerance2) {
+			keep[index[farthest]] = true;
+			this.douglasPeucker(xpoints, ypoints, index, from, farthest, keep);
+			this.douglasPeucker(xpoints, ypoints, index, farthest, to, keep);
+		}
+	}
+
+	/**
+	 * 頂点数の合計を返します。
+	 * @param polygons ポリゴン
+	 * @return 頂点数
+	 */
+	public static long countPoints(Polygon[][] polygons) {
+		long count = 0;
+		for (Polygon[] group : polygons) {
+			for (Polygon p : group) {
+				count += p.npoints;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * ポリゴンのファイルから、表示モードごとの簡略化したファイルを作成します。
+	 * 簡略化しない最も大きい表示モードのファイルは作成しません。
+	 * @param args 簡略化するファイル（.dat、または .poly）
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		for (String path : args) {
+			Polygon[][] polygons;
+			if (path.endsWith(PolygonArchive.EXTENSION)) {
+				InputStream in = new BufferedInputStream(new FileInputStream(path));
+				try {
+					polygons = PolygonArchive.read(in);
+				} finally {
+					in.close();
+				}
+			} else {
+				ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(path)));
+				try {
+					polygons = (Polygon[][]) in.readObject();
+				} finally {
+					in.close();
+				}
+			}
+			long points = PolygonSimplifier.countPoints(polygons);
+			for (int mode = 0; mode < MapMode.getModeCount() - 1; mode++) {
+				long start = System.nanoTime();
+				Polygon[][] simplified = PolygonSimplifier.simplify(polygons, PolygonSimplifier.getTolerance(mode));
+				long time = System.nanoTime() - start;
+				String dst = PolygonSimplifier.getLevelPath(path, mode);
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(dst));
+				try {
+					PolygonArchive.write(out, simplified);
+				} finally {
+					out.close();
+				}
+				long n = PolygonSimplifier.countPoints(simplified);
+				Log.out(PolygonSimplifier.class, dst + ": " + n + " / " + points + " points ("
+						+ (n * 100 / Math.max(1, points)) + "%, " + (time / 1000000) + "ms)");
+			}
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package map;
+
+import java.awt.Polygon;
+
+import map.ksj.BusDataset;
+import map.ksj.PrefectureDataset;
+
+/**
+ * 読み込んだ都道府県データのメモリ使用量を管理するクラス
+ *
+ * 都道府県データごとに推定したメモリ使用量の合計が上限を超えると、
+ * 画面と交差していない都道府県データのうち、最後に表示されたのが最も古いものから破棄します。
+ * 画面と交差している都道府県データは、上限を超えていても破棄しません。
+ * @author ma38su
+ */
+public class PrefectureCache {
+
+	/**
+	 * Polygonのインスタンス1つあたりの推定バイト数（配列のヘッダを含む）
+	 */
+	private static final int POLYGON_OVERHEAD = 80;
+
+	/**
+	 * バス路線1つあたりの推定バイト数
+	 */
+	private static final long BUS_ROUTE_SIZE = 512;
+
+	/**
+	 * バス停や市区町村のラベル1つあたりの推定バイト数
+	 */
+	private static final long LABEL_SIZE = 96;
+
+	/**
+	 * メモリ使用量の上限（バイト）
+	 */
+	private final long budget;
+
+	/**
+	 * 都道府県データごとの推定メモリ使用量（読み込んでいなければ0）
+	 */
+	private final long[] size;
+
+	/**
+	 * 都道府県データが最後に画面と交差したフレーム
+	 */
+	private final long[] lastVisible;
+
+	/**
+	 * 一度でも読み込んだ都道府県データ
+	 */
+	private final boolean[] isLoaded;
+
+	/**
+	 * 推定メモリ使用量の合計
+	 */
+	private long total;
+
+	/**
+	 * 検索ごとに進めるフレーム番号
+	 */
+	private long frame;
+
+	/**
+	 * 読み込み回数
+	 */
+	private int loadCount;
+
+	/**
+	 * 破棄した後に再び読み込んだ回数
+	 */
+	private int reloadCount;
+
+	/**
+	 * 破棄した回数
+	 */
+	private int evictionCount;
+
+	/**
+	 * 先読みした後、まだ画面と交差していない都道府県データ
+	 */
+	private final boolean[] isPrefetched;
+
+	/**
+	 * 先読みした回数
+	 */
+	private int prefetchCount;
+
+	/**
+	 * 先読みした後に画面と交差した回数
+	 */
+	private int prefetchHitCount;
+
+	/**
+	 * 先読みした後に画面と交差せずに破棄した回数
+	 */
+	private int prefetchWasteCount;
+
+	/**
+	 * コンストラクタ
+	 * @param n 都道府県の数
+	 * @param budget メモリ使用量の上限（バイト）
+	 */
+	public PrefectureCache(int n, long budget) {
+		this.budget = budget;
+		this.size = new long[n];
+		this.lastVisible = new long[n];
+		this.isLoaded = new boolean[n];
+		this.isPrefetched = new boolean[n];
+	}
+
+	/**
+	 * 都道府県データのメモリ使用量を推定します。
+	 * ポリゴンの座標を主として、バス路線やラベルは1つあたりの概算で見積もります。
+	 * @param data 都道府県データ
+	 * @return 推定メモリ使用量（バイト）
+	 */
+	public static long estimateSize(PrefectureDataset data) {
+		long size = 0;
+		Polygon[] polygons = data.getPolygons();
+		if (polygons != null) {
+			for (Polygon p : polygons) {
+				size += POLYGON_OVERHEAD + ((long) p.xpoints.length << 3);
+			}
+		}
+		BusDataset bus = data.getBusDataset();
+		if (bus != null) {
+			if (bus.getBusRoute() != null) {
+				size += bus.getBusRoute().length * BUS_ROUTE_SIZE;
+			}
+			if (bus.getBusStops() != null) {
+				size += bus.getBusStops().length * LABEL_SIZE;
+			}
+		}
+		if (data.getAreas() != null) {
+			size += data.getAreas().length * LABEL_SIZE;
+		}
+		return size;
+	}
+
+	/**
+	 * フレームを進め、画面と交差している都道府県を記録します。
+	 * @param visibleCount 都道府県ごとの画面と交差する市区町村の数
+	 */
+	public synchronized void nextFrame(int[] visibleCount) {
+		this.frame++;
+		for (int i = 0; i < visibleCount.length; i++) {
+			if (visibleCount[i] > 0) {
+				this.lastVisible[i] = this.frame;
+				if (this.isPrefetched[i]) {
+					this.isPrefetched[i] = false;
+					this.prefetchHitCount++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * 都道府県データを読み込んだことを記録します。
+	 * @param i 都道府県のインデックス（都道府県番号 - 1）
+	 * @param data 読み込んだ都道府県データ
+	 * @param isPrefetch 先読みの場合はtrue
+	 */
+	public synchronized void loaded(int i, PrefectureDataset data, boolean isPrefetch) {
+		this.loadCount++;
+		if (isPrefetch) {
+			this.prefetchCount++;
+			this.isPrefetched[i] = true;
+		}
+		if (this.isLoaded[i]) {
+			this.reloadCount++;
+		}
+		this.isLoaded[i] = true;
+		this.total -= this.size[i];
+		this.size[i] = PrefectureCache.estimateSize(data);
+		this.total += this.size[i];
+		this.lastVisible[i] = this.frame;
+	}
+
+	/**
+	 * メモリ使用量が上限を超えていれば、画面と交差していない都道府県データを古いものから破棄します。
+	 * @param data 都道府県データ（破棄した都道府県はnullに置き換える）
+	 * @param visibleCount 都道府県ごとの画面と交差する市区町村の数（1以上は破棄しない）
+	 * @return 破棄した都道府県データの数
+	 */
+	public synchronized int evict(PrefectureDataset[] data, int[] visibleCount) {
+		int count = 0;
+		while (this.total > this.budget) {
+			int eldest = -1;
+			for (int i = 0; i < data.length; i++) {
+				if (data[i] != null && visibleCount[i] == 0 && (eldest < 0 || this.lastVisible[i] < this.lastVisible[eldest])) {
+					eldest = i;
+				}
+			}
+			if (eldest < 0) {
+				break;
+			}
+			data[eldest] = null;
+			if (this.isPrefetched[eldest]) {
+				this.isPrefetched[eldest] = false;
+				this.prefetchWasteCount++;
+			}
+			this.total -= this.size[eldest];
+			this.size[eldest] = 0;
+			this.evictionCount++;
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * メモリ使用量の上限を返します。
+	 * @return メモリ使用量の上限（バイト）
+	 */
+	public long getBudget() {
+		return this.budget;
+	}
+
+	/**
+	 * 読み込んでいる都道府県データの推定メモリ使用量の合計を返します。
+	 * @return 推定メモリ使用量（バイト）
+	 */
+	public synchronized long getTotalSize() {
+		return this.total;
+	}
+
+	/**
+	 * 読み込み回数を返します。
+	 * @return 読み込み回数
+	 */
+	public synchronized int getLoadCount() {
+		return this.loadCount;
+	}
+
+	/**
+	 * 破棄した後に再び読み込んだ回数を返します。
+	 * @return 再読み込み回数
+	 */
+	public synchronized int getReloadCount() {
+		return this.reloadCount;
+	}
+
+	/**
+	 * 破棄した回数を返します。
+	 * @return 破棄した回数
+	 */
+	public synchronized int getEvictionCount() {
+		return this.evictionCount;
+	}
+
+	/**
+	 * 先読みした回数を返します。
+	 * @return 先読みした回数
+	 */
+	public synchronized int getPrefetchCount() {
+		return this.prefetchCount;
+	}
+
+	/**
+	 * 先読みした後に画面と交差した回数を返します。
+	 * @return 先読みの的中数
+	 */
+	public synchronized int getPrefetchHitCount() {
+		return this.prefetchHitCount;
+	}
+
+	/**
+	 * 先読みした後に画面と交差せずに破棄した回数を返します。
+	 * @return 無駄になった先読みの数
+	 */
+	public synchronized int getPrefetchWasteCount() {
+		return this.prefetchWasteCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "prefecture cache: " + (this.total >> 10) + "KB / " + (this.budget >> 10) + "KB, load " + this.loadCount
+				+ ", reload " + this.reloadCount + ", eviction " + this.evictionCount
+				+ ", prefetch " + this.prefetchCount + " (hit " + this.prefetchHitCount + ", waste " + this.prefetchWasteCount + ")";
+	}
+}
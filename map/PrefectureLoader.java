@@ -0,0 +1,294 @@
+package map;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingUtilities;
+
+import map.ksj.PrefectureDataset;
+import util.Log;
+import view.MapPanel;
+
+/**
+ * 都道府県データを並列に読み込むクラス
+ *
+ * 表示範囲の検索ごとに版番号を付け、表示範囲と交差する都道府県の読み込みをスレッドプールへ投入します。
+ * 新しい版で表示範囲から外れた都道府県の読み込みは、開始前であれば取り消します。
+ * ファイルの読み込みはMapDataManagerで1つずつ行い、読み込んだ後の空間インデックスの作成と反映を並列に行います。
+ * 実行中の読み込みは中断しません（FileChannelで読み込み中のスレッドに割り込むとチャネルが閉じられるため）。
+ * 読み込みが完了すると再描画を要求しますが、描画スレッドが処理する前に完了した読み込みの再描画はまとめます。
+ * @author ma38su
+ */
+public class PrefectureLoader {
+
+	/**
+	 * 都道府県データの読み込みタスク
+	 * 表示範囲と交差する都道府県を先読みより優先し、同じ種類の中では新しい版を優先します。
+	 */
+	private class LoadTask extends FutureTask<PrefectureDataset> implements Comparable<LoadTask> {
+		final int prefCode;
+		final long version;
+		final boolean isPrefetch;
+		final long sequence;
+
+		LoadTask(final int prefCode, long version, final boolean isPrefetch) {
+			super(new Callable<PrefectureDataset>() {
+				public PrefectureDataset call() {
+					return PrefectureLoader.this.manager.loadPrefecture(prefCode, isPrefetch);
+				}
+			});
+			this.prefCode = prefCode;
+			this.version = version;
+			this.isPrefetch = isPrefetch;
+			this.sequence = PrefectureLoader.this.sequence.incrementAndGet();
+		}
+
+		public int compareTo(LoadTask o) {
+			if (this.isPrefetch != o.isPrefetch) {
+				return this.isPrefetch ? 1 : -1;
+			}
+			if (this.version != o.version) {
+				return this.version > o.version ? -1 : 1;
+			}
+			return this.sequence < o.sequence ? -1 : (this.sequence > o.sequence ? 1 : 0);
+		}
+
+		@Override
+		protected void done() {
+			PrefectureLoader.this.done(this);
+		}
+	}
+
+	/**
+	 * 地図データ管理クラス
+	 */
+	private final MapDataManager manager;
+
+	/**
+	 * 地図パネルクラス
+	 */
+	private final MapPanel panel;
+
+	/**
+	 * 読み込みのスレッドプール
+	 */
+	private final ThreadPoolExecutor pool;
+
+	/**
+	 * 都道府県ごとの実行中または実行待ちの読み込み
+	 */
+	private final LoadTask[] loading;
+
+	/**
+	 * 最新の版で表示範囲と交差する都道府県
+	 */
+	private final boolean[] visible;
+
+	/**
+	 * タスクの投入順
+	 */
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * 再描画の要求済みで、まだ描画スレッドが処理していなければtrue
+	 */
+	private final AtomicBoolean isRepaintPending = new AtomicBoolean();
+
+	/**
+	 * 表示範囲の都道府県データの読み込みを最後に投入した時刻（ナノ秒、そろっていれば0）
+	 */
+	private long frameStart;
+
+	/**
+	 * 直前に表示範囲の都道府県データがそろうまでにかかった時間（ミリ秒）
+	 */
+	private long frameTime;
+
+	/**
+	 * 取り消した読み込みの数
+	 */
+	private int cancelCount;
+
+	/**
+	 * まとめた再描画の数
+	 */
+	private final AtomicInteger coalescedCount = new AtomicInteger();
+
+	/**
+	 * コンストラクタ
+	 * @param manager 地図データ管理クラス
+	 * @param panel 地図パネルクラス
+	 * @param n 都道府県の数
+	 * @param parallelism 並列に読み込む数
+	 */
+	public PrefectureLoader(MapDataManager manager, MapPanel panel, int n, int parallelism) {
+		this.manager = manager;
+		this.panel = panel;
+		this.loading = new LoadTask[n];
+		this.visible = new boolean[n];
+		final AtomicInteger count = new AtomicInteger();
+		this.pool = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "PrefectureLoader-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * 表示範囲の検索結果を反映します。
+	 * 表示範囲と交差する都道府県のうち、読み込んでいないものの読み込みを投入し、
+	 * 表示範囲から外れた都道府県の開始前の読み込みを取り消します。
+	 * @param version 検索の版番号
+	 * @param visibleCount 都道府県ごとの表示範囲と交差する市区町村の数
+	 * @param data 読み込んだ都道府県データ
+	 */
+	public synchronized void update(long version, int[] visibleCount, PrefectureDataset[] data) {
+		boolean isComplete = true;
+		boolean isSubmitted = false;
+		for (int i = 0; i < this.loading.length; i++) {
+			this.visible[i] = visibleCount[i] > 0;
+			LoadTask task = this.loading[i];
+			if (this.visible[i]) {
+				if (data[i] != null) {
+					continue;
+				}
+				isComplete = false;
+				if (task != null && task.isPrefetch && this.pool.remove(task)) {
+					// 開始前の先読みは、優先度を上げて投入し直す
+					task.cancel(false);
+					task = null;
+				}
+				if (task == null) {
+					this.execute(new LoadTask(i + 1, version, false));
+					isSubmitted = true;
+				}
+			} else if (task != null && !task.isPrefetch && this.pool.remove(task)) {
+				task.cancel(false);
+				this.cancelCount++;
+			}
+		}
+		if (isComplete) {
+			this.frameStart = 0;
+		} else if (isSubmitted || this.frameStart == 0) {
+			// 新たに読み込む都道府県があれば、この版から計測し直す
+			this.frameStart = System.nanoTime();
+		}
+	}
+
+	/**
+	 * 都道府県データの先読みを投入します。
+	 * 読み込み済み、または読み込み中であれば何もしません。
+	 * @param prefCode 都道府県番号
+	 * @param version 予測に用いた表示範囲の版番号
+	 */
+	public synchronized void prefetch(int prefCode, long version) {
+		if (this.loading[prefCode - 1] == null) {
+			this.execute(new LoadTask(prefCode, version, true));
+		}
+	}
+
+	private void execute(LoadTask task) {
+		this.loading[task.prefCode - 1] = task;
+		this.pool.execute(task);
+	}
+
+	/**
+	 * 読み込みが完了、または取り消されたときに呼び出されます。
+	 * @param task 読み込みタスク
+	 */
+	private void done(LoadTask task) {
+		boolean isIdle;
+		synchronized (this) {
+			if (this.loading[task.prefCode - 1] == task) {
+				this.loading[task.prefCode - 1] = null;
+			}
+			if (task.isCancelled()) {
+				return;
+			}
+			isIdle = true;
+			for (LoadTask t : this.loading) {
+				if (t != null) {
+					isIdle = false;
+					break;
+				}
+			}
+			if (this.frameStart != 0 && this.isVisibleLoaded()) {
+				this.frameTime = (System.nanoTime() - this.frameStart) / 1000000;
+				this.frameStart = 0;
+				Log.out(this, "frame completed in " + this.frameTime + "ms");
+			}
+		}
+		if (isIdle) {
+			this.manager.finishLoading();
+		}
+		this.repaint();
+	}
+
+	private boolean isVisibleLoaded() {
+		PrefectureDataset[] data = this.manager.getPrefectureDatas();
+		for (int i = 0; i < this.visible.length; i++) {
+			if (this.visible[i] && data[i] == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 再描画を要求します。
+	 * 描画スレッドが処理していない要求があれば、新たに要求しません。
+	 */
+	private void repaint() {
+		if (this.isRepaintPending.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					PrefectureLoader.this.isRepaintPending.set(false);
+					PrefectureLoader.this.panel.repaint();
+				}
+			});
+		} else {
+			this.coalescedCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * 直前に表示範囲の都道府県データがそろうまでにかかった時間を返します。
+	 * @return 表示範囲の都道府県データの読み込みを最後に投入してから、そろうまでの時間（ミリ秒）
+	 */
+	public synchronized long getFrameTime() {
+		return this.frameTime;
+	}
+
+	/**
+	 * 取り消した読み込みの数を返します。
+	 * @return 取り消した読み込みの数
+	 */
+	public synchronized int getCancelCount() {
+		return this.cancelCount;
+	}
+
+	/**
+	 * まとめた再描画の数を返します。
+	 * @return 他の再描画の要求にまとめた数
+	 */
+	public int getCoalescedCount() {
+		return this.coalescedCount.get();
+	}
+
+	/**
+	 * スレッドプールを終了します。
+	 */
+	public void shutdown() {
+		this.pool.shutdownNow();
+	}
+}
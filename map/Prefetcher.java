@@ -0,0 +1,234 @@
+package map;
+
+import index.CellVisitor;
+import index.SpatialIndex;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * 都道府県データの先読みクラス
+ *
+ * マウス操作から平行移動の速度と拡大縮小の方向を推定し、
+ * 表示範囲を移動方向へ広げた範囲と交差する都道府県データを、低い優先度で先に読み込みます。
+ * 先読みの的中と無駄はPrefectureCacheで集計します。
+ * 表示範囲は描画スレッドの操作ごとに複製を受け取り、先読みのスレッドは地図パネルを参照しません。
+ * @author ma38su
+ */
+public class Prefetcher extends Thread {
+
+	/**
+	 * 移動を予測する時間（ミリ秒）
+	 */
+	private static final long LOOKAHEAD = 1000;
+
+	/**
+	 * 操作が止まったとみなす時間（ミリ秒）
+	 */
+	private static final long IDLE = 300;
+
+	/**
+	 * 速度の指数移動平均の係数（直前の速度の重み）
+	 */
+	private static final double SMOOTHING = 0.7;
+
+	/**
+	 * 地図データ管理クラス
+	 */
+	private final MapDataManager manager;
+
+	/**
+	 * 地域検索のための空間インデックス
+	 */
+	private final SpatialIndex index;
+
+	/**
+	 * 画面上のX方向の速度（ピクセル/ミリ秒、右向きが正）
+	 */
+	private double vx;
+
+	/**
+	 * 画面上のY方向の速度（ピクセル/ミリ秒、下向きが正）
+	 */
+	private double vy;
+
+	/**
+	 * 最後に平行移動した時刻
+	 */
+	private long lastMove;
+
+	/**
+	 * 最後の拡大縮小の方向（正なら拡大、負なら縮小）
+	 */
+	private int zoom;
+
+	/**
+	 * 最後に拡大縮小した時刻
+	 */
+	private long lastZoom;
+
+	/**
+	 * 予測した範囲と交差する都道府県
+	 */
+	private final boolean[] predicted = new boolean[47];
+
+	/**
+	 * 最後の操作の後の表示範囲（操作ごとに複製を置き換え、変更しない）
+	 */
+	private Rectangle screen;
+
+	/**
+	 * 最後の操作の後の画面の幅（ピクセル）
+	 */
+	private int width;
+
+	/**
+	 * 最後の操作の後の表示モード
+	 */
+	private int mode;
+
+	/**
+	 * 操作の版番号
+	 * 操作ごとに増やし、予測した版番号と異なれば予測し直します。
+	 */
+	private long version;
+
+	/**
+	 * コンストラクタ
+	 * @param manager 地図データ管理クラス
+	 * @param index 地域検索のための空間インデックス
+	 */
+	public Prefetcher(MapDataManager manager, SpatialIndex index) {
+		this.manager = manager;
+		this.index = index;
+		this.setDaemon(true);
+		this.setPriority(Thread.MIN_PRIORITY);
+	}
+
+	/**
+	 * 平行移動を記録します。
+	 * @param dx 画面上のX方向の移動量（ピクセル）
+	 * @param dy 画面上のY方向の移動量（ピクセル）
+	 * @param when 操作の時刻（ミリ秒）
+	 * @param screen 移動後の表示範囲（複製して保持する）
+	 * @param width 画面の幅（ピクセル）
+	 * @param mode 移動後の表示モード
+	 */
+	public synchronized void move(int dx, int dy, long when, Rectangle screen, int width, int mode) {
+		long dt = when - this.lastMove;
+		if (dt > IDLE) {
+			// 止まった状態から動き出した
+			this.vx = 0;
+			this.vy = 0;
+			dt = IDLE;
+		} else if (dt <= 0) {
+			dt = 1;
+		}
+		this.vx = SMOOTHING * this.vx + (1 - SMOOTHING) * dx / dt;
+		this.vy = SMOOTHING * this.vy + (1 - SMOOTHING) * dy / dt;
+		this.lastMove = when;
+		this.update(screen, width, mode);
+	}
+
+	/**
+	 * 拡大縮小を記録します。
+	 * @param d マウスホイールの回転量（正なら拡大、負なら縮小）
+	 * @param when 操作の時刻（ミリ秒）
+	 * @param screen 拡大縮小後の表示範囲（複製して保持する）
+	 * @param width 画面の幅（ピクセル）
+	 * @param mode 拡大縮小後の表示モード
+	 */
+	public synchronized void zoom(int d, long when, Rectangle screen, int width, int mode) {
+		this.zoom = d;
+		this.lastZoom = when;
+		this.update(screen, width, mode);
+	}
+
+	/**
+	 * 操作後の表示範囲を記録し、版番号を進めて先読みのスレッドを起こします。
+	 */
+	private void update(Rectangle screen, int width, int mode) {
+		this.screen = new Rectangle(screen);
+		this.width = width;
+		this.mode = mode;
+		this.version++;
+		this.notifyAll();
+	}
+
+	/**
+	 * 操作から、これから表示する範囲を予測します。
+	 * 平行移動中は移動方向へ、縮小中は四方へ表示範囲を広げます。
+	 * @param screen 現在の表示範囲
+	 * @param width 画面の幅（ピクセル）
+	 * @param now 現在時刻（ミリ秒）
+	 * @return 予測した範囲、操作していなければnull
+	 */
+	synchronized Rectangle predict(Rectangle screen, int width, long now) {
+		if (width <= 0) {
+			return null;
+		}
+		Rectangle rect = null;
+		if (now - this.lastMove < IDLE) {
+			double unit = (double) screen.width / width * LOOKAHEAD;
+			int ex = (int) (-this.vx * unit);
+			int ey = (int) (this.vy * unit);
+			if (ex != 0 || ey != 0) {
+				rect = new Rectangle(screen);
+				rect.add(new Rectangle(screen.x + ex, screen.y + ey, screen.width, screen.height));
+			}
+		}
+		if (now - this.lastZoom < IDLE && this.zoom < 0) {
+			if (rect == null) {
+				rect = new Rectangle(screen);
+			}
+			rect.grow(screen.width / 2, screen.height / 2);
+		}
+		return rect;
+	}
+
+	@Override
+	public void run() {
+		final boolean[] predicted = this.predicted;
+		CellVisitor visitor = new CellVisitor() {
+			public void visit(int code, int overlap, int x, int y, int width, int height) {
+				predicted[code / 1000 - 1] = true;
+			}
+		};
+		long processed = 0;
+		while (true) {
+			try {
+				Rectangle screen;
+				int width;
+				synchronized (this) {
+					// 予測している間の操作も取りこぼさないよう、版番号が進むまで待つ
+					while (this.version == processed) {
+						this.wait();
+					}
+					processed = this.version;
+					if (this.mode <= 1) {
+						continue;
+					}
+					screen = this.screen;
+					width = this.width;
+				}
+				Rectangle rect = this.predict(screen, width, System.currentTimeMillis());
+				if (rect == null) {
+					continue;
+				}
+				Arrays.fill(predicted, false);
+				if (!this.index.search(rect, visitor)) {
+					continue;
+				}
+				for (int i = 0; i < predicted.length; i++) {
+					if (predicted[i] && !this.manager.isVisible(i + 1)) {
+						this.manager.prefetchPrefecture(i + 1);
+					}
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,421 @@
+package map;
+
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import index.BoundsIndex;
+import util.Log;
+
+/**
+ * 隣接するポリゴンで境界を共有する位相構造
+ *
+ * ポリゴンのリングを接続点（2つのリングが共有する頂点のうち前後の頂点と共有の状態が異なる点、または3つ以上のリングが接する点）で分割した頂点列を弧とし、
+ * 隣接するリングの同じ頂点列は1つの弧として保持します。
+ * リングは弧の番号の列で表し、逆向きにたどる弧は番号のビット反転（~番号）で表します。
+ * 境界は弧ごとに1回だけ描画し、塗りつぶしは弧をつなげたリングで行います。
+ * @author ma38su
+ */
+public class Topology {
+
+	/**
+	 * 弧のX座標
+	 */
+	private final int[][] arcX;
+
+	/**
+	 * 弧のY座標
+	 */
+	private final int[][] arcY;
+
+	/**
+	 * リングを構成する弧の番号（逆向きの場合は~番号）
+	 */
+	private final int[][] rings;
+
+	/**
+	 * リングの頂点数
+	 */
+	private final int[] ringSize;
+
+	/**
+	 * グループ（元のPolygon[][]の外側の配列）ごとの最初のリングのインデックス
+	 */
+	private final int[] groupStart;
+
+	/**
+	 * リングの外接長方形の空間インデックス
+	 */
+	private final BoundsIndex ringIndex;
+
+	/**
+	 * 弧の外接長方形の空間インデックス
+	 */
+	private final BoundsIndex arcIndex;
+
+	private Topology(int[][] arcX, int[][] arcY, int[][] rings, int[] ringSize, Rectangle[] ringBounds, int[] groupStart) {
+		this.arcX = arcX;
+		this.arcY = arcY;
+		this.rings = rings;
+		this.ringSize = ringSize;
+		this.groupStart = groupStart;
+		Rectangle[] arcBounds = new Rectangle[arcX.length];
+		for (int i = 0; i < arcX.length; i++) {
+			int[] x = arcX[i];
+			int[] y = arcY[i];
+			int minX = x[0];
+			int minY = y[0];
+			int maxX = x[0];
+			int maxY = y[0];
+			for (int j = 1; j < x.length; j++) {
+				minX = Math.min(minX, x[j]);
+				minY = Math.min(minY, y[j]);
+				maxX = Math.max(maxX, x[j]);
+				maxY = Math.max(maxY, y[j]);
+			}
+			arcBounds[i] = new Rectangle(minX, minY, maxX - minX, maxY - minY);
+		}
+		this.ringIndex = new BoundsIndex(ringBounds);
+		this.arcIndex = new BoundsIndex(arcBounds);
+	}
+
+	/**
+	 * 弧の座標をキーとして比較するクラス
+	 */
+	private static class ArcKey {
+		final int[] x;
+		final int[] y;
+		final int hash;
+
+		ArcKey(int[] x, int[] y) {
+			this.x = x;
+			this.y = y;
+			this.hash = 31 * Arrays.hashCode(x) + Arrays.hashCode(y);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof ArcKey) {
+				ArcKey key = (ArcKey) obj;
+				return this.hash == key.hash && Arrays.equals(this.x, key.x) && Arrays.equals(this.y, key.y);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * ポリゴンから位相構造を作成します。
+	 * @param polygons ポリゴン
+	 * @return 位相構造
+	 */
+	public static Topology build(Polygon[][] polygons) {
+		long start = System.currentTimeMillis();
+		Map<Long, int[]> degree = new HashMap<Long, int[]>();
+		int ringCount = 0;
+		for (Polygon[] group : polygons) {
+			ringCount += group.length;
+			for (Polygon p : group) {
+				long prev = Long.MIN_VALUE;
+				int n = Topology.size(p);
+				for (int i = 0; i < n; i++) {
+					long key = Topology.key(p.xpoints[i], p.ypoints[i]);
+					if (key == prev) {
+						continue;
+					}
+					int[] count = degree.get(key);
+					if (count == null) {
+						degree.put(key, new int[]{1});
+					} else {
+						count[0]++;
+					}
+					prev = key;
+				}
+			}
+		}
+		Map<ArcKey, Integer> arcs = new HashMap<ArcKey, Integer>();
+		List<int[]> arcX = new ArrayList<int[]>();
+		List<int[]> arcY = new ArrayList<int[]>();
+		int[][] rings = new int[ringCount][];
+		int[] ringSize = new int[ringCount];
+		Rectangle[] ringBounds = new Rectangle[ringCount];
+		int[] groupStart = new int[polygons.length + 1];
+		int ring = 0;
+		for (int g = 0; g < polygons.length; g++) {
+			groupStart[g] = ring;
+			for (Polygon p : polygons[g]) {
+				rings[ring] = Topology.split(p, degree, arcs, arcX, arcY);
+				ringSize[ring] = p.npoints;
+				ringBounds[ring] = p.getBounds();
+				ring++;
+			}
+		}
+		groupStart[polygons.length] = ring;
+		Topology topology = new Topology(arcX.toArray(new int[arcX.size()][]), arcY.toArray(new int[arcY.size()][]), rings, ringSize, ringBounds, groupStart);
+		Log.out(Topology.class, "build " + topology.getArcCount() + " arcs, " + topology.getArcPointCount() + " / " + topology.getRingPointCount() + " points (" + (System.currentTimeMillis() - start) + "ms)");
+		return topology;
+	}
+
+	private static long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * 閉じたリングの終点（始点と同じ頂点）を除いた頂点数を返します。
+	 * 終点を数えると、始点と終点で分割して長さ0の弧ができるためです。
+	 * @param p リング
+	 * @return 頂点数
+	 */
+	private static int size(Polygon p) {
+		int n = p.npoints;
+		while (n > 1 && p.xpoints[n - 1] == p.xpoints[0] && p.ypoints[n - 1] == p.ypoints[0]) {
+			n--;
+		}
+		return n;
+	}
+
+	/**
+	 * リングを弧に分割し、弧の番号の列を返します。
+	 * @param p リング
+	 * @param degree 座標ごとの頂点を含むリングの数
+	 * @param arcs 登録済みの弧
+	 * @param arcX 弧のX座標
+	 * @param arcY 弧のY座標
+	 * @return 弧の番号の列
+	 */
+	private static int[] split(Polygon p, Map<Long, int[]> degree, Map<ArcKey, Integer> arcs, List<int[]> arcX, List<int[]> arcY) {
+		int n = Topology.size(p);
+		if (n == 0) {
+			return new int[0];
+		}
+		int[] d = new int[n];
+		for (int i = 0; i < n; i++) {
+			d[i] = degree.get(Topology.key(p.xpoints[i], p.ypoints[i]))[0];
+		}
+		List<Integer> anchors = new ArrayList<Integer>();
+		// 直前に分割した頂点から同じ座標の頂点が続いていればtrue
+		boolean isOnAnchor = false;
+		for (int i = 0; i < n; i++) {
+			if (isOnAnchor && (p.xpoints[i] != p.xpoints[i - 1] || p.ypoints[i] != p.ypoints[i - 1])) {
+				isOnAnchor = false;
+			}
+			int prev = d[(i + n - 1) % n];
+			int next = d[(i + 1) % n];
+			// 共有する頂点のうち、共有するリングの数が変わる点で分割する
+			// 分割した頂点と同じ座標の頂点が続く場合は、長さ0の弧を作らないように分割しない
+			if (!isOnAnchor && (d[i] > 2 || (d[i] == 2 && (prev != 2 || next != 2)))) {
+				anchors.add(i);
+				isOnAnchor = true;
+			}
+		}
+		if (anchors.isEmpty()) {
+			// 他のリングと接しないリングは、最小の座標の頂点から1つの弧とする
+			int min = 0;
+			for (int i = 1; i < n; i++) {
+				if (Topology.compare(p.xpoints[i], p.ypoints[i], p.xpoints[min], p.ypoints[min]) < 0) {
+					min = i;
+				}
+			}
+			anchors.add(min);
+		}
+		int[] refs = new int[anchors.size()];
+		for (int k = 0; k < refs.length; k++) {
+			int from = anchors.get(k);
+			int to = anchors.get((k + 1) % refs.length);
+			int length = (to - from + n) % n;
+			if (length == 0) {
+				length = n;
+			}
+			int[] x = new int[length + 1];
+			int[] y = new int[length + 1];
+			for (int i = 0; i <= length; i++) {
+				x[i] = p.xpoints[(from + i) % n];
+				y[i] = p.ypoints[(from + i) % n];
+			}
+			boolean isReversed = Topology.isReversed(x, y);
+			if (isReversed) {
+				Topology.reverse(x);
+				Topology.reverse(y);
+			}
+			ArcKey key = new ArcKey(x, y);
+			Integer id = arcs.get(key);
+			if (id == null) {
+				id = arcX.size();
+				arcs.put(key, id);
+				arcX.add(x);
+				arcY.add(y);
+			}
+			refs[k] = isReversed ? ~id : id;
+		}
+		return refs;
+	}
+
+	/**
+	 * 弧を逆向きにして登録するかどうか
+	 * 隣接するリングでは同じ頂点列が逆向きに現れるため、向きによらず同じ頂点列になるようにします。
+	 */
+	private static boolean isReversed(int[] x, int[] y) {
+		int last = x.length - 1;
+		for (int i = 0, j = last; i < j; i++, j--) {
+			int c = Topology.compare(x[j], y[j], x[i], y[i]);
+			if (c != 0) {
+				return c < 0;
+			}
+		}
+		return false;
+	}
+
+	private static int compare(int x1, int y1, int x2, int y2) {
+		if (x1 != x2) {
+			return x1 < x2 ? -1 : 1;
+		}
+		return y1 < y2 ? -1 : (y1 == y2 ? 0 : 1);
+	}
+
+	private static void reverse(int[] a) {
+		for (int i = 0, j = a.length - 1; i < j; i++, j--) {
+			int t = a[i];
+			a[i] = a[j];
+			a[j] = t;
+		}
+	}
+
+	/**
+	 * 範囲と交差するリングを、弧をつなげて塗りつぶします。
+	 * @param g 描画するGraphics2D
+	 * @param screen 描画範囲
+	 * @param clipper 描画範囲の外側の頂点を除くクラス
+	 * @param culler 小さすぎるリングを点にまとめるクラス
+	 */
+	public void fill(Graphics2D g, Rectangle screen, PolygonClipper clipper, FeatureCuller culler) {
+		int[] x = new int[64];
+		int[] y = new int[64];
+		Rectangle bounds = new Rectangle();
+		for (int i : this.ringIndex.search(screen)) {
+			this.ringIndex.getBounds(i, bounds);
+			if (culler.isSmall(bounds)) {
+				culler.fill(g, bounds, 1);
+				continue;
+			}
+			int n = this.ringSize[i];
+			if (x.length < n + 1) {
+				x = new int[Integer.highestOneBit(n) << 1];
+				y = new int[x.length];
+			}
+			int k = clipper.clipPolygon(x, y, this.assemble(i, x, y));
+			g.fillPolygon(clipper.getX(), clipper.getY(), k);
+		}
+	}
+
+	/**
+	 * 範囲と交差する弧を1回ずつ描画します。
+	 * @param g 描画するGraphics2D
+	 * @param screen 描画範囲
+	 * @param clipper 描画範囲の外側の頂点を除くクラス
+	 * @param culler 小さすぎる弧を点にまとめるクラス
+	 */
+	public void stroke(Graphics2D g, Rectangle screen, PolygonClipper clipper, FeatureCuller culler) {
+		Rectangle bounds = new Rectangle();
+		for (int i : this.arcIndex.search(screen)) {
+			this.arcIndex.getBounds(i, bounds);
+			if (culler.isSmall(bounds)) {
+				culler.fill(g, bounds, 1);
+				continue;
+			}
+			int k = clipper.clipPolyline(this.arcX[i], this.arcY[i], this.arcX[i].length);
+			if (k >= 2) {
+				g.drawPolyline(clipper.getX(), clipper.getY(), k);
+			}
+		}
+	}
+
+	/**
+	 * 弧をつなげてリングの座標を求めます。
+	 * 各弧の始点は直前の弧の終点と同じため、最初の弧以外は始点を除きます。
+	 * @param ring リングのインデックス
+	 * @param x X座標を格納する配列
+	 * @param y Y座標を格納する配列
+	 * @return 頂点数
+	 */
+	private int assemble(int ring, int[] x, int[] y) {
+		int k = 0;
+		for (int ref : this.rings[ring]) {
+			boolean isReversed = ref < 0;
+			int[] ax = this.arcX[isReversed ? ~ref : ref];
+			int[] ay = this.arcY[isReversed ? ~ref : ref];
+			int last = ax.length - 1;
+			for (int j = 1; j <= last; j++) {
+				int l = isReversed ? last - j : j;
+				x[k] = ax[l];
+				y[k] = ay[l];
+				k++;
+			}
+		}
+		return k;
+	}
+
+	/**
+	 * リングを元のPolygonとして組み立てます。
+	 * 頂点は最初の弧の始点から並ぶため、元のリングとは始点が異なる場合があります。
+	 * @param group グループのインデックス
+	 * @param index グループ内のリングのインデックス
+	 * @return リング
+	 */
+	public Polygon getPolygon(int group, int index) {
+		int ring = this.groupStart[group] + index;
+		int n = this.ringSize[ring];
+		int[] x = new int[n + 1];
+		int[] y = new int[n + 1];
+		int k = this.assemble(ring, x, y);
+		return new Polygon(x, y, k);
+	}
+
+	/**
+	 * グループの数を返します。
+	 * @return グループの数
+	 */
+	public int getGroupCount() {
+		return this.groupStart.length - 1;
+	}
+
+	/**
+	 * 弧の数を返します。
+	 * @return 弧の数
+	 */
+	public int getArcCount() {
+		return this.arcX.length;
+	}
+
+	/**
+	 * 弧の頂点数の合計を返します。
+	 * @return 弧の頂点数
+	 */
+	public long getArcPointCount() {
+		long count = 0;
+		for (int[] x : this.arcX) {
+			count += x.length;
+		}
+		return count;
+	}
+
+	/**
+	 * 元のリングの頂点数の合計を返します。
+	 * @return リングの頂点数
+	 */
+	public long getRingPointCount() {
+		long count = 0;
+		for (int n : this.ringSize) {
+			count += n;
+		}
+		return count;
+	}
+}
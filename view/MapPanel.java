@@ -1,5 +1,6 @@
 package view;
 
+import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
@@ -11,15 +12,32 @@ import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Stroke;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.awt.print.Printable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.swing.Timer;
+
+import index.BoundsIndex;
 import util.FixedPoint;
 import util.Log;
 import util.gui.ExportableComponent;
 
 import labeling.SimpleLabeling;
+import map.FeatureCuller;
 import map.MapDataManager;
+import map.MapMode;
+import map.PolygonClipper;
+import map.Topology;
 import map.ksj.BusDataset;
 import map.ksj.BusRoute;
 import map.ksj.CityAreas;
@@ -49,19 +67,6 @@ public class MapPanel extends ExportableComponent implements Printable {
 	
 	private static final int MIN_SCREEN_Y =  20 * FixedPoint.SHIFT;
 	
-	/**
-	 * 倍率に対応したモードの番号
-	 * 0: この倍率以下でFreeGISを表示
-	 * 1: この倍率以下で国土数値情報の都道府県界を表示
-	 * 2: この倍率以下で鉄道を表示
-	 * 3: この倍率以下でバス路線を表示
-	 */
-	private static final float[] MODE_SCALE = {
-			0.000020f,	// 0
-			0.000500f,	// 1
-			0.002000f,	// 2
-	};
-	
 	/**
 	 * 倍率に対応したモードの説明
 	 */
@@ -186,14 +191,380 @@ public class MapPanel extends ExportableComponent implements Printable {
 	
 	/**
 	 * 世界地図ポリゴン
+	 * 表示モードをインデックスとし、表示モードごとに簡略化したポリゴンを保持します。
+	 */
+	private Polygon[][][] world;
+
+	/**
+	 * 世界地図ポリゴンの空間インデックス
 	 */
-	private Polygon[][] world;
+	private BoundsIndex[][] worldIndex;
 
-	private Polygon[][] prefectures;
+	/**
+	 * モード1で表示する都道府県界の位相構造
+	 */
+	private Topology prefectures;
 	
-	private Polygon[] lake;
+	private Polygon[][] lake;
+
+	private Polygon[][] island;
+
+	/**
+	 * 直前の描画にかかった時間（ナノ秒）
+	 */
+	private long drawTime;
+
+	/**
+	 * タイルの1辺の画素数
+	 */
+	private static final int TILE_SIZE = 256;
+
+	/**
+	 * 操作中の簡易な描画で使うタイルの1辺の画素数
+	 * 1回に描画する単位を小さくし、フレームの描画時間の上限に収まるようにします。
+	 */
+	private static final int DRAFT_TILE_SIZE = 64;
+
+	/**
+	 * タイルの外側で描画する図形を探す幅（画素）
+	 * 線の太さの半分より大きくします。
+	 */
+	private static final int TILE_MARGIN = 8;
+
+	/**
+	 * キャッシュするタイルの数の初期値
+	 * システムプロパティ map.tileCache で変更でき、0を指定するとタイルを使わずに描画します。
+	 */
+	private static final int DEFAULT_TILE_CACHE = 256;
+
+	/**
+	 * 描画済みのタイル（タイルを使わない場合はnull）
+	 */
+	private final TileCache tiles;
+
+	/**
+	 * タイルを並列に描画するスレッドプール（1つずつ描画する場合はnull）
+	 * システムプロパティ map.renderThreads で並列数を変更できます。
+	 */
+	private final ForkJoinPool renderPool;
+
+	/**
+	 * ラベルなどを除いた地図の画像
+	 * 平行移動したときは、移動量だけずらして再利用します。
+	 */
+	private BufferedImage base;
+
+	/**
+	 * this.baseが描画済みであればtrue
+	 * 描画を見送ったタイルがあっても、その範囲は海の色で塗りつぶして描画済みとします。
+	 */
+	private boolean isBaseValid;
+
+	/**
+	 * this.baseのうち、描画を見送ったタイルの範囲（経度・緯度に倍率をかけた画素）
+	 * 次のフレームからは、this.baseを移動量だけずらした後に、時間の上限までこの範囲を描画します。
+	 */
+	private final List<Rectangle> pendingTiles = new ArrayList<Rectangle>();
+
+	/**
+	 * this.baseの左端のX座標（画素）
+	 */
+	private int baseLeft;
+
+	/**
+	 * this.baseの上端のY座標（画素）
+	 */
+	private int baseTop;
+
+	/**
+	 * this.baseを描画したときの表示倍率
+	 */
+	private float baseScale;
+
+	/**
+	 * this.baseを描画したときの描画設定の版番号
+	 */
+	private int baseStyle;
+
+	/**
+	 * this.baseを描画したときの表示モード
+	 */
+	private int baseMode;
+
+	/**
+	 * this.baseに描画した描画層
+	 */
+	private int baseLayers;
+
+	/**
+	 * this.baseをアンチエイリアスを適用して描画していればtrue
+	 */
+	private boolean baseAntialias;
+
+	/**
+	 * this.baseを操作中の簡易な描画で描画していればtrue
+	 */
+	private boolean baseDraft;
+
+	/**
+	 * this.baseを描画したときの地図データの版番号
+	 */
+	private int baseDataVersion;
+
+	/**
+	 * ラベル、縮尺、経度緯度の画像（透明な背景）
+	 * 表示範囲とラベルの設定が変わらなければ、ラベルを配置し直さずに再利用します。
+	 */
+	private BufferedImage overlay;
+
+	/**
+	 * this.overlayが描画済みであればtrue
+	 */
+	private boolean isOverlayValid;
+
+	/**
+	 * this.overlayの左端のX座標（画素）
+	 */
+	private int overlayLeft;
+
+	/**
+	 * this.overlayの上端のY座標（画素）
+	 */
+	private int overlayTop;
+
+	/**
+	 * this.overlayを描画したときの表示倍率
+	 */
+	private float overlayScale;
+
+	/**
+	 * this.overlayを描画したときの表示モード
+	 */
+	private int overlayMode;
+
+	/**
+	 * this.overlayをアンチエイリアスを適用して描画していればtrue
+	 */
+	private boolean overlayAntialias;
+
+	/**
+	 * this.overlayを操作中の簡易な描画で描画していればtrue
+	 */
+	private boolean overlayDraft;
+
+	/**
+	 * this.overlayを描画したときのラベルの設定の版番号
+	 */
+	private int overlayLabelVersion;
+
+	/**
+	 * this.overlayを描画したときの地図データの版番号
+	 */
+	private int overlayDataVersion;
+
+	/**
+	 * ラベルの設定の版番号
+	 * ラベル、縮尺、経度緯度の描画内容が変わる設定を変更するごとに増やします。
+	 */
+	private int labelVersion;
+
+	/**
+	 * 地図データの版番号
+	 * 地図データの読み込みで描画内容が変わるごとに増やします。
+	 */
+	private final AtomicInteger dataVersion = new AtomicInteger();
+
+	/**
+	 * 平行移動したときにthis.baseを再利用する場合はtrue
+	 * システムプロパティ map.scrollBlit にfalseを指定すると、毎回画面全体を描画します。
+	 */
+	private final boolean isScrollBlit = !"false".equals(System.getProperty("map.scrollBlit"));
+
+	/**
+	 * 描画範囲の外側のポリゴンの頂点を除いてから描画する場合はtrue
+	 * システムプロパティ map.clip にfalseを指定すると、頂点数を数えるのみで元のポリゴンを描画します。
+	 */
+	private final boolean isClipping = !"false".equals(System.getProperty("map.clip"));
+
+	/**
+	 * 点にまとめる図形の大きさの閾値（画素）
+	 * 外接長方形の幅と高さがどちらもこれより小さい図形は、点を1つ描画するか、同じ位置に点があれば描画しません。
+	 * システムプロパティ map.cullPixels で変更でき、0を指定すると点にまとめません。
+	 */
+	private final int cullThreshold = Integer.getInteger("map.cullPixels", 1);
+
+	/**
+	 * 点として描画した図形の数の合計
+	 */
+	private final AtomicLong collapsedCount = new AtomicLong();
+
+	/**
+	 * 同じ位置に点を描画済みのため、描画しなかった図形の数の合計
+	 */
+	private final AtomicLong mergedCount = new AtomicLong();
+
+	/**
+	 * 直前のフレームで、点として描画した図形の数
+	 */
+	private long frameCollapsedCount;
+
+	/**
+	 * 直前のフレームで、同じ位置に点を描画済みのため描画しなかった図形の数
+	 */
+	private long frameMergedCount;
+
+	/**
+	 * 描画したポリゴンと折れ線の、頂点を除く前の頂点数の合計
+	 */
+	private final AtomicLong inputVertexCount = new AtomicLong();
 
-	private Polygon[] island;
+	/**
+	 * 描画したポリゴンと折れ線の、Graphics2Dに渡した頂点数の合計
+	 */
+	private final AtomicLong clippedVertexCount = new AtomicLong();
+
+	/**
+	 * 直前のフレームの、頂点を除く前の頂点数
+	 */
+	private long frameInputVertexCount;
+
+	/**
+	 * 直前のフレームで、Graphics2Dに渡した頂点数
+	 */
+	private long frameClippedVertexCount;
+
+	/**
+	 * this.baseをずらして再利用した回数
+	 */
+	private long scrollCount;
+
+	/**
+	 * this.baseを画面全体で描画し直した回数
+	 */
+	private long redrawCount;
+
+	/**
+	 * 操作中に1フレームの描画時間として目標とする時間（ナノ秒）
+	 */
+	private static final long FRAME_TARGET = 16000000L;
+
+	/**
+	 * 操作中に簡易な描画を行う場合はtrue
+	 * システムプロパティ map.progressive にfalseを指定すると、操作中も通常どおり描画します。
+	 */
+	private final boolean isProgressive = !"false".equals(System.getProperty("map.progressive"));
+
+	/**
+	 * 操作中の簡易な描画で、キャッシュにないタイルの描画にかける時間の上限（ナノ秒）
+	 * システムプロパティ map.frameBudget でミリ秒単位で変更できます。
+	 */
+	private final long frameBudget = Integer.getInteger("map.frameBudget", 10) * 1000000L;
+
+	/**
+	 * 最後の操作から一定時間後に通常の描画に戻すタイマー
+	 * システムプロパティ map.settleDelay でミリ秒単位で待ち時間を変更できます。
+	 */
+	private final Timer settleTimer;
+
+	/**
+	 * 操作が落ち着いていればtrue（falseの間は簡易な描画を行う）
+	 */
+	private boolean isSettled = true;
+
+	/**
+	 * 操作中の簡易な描画のフレーム数
+	 */
+	private int draftFrameCount;
+
+	/**
+	 * 操作中の簡易な描画のフレームの描画時間の合計（ナノ秒）
+	 */
+	private long draftFrameTotal;
+
+	/**
+	 * 操作中の簡易な描画のフレームの描画時間の最大値（ナノ秒）
+	 */
+	private long draftFrameMax;
+
+	/**
+	 * 操作中の簡易な描画のフレームのうち、目標の時間を超えたフレーム数
+	 */
+	private int draftFrameOver;
+
+	/**
+	 * 時間の上限を超えたため、次のフレームに回したタイルの数
+	 */
+	private long deferredCount;
+
+	/**
+	 * 現在のフレームで、キャッシュにないタイルを1回以上描画していればtrue
+	 */
+	private boolean isBatchRendered;
+
+	/**
+	 * キャッシュにないタイルをまとめて描画するのにかかる時間の見積もり（ナノ秒）
+	 * 期限までにこの時間が残っていなければ、描画を次のフレームに回します。
+	 * 1つも描画できないフレームが続かないよう、描画を見送るだけのフレームごとに短くします。
+	 */
+	private long batchTime;
+
+	/**
+	 * 操作中の簡易な描画のフレームで作成したStrokeと文字列の輪郭の数
+	 */
+	private long draftResourceCount;
+
+	/**
+	 * 操作中の簡易な描画のフレームの、頂点を除く前の頂点数
+	 */
+	private long draftInputVertexCount;
+
+	/**
+	 * 操作中の簡易な描画のフレームで、Graphics2Dに渡した頂点数
+	 */
+	private long draftClippedVertexCount;
+
+	/**
+	 * 操作中の簡易な描画のフレームで、点にまとめた図形の数
+	 */
+	private long draftCulledCount;
+
+	/**
+	 * 直前のフレームで作成したStrokeと文字列の輪郭の数
+	 */
+	private long frameResourceCount;
+
+	/**
+	 * 海と陸地（世界地図、都道府県、市区町村、湖、島）の描画層
+	 */
+	private static final int LAYER_GROUND = 0;
+
+	/**
+	 * バス路線の描画層
+	 */
+	private static final int LAYER_BUS = 1;
+
+	/**
+	 * 鉄道路線の描画層
+	 */
+	private static final int LAYER_RAIL = 2;
+
+	/**
+	 * 駅の描画層
+	 */
+	private static final int LAYER_STATION = 3;
+
+	/**
+	 * 描画層の数
+	 * 描画層ごとにタイルをキャッシュし、表示する描画層のタイルを順に重ねます。
+	 * 描画層の表示を切り替えても、ほかの描画層のタイルは描画し直しません。
+	 */
+	private static final int LAYER_COUNT = 4;
+
+	/**
+	 * 描画設定の版番号
+	 * タイルの描画内容が変わる設定を変更するごとに増やします。
+	 */
+	private int styleVersion;
 	
 	/**
 	 * 地図の表示倍率
@@ -213,6 +584,36 @@ public class MapPanel extends ExportableComponent implements Printable {
 
 	private final int STROKE_JOIN = BasicStroke.JOIN_ROUND;
 
+	/**
+	 * 市区町村の境界の線の種類
+	 */
+	private static final int LINE_GROUND = 0;
+
+	/**
+	 * バス路線の線の種類
+	 */
+	private static final int LINE_ROAD = 1;
+
+	/**
+	 * 鉄道路線の線の種類
+	 */
+	private static final int LINE_RAIL = 2;
+
+	/**
+	 * JRの破線の線の種類
+	 */
+	private static final int LINE_JR_DASH = 3;
+
+	/**
+	 * 駅の線の種類
+	 */
+	private static final int LINE_STATION = 4;
+
+	/**
+	 * 線の種類（LINE_*）ごとのStrokeのキャッシュ
+	 */
+	private final StrokeCache strokes = new StrokeCache(new float[]{0.5f, 1, 3, 2, 5}, new float[]{0, 0, 0, 6, 0}, this.STROKE_CAP, this.STROKE_JOIN);
+
 
 	/**
 	 * 世界地図の標準範囲
@@ -235,17 +636,27 @@ public class MapPanel extends ExportableComponent implements Printable {
 
 		this.screen = new Rectangle();
 		this.labeling = new SimpleLabeling(this.screen);
+		int capacity = Integer.getInteger("map.tileCache", DEFAULT_TILE_CACHE);
+		this.tiles = capacity > 0 ? new TileCache(capacity) : null;
+		int parallelism = Integer.getInteger("map.renderThreads", Runtime.getRuntime().availableProcessors());
+		this.renderPool = (this.tiles != null && parallelism > 1) ? new ForkJoinPool(parallelism) : null;
+		this.settleTimer = new Timer(Integer.getInteger("map.settleDelay", 150), new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				MapPanel.this.settle();
+			}
+		});
+		this.settleTimer.setRepeats(false);
 		this.setDefaultStyle();
 	}
 	
 	/**
 	 * 地図の描画
+	 * 印刷やエクスポートでは、タイルを使わずに表示範囲全体を描画します。
 	 * @param g
 	 */
 	@Override
 	public void draw(Graphics2D g) {
-		
-		this.labeling.init(g, this.scale, this.getWidth(), this.getHeight());
+		long start = System.nanoTime();
 
 		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, (!this.isOperation && this.isAntialiasing) ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
 
@@ -253,140 +664,731 @@ public class MapPanel extends ExportableComponent implements Printable {
 
 		int mode = getMode();
 
-		this.labeling.set(MODE_LABEL[mode], 5, 2);
-		this.labeling.set(String.format("SCALE: %.1fµ", (this.scale * 1000 * 1000)), 5, 17);
-
 		g.setColor(this.COLOR_SEA);
 		g.fillRect(0, 0, this.getWidth(), this.getHeight());
 
 		this.trans.setTransform(scale, 0, 0, - scale, - scale * this.screen.x, this.screen.y * this.scale + this.getHeight());
 		g.setTransform(this.trans);
 
-		if (mode == 0) {
-			this.fillPolygonWorld(g, this.world[0]);
-			this.fillPolygonWorld(g, this.world[1]);
-		} else if (mode == 1) {
+		this.drawLayers(g, this.screen, mode, this.getVisibleLayers(mode, false), false);
 
-			this.fillPolygonWorld(g, this.world[0]);
+		g.setStroke(defaultStroke);
+		this.drawOverlay(g, mode, false);
+		this.drawTime = System.nanoTime() - start;
+	}
 
-			//this.fillPolygon(g, this.japan, COLOR_GROUND, COLOR_GROUND_BORDER);
-			for (int i = 0; i < this.prefectures.length; i++) {
-				this.fillPrefectures(g, this.maps.getPrefecture(i), this.prefectures[i]);
+	/**
+	 * 画面に地図を描画します。
+	 * ラベルなどを除いた地図はthis.baseに描画し、ラベルなどは画面全体に重ねて描画します。
+	 * 直前の描画から平行移動しただけであれば、this.baseを移動量だけずらし、新たに表示される範囲のみを描画します。
+	 * @param g
+	 */
+	private void paintMap(Graphics2D g) {
+		long start = System.nanoTime();
+		long resources = this.getResourceCreateCount();
+		long inputVertices = this.inputVertexCount.get();
+		long clippedVertices = this.clippedVertexCount.get();
+		long collapsed = this.collapsedCount.get();
+		long merged = this.mergedCount.get();
+
+		int mode = this.getMode();
+		boolean isDraft = this.isProgressive && !this.isSettled;
+		boolean isAntialias = !this.isOperation && !isDraft && this.isAntialiasing;
+		long deadline = isDraft ? start + this.frameBudget : Long.MAX_VALUE;
+		this.isBatchRendered = false;
+		int layers = this.getVisibleLayers(mode, isDraft);
+		int width = this.getWidth();
+		int height = this.getHeight();
+
+		// 画素の位置は、経度・緯度に倍率をかけた座標（Y軸は下向き）で揃える
+		int left = (int) Math.floor(this.screen.x * (double) this.scale);
+		int top = (int) Math.floor(-this.screen.y * (double) this.scale) - height;
+		int version = this.dataVersion.get();
+
+		if (this.base == null || this.base.getWidth() != width || this.base.getHeight() != height) {
+			this.base = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			this.isBaseValid = false;
+		}
+		Graphics2D bg = this.base.createGraphics();
+		boolean isComplete = true;
+		int dx = left - this.baseLeft;
+		int dy = top - this.baseTop;
+		// 操作中の簡易な描画では、通常の描画で作ったthis.baseもずらして再利用する
+		boolean isSameQuality = isDraft || (this.baseLayers == layers && this.baseAntialias == isAntialias && !this.baseDraft);
+		if (this.isScrollBlit && this.isBaseValid && this.baseScale == this.scale && this.baseStyle == this.styleVersion
+				&& this.baseMode == mode && isSameQuality && this.baseDataVersion == version
+				&& Math.abs(dx) < width && Math.abs(dy) < height) {
+			Rectangle[] pending = this.pendingTiles.toArray(new Rectangle[this.pendingTiles.size()]);
+			this.pendingTiles.clear();
+			if (dx != 0 || dy != 0) {
+				int w = width - Math.abs(dx);
+				int h = height - Math.abs(dy);
+				bg.copyArea(Math.max(dx, 0), Math.max(dy, 0), w, h, -dx, -dy);
+				// 新たに表示される範囲は、左右の帯と、残りの上下の帯のL字型になる
+				if (dx != 0) {
+					isComplete &= this.drawBase(bg, new Rectangle(dx > 0 ? w : 0, 0, Math.abs(dx), height), left, top, mode, layers, isAntialias, isDraft, deadline);
+				}
+				if (dy != 0) {
+					isComplete &= this.drawBase(bg, new Rectangle(dx < 0 ? -dx : 0, dy > 0 ? h : 0, w, Math.abs(dy)), left, top, mode, layers, isAntialias, isDraft, deadline);
+				}
+			}
+			// 前のフレームで描画を見送ったタイルのうち、まだ表示されているものを描画する
+			Rectangle view = new Rectangle(0, 0, width, height);
+			for (Rectangle tile : pending) {
+				Rectangle region = view.intersection(new Rectangle(tile.x - left, tile.y - top, tile.width, tile.height));
+				if (!region.isEmpty()) {
+					isComplete &= this.drawBase(bg, region, left, top, mode, layers, isAntialias, isDraft, deadline);
+				}
 			}
-			this.fillPolygon(g, this.lake, this.COLOR_SEA, this.COLOR_SEA_BORDER);
-			this.fillPolygon(g, this.island, this.COLOR_GROUND, this.COLOR_GROUND_BORDER);
+			this.scrollCount++;
 		} else {
-			float w1 = 3 / this.scale;
-			float w2 = 2 / this.scale;
-			float w5 = 1 / this.scale;
-			
-			Stroke roadStroke = new BasicStroke(w5, this.STROKE_CAP, this.STROKE_JOIN);
+			this.pendingTiles.clear();
+			isComplete = this.drawBase(bg, new Rectangle(0, 0, width, height), left, top, mode, layers, isAntialias, isDraft, deadline);
+			this.redrawCount++;
+		}
+		bg.dispose();
+		// 描画を見送ったタイルは海の色で塗りつぶしてあるため、次のフレームでもthis.baseをずらして再利用する
+		if (!this.isBatchRendered && !isComplete) {
+			this.batchTime -= this.batchTime >> 2;
+		}
+		this.isBaseValid = true;
+		this.baseLeft = left;
+		this.baseTop = top;
+		this.baseScale = this.scale;
+		this.baseStyle = this.styleVersion;
+		this.baseMode = mode;
+		this.baseLayers = layers;
+		this.baseAntialias = isAntialias;
+		this.baseDraft = isDraft;
+		this.baseDataVersion = version;
+
+		g.drawImage(this.base, 0, 0, null);
+
+		// ラベルなどは、表示範囲とラベルの設定が変わらなければ前回の画像を重ねる
+		if (this.overlay == null || this.overlay.getWidth() != width || this.overlay.getHeight() != height) {
+			this.overlay = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+			this.isOverlayValid = false;
+		}
+		boolean isOverlayChanged = !this.isOverlayValid || this.overlayLeft != left || this.overlayTop != top || this.overlayScale != this.scale
+				|| this.overlayMode != mode || this.overlayAntialias != isAntialias || this.overlayDraft != isDraft
+				|| this.overlayLabelVersion != this.labelVersion || this.overlayDataVersion != version;
+		if (isOverlayChanged && isDraft) {
+			// 操作中は表示範囲がフレームごとに変わり、ラベルも配置しないため、
+			// 画面全体の透明な画像を消去して重ねる代わりに、縮尺などを画面に直接描画する
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+			this.trans.setTransform(this.scale, 0, 0, -this.scale, -left, -top);
+			this.drawOverlay(g, mode, isDraft);
+			this.isOverlayValid = false;
+		} else if (isOverlayChanged) {
+			Graphics2D og = this.overlay.createGraphics();
+			og.setComposite(AlphaComposite.Clear);
+			og.fillRect(0, 0, width, height);
+			og.setComposite(AlphaComposite.SrcOver);
+			og.setRenderingHint(RenderingHints.KEY_ANTIALIASING, isAntialias ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+			this.trans.setTransform(this.scale, 0, 0, -this.scale, -left, -top);
+			this.drawOverlay(og, mode, isDraft);
+			og.dispose();
+			this.isOverlayValid = true;
+			this.overlayLeft = left;
+			this.overlayTop = top;
+			this.overlayScale = this.scale;
+			this.overlayMode = mode;
+			this.overlayAntialias = isAntialias;
+			this.overlayDraft = isDraft;
+			this.overlayLabelVersion = this.labelVersion;
+			this.overlayDataVersion = version;
+		}
+		if (this.isOverlayValid) {
+			g.drawImage(this.overlay, 0, 0, null);
+		}
+		this.drawTime = System.nanoTime() - start;
+		this.frameResourceCount = this.getResourceCreateCount() - resources;
+		this.frameInputVertexCount = this.inputVertexCount.get() - inputVertices;
+		this.frameClippedVertexCount = this.clippedVertexCount.get() - clippedVertices;
+		this.frameCollapsedCount = this.collapsedCount.get() - collapsed;
+		this.frameMergedCount = this.mergedCount.get() - merged;
+		if (isDraft) {
+			this.draftResourceCount += this.frameResourceCount;
+			this.draftInputVertexCount += this.frameInputVertexCount;
+			this.draftClippedVertexCount += this.frameClippedVertexCount;
+			this.draftCulledCount += this.frameCollapsedCount + this.frameMergedCount;
+			this.draftFrameCount++;
+			this.draftFrameTotal += this.drawTime;
+			this.draftFrameMax = Math.max(this.draftFrameMax, this.drawTime);
+			if (this.drawTime > FRAME_TARGET) {
+				this.draftFrameOver++;
+			}
+		}
+		if (!isComplete) {
+			this.isRepaint = true;
+			super.repaint();
+		}
+	}
 
-			Stroke borderStroke = new BasicStroke(w1, this.STROKE_CAP, this.STROKE_JOIN); 
-			Stroke dashStroke = new BasicStroke(w2, this.STROKE_CAP, this.STROKE_JOIN, 10f, new float[]{w2 * 6, w2 * 6}, 0);
+	/**
+	 * ラベルなどを除いた地図を、画面の一部の範囲に描画します。
+	 * タイルを使う場合は範囲と交差するタイルを描画層ごとに並べ、キャッシュにないタイルのみを描画します。
+	 * 期限までに描画できないタイルは海の色で塗りつぶし、this.pendingTilesに追加します。
+	 * @param g 画面の左上を原点とするGraphics2D
+	 * @param region 描画する範囲（画面の画素）
+	 * @param left 画面の左端のX座標（画素）
+	 * @param top 画面の上端のY座標（画素）
+	 * @param mode 表示モード
+	 * @param layers 描画する描画層（1 << LAYER_*の論理和）
+	 * @param isAntialias アンチエイリアスを適用する場合はtrue
+	 * @param isDraft 操作中の簡易な描画の場合はtrue
+	 * @param deadline キャッシュにないタイルの描画を打ち切る時刻（System.nanoTime）
+	 * @return 描画を見送ったタイルがなければtrue
+	 */
+	private boolean drawBase(Graphics2D g, Rectangle region, int left, int top, int mode, int layers, boolean isAntialias, boolean isDraft, long deadline) {
+		g.setClip(region);
+		if (this.tiles == null) {
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, isAntialias ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+			this.renderRegion(g, left, top, region, mode, layers, isDraft);
+			g.setClip(null);
+			return true;
+		}
+		int size = MapPanel.getTileSize(isDraft);
+		int x0 = MapPanel.floorDiv(left + region.x, size);
+		int y0 = MapPanel.floorDiv(top + region.y, size);
+		int x1 = MapPanel.floorDiv(left + region.x + region.width - 1, size);
+		int y1 = MapPanel.floorDiv(top + region.y + region.height - 1, size);
+
+		int[] layer = new int[Integer.bitCount(layers)];
+		for (int l = 0, j = 0; l < LAYER_COUNT; l++) {
+			if ((layers & (1 << l)) != 0) {
+				layer[j++] = l;
+			}
+		}
+		// タイルごとに、描画層の順に並べる
+		int columns = x1 - x0 + 1;
+		int count = columns * (y1 - y0 + 1) * layer.length;
+		TileCache.Key[] keys = new TileCache.Key[count];
+		TileCache.Tile[] tiles = new TileCache.Tile[count];
+		int[] missing = new int[count];
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			int tile = i / layer.length;
+			keys[i] = new TileCache.Key(this.scale, x0 + tile % columns, y0 + tile / columns, layer[i % layer.length], this.styleVersion, isAntialias, isDraft);
+			tiles[i] = this.tiles.get(keys[i]);
+			if (tiles[i] == null) {
+				missing[n++] = i;
+			}
+		}
+		int done = 0;
+		if (n > 0) {
+			int[] generations = this.tiles.getGenerations();
+			// 期限がある場合は並列数ずつ描画し、期限を過ぎたら残りのタイルは次のフレームに回す
+			int batch = n;
+			if (deadline != Long.MAX_VALUE) {
+				batch = this.renderPool == null ? 1 : this.renderPool.getParallelism();
+			}
+			while (done < n) {
+				// 見積もりの時間がかかると期限を過ぎる場合は次のフレームに回す
+				// 見送ったタイルの範囲は、ずらす前の画像か海の色で埋まっているため、フレームの最初でも描画しない
+				long batchStart = System.nanoTime();
+				if (batchStart + this.batchTime >= deadline) {
+					break;
+				}
+				int m = Math.min(batch, n - done);
+				int[] tx = new int[m];
+				int[] ty = new int[m];
+				int[] tl = new int[m];
+				for (int i = 0; i < m; i++) {
+					TileCache.Key key = keys[missing[done + i]];
+					tx[i] = key.x;
+					ty[i] = key.y;
+					tl[i] = key.layer;
+				}
+				TileCache.Tile[] rendered = this.renderTiles(this.renderPool, tx, ty, tl, mode, isAntialias, isDraft);
+				for (int i = 0; i < m; i++) {
+					tiles[missing[done + i]] = rendered[i];
+					this.tiles.put(keys[missing[done + i]], rendered[i], generations);
+				}
+				done += m;
+				this.isBatchRendered = true;
+				// 見積もりより遅ければすぐに延ばし、速ければ直前の見積もりと平均して少しずつ縮める
+				long time = System.nanoTime() - batchStart;
+				this.batchTime = time > this.batchTime ? time : (this.batchTime + time) / 2;
+			}
+			this.deferredCount += n - done;
+		}
+		g.setColor(this.COLOR_SEA);
+		for (int i = 0; i < count; i++) {
+			int x = keys[i].x * size - left;
+			int y = keys[i].y * size - top;
+			if (tiles[i] != null) {
+				g.drawImage(tiles[i].image, x, y, null);
+			} else {
+				if (keys[i].layer == LAYER_GROUND) {
+					g.fillRect(x, y, size, size);
+				}
+				Rectangle tile = new Rectangle(x + left, y + top, size, size);
+				if (!this.pendingTiles.contains(tile)) {
+					this.pendingTiles.add(tile);
+				}
+			}
+		}
+		g.setClip(null);
+		return done == n;
+	}
 
-			g.setStroke(new BasicStroke(0.5f / this.scale, this.STROKE_CAP, this.STROKE_JOIN));
+	/**
+	 * 表示する描画層を返します。
+	 * @param mode 表示モード
+	 * @param isDraft 操作中の簡易な描画の場合はtrue
+	 * @return 表示する描画層（1 << LAYER_*の論理和）
+	 */
+	private int getVisibleLayers(int mode, boolean isDraft) {
+		int layers = 1 << LAYER_GROUND;
+		if (this.isBusVisible && mode >= 3 && !isDraft) {
+			layers |= 1 << LAYER_BUS;
+		}
+		if (this.isRailwayVisible && mode >= 2) {
+			layers |= 1 << LAYER_RAIL;
+			if (this.isStationVisible) {
+				layers |= 1 << LAYER_STATION;
+			}
+		}
+		return layers;
+	}
 
-			for (PrefectureDataset data : this.maps.getPrefectureDatas()) {
-				if (data != null && this.screen.intersects(data.getBounds())) {
+	/**
+	 * 複数のタイルを描画します。
+	 * スレッドプールがあれば、タイルごとに別のGraphics2Dで並列に描画します。
+	 * @param pool スレッドプール（1つずつ描画する場合はnull）
+	 * @param tx X方向のタイル番号
+	 * @param ty Y方向のタイル番号
+	 * @param layer 描画層
+	 * @param mode 表示モード
+	 * @param isAntialias アンチエイリアスを適用する場合はtrue
+	 * @param isDraft 操作中の簡易な描画の場合はtrue
+	 * @return 描画したタイル
+	 */
+	private TileCache.Tile[] renderTiles(ForkJoinPool pool, final int[] tx, final int[] ty, final int[] layer, final int mode, final boolean isAntialias, final boolean isDraft) {
+		final TileCache.Tile[] tiles = new TileCache.Tile[tx.length];
+		if (pool == null || tx.length == 1) {
+			for (int i = 0; i < tx.length; i++) {
+				tiles[i] = this.renderTile(tx[i], ty[i], layer[i], mode, isAntialias, isDraft);
+			}
+		} else {
+			pool.invoke(new RenderAction(tiles, tx, ty, layer, mode, isAntialias, isDraft, 0, tx.length));
+		}
+		return tiles;
+	}
+
+	/**
+	 * タイルを分割して並列に描画するタスク
+	 */
+	private class RenderAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final TileCache.Tile[] tiles;
+		private final int[] tx;
+		private final int[] ty;
+		private final int[] layer;
+		private final int mode;
+		private final boolean isAntialias;
+		private final boolean isDraft;
+		private final int from;
+		private final int to;
+
+		RenderAction(TileCache.Tile[] tiles, int[] tx, int[] ty, int[] layer, int mode, boolean isAntialias, boolean isDraft, int from, int to) {
+			this.tiles = tiles;
+			this.tx = tx;
+			this.ty = ty;
+			this.layer = layer;
+			this.mode = mode;
+			this.isAntialias = isAntialias;
+			this.isDraft = isDraft;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from == 1) {
+				this.tiles[this.from] = MapPanel.this.renderTile(this.tx[this.from], this.ty[this.from], this.layer[this.from], this.mode, this.isAntialias, this.isDraft);
+			} else {
+				int mid = (this.from + this.to) >>> 1;
+				RecursiveAction.invokeAll(new RenderAction(this.tiles, this.tx, this.ty, this.layer, this.mode, this.isAntialias, this.isDraft, this.from, mid),
+						new RenderAction(this.tiles, this.tx, this.ty, this.layer, this.mode, this.isAntialias, this.isDraft, mid, this.to));
+			}
+		}
+	}
+
+	/**
+	 * 表示範囲のタイルを1つずつ描画した結果と並列に描画した結果を比較し、並列数ごとの描画時間を出力します。
+	 * 表示するすべての描画層のタイルを、キャッシュを使わずに描画します。
+	 * @param maxParallelism 並列数の上限（1から2倍ずつ増やして計測する）
+	 * @return すべての並列数で1つずつ描画した結果と画素が一致すればtrue
+	 */
+	public boolean benchmarkTiles(int maxParallelism) {
+		int mode = this.getMode();
+		boolean isAntialias = this.isAntialiasing;
+		int layers = this.getVisibleLayers(mode, false);
+		int left = (int) Math.floor(this.screen.x * (double) this.scale);
+		int top = (int) Math.floor(-this.screen.y * (double) this.scale) - this.getHeight();
+		int x0 = MapPanel.floorDiv(left, TILE_SIZE);
+		int y0 = MapPanel.floorDiv(top, TILE_SIZE);
+		int columns = MapPanel.floorDiv(left + this.getWidth() - 1, TILE_SIZE) - x0 + 1;
+		int rows = MapPanel.floorDiv(top + this.getHeight() - 1, TILE_SIZE) - y0 + 1;
+		int count = columns * rows * Integer.bitCount(layers);
+		int[] tx = new int[count];
+		int[] ty = new int[count];
+		int[] tl = new int[count];
+		int i = 0;
+		for (int tile = 0; tile < columns * rows; tile++) {
+			for (int l = 0; l < LAYER_COUNT; l++) {
+				if ((layers & (1 << l)) != 0) {
+					tx[i] = x0 + tile % columns;
+					ty[i] = y0 + tile / columns;
+					tl[i] = l;
+					i++;
+				}
+			}
+		}
+		// 最初の描画は実行時コンパイルの影響を受けるため、計測しない
+		this.renderTiles(null, tx, ty, tl, mode, isAntialias, false);
+		long start = System.nanoTime();
+		TileCache.Tile[] expected = this.renderTiles(null, tx, ty, tl, mode, isAntialias, false);
+		long serial = System.nanoTime() - start;
+		Log.out(this, count + " tiles, serial " + (serial / 1000000) + "ms");
+		boolean isIdentical = true;
+		for (int parallelism = 1; parallelism <= maxParallelism; parallelism <<= 1) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			try {
+				start = System.nanoTime();
+				TileCache.Tile[] actual = this.renderTiles(pool, tx, ty, tl, mode, isAntialias, false);
+				long time = System.nanoTime() - start;
+				boolean isSame = true;
+				for (int k = 0; k < count && isSame; k++) {
+					int[] a = expected[k].image.getRGB(0, 0, TILE_SIZE, TILE_SIZE, null, 0, TILE_SIZE);
+					int[] b = actual[k].image.getRGB(0, 0, TILE_SIZE, TILE_SIZE, null, 0, TILE_SIZE);
+					isSame = Arrays.equals(a, b);
+				}
+				isIdentical &= isSame;
+				Log.out(this, "parallelism " + parallelism + ": " + (time / 1000000) + "ms, speedup " + String.format("%.2f", (double) serial / time) + (isSame ? "" : ", MISMATCH"));
+			} finally {
+				pool.shutdown();
+			}
+		}
+		return isIdentical;
+	}
+
+	/**
+	 * タイルを1つずつ描画した結果と並列に描画した結果を比較し、並列数ごとの描画時間を出力します。
+	 * 世界地図と都道府県界を読み込み、日本全体を表示する表示モード0と、その中心を拡大した表示モード1で計測します。
+	 * 国土数値情報は読み込まないため、地図データ管理クラスなしで実行できます。
+	 * @param args [0] 並列数の上限（省略時はプロセッサ数）, [1] 画面の幅, [2] 画面の高さ
+	 */
+	public static void main(String[] args) {
+		int maxParallelism = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int width = args.length > 1 ? Integer.parseInt(args[1]) : 1280;
+		int height = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+		MapPanel panel = new MapPanel();
+		panel.setSize(width, height);
+		panel.initPolygons(MapDataManager.getWorldPolygonLevels(2), MapDataManager.getPrefecturePolygonLevels(MapMode.getModeCount()));
+		panel.moveDefault();
+		boolean isIdentical = true;
+		for (int mode = 0; mode <= 1; mode++) {
+			while (panel.getMode() < mode) {
+				panel.zoom(width / 2, height / 2, 1);
+			}
+			Log.out(MapPanel.class, "mode " + mode + ", scale " + panel.scale + ", " + width + "x" + height);
+			isIdentical &= panel.benchmarkTiles(maxParallelism);
+		}
+		panel.settleTimer.stop();
+		if (panel.renderPool != null) {
+			panel.renderPool.shutdown();
+		}
+		if (!isIdentical) {
+			throw new IllegalStateException("parallel tiles differ from serial tiles");
+		}
+	}
+
+	/**
+	 * タイルの1辺の画素数を返します。
+	 * @param isDraft 操作中の簡易な描画の場合はtrue
+	 * @return タイルの1辺の画素数
+	 */
+	private static int getTileSize(boolean isDraft) {
+		return isDraft ? DRAFT_TILE_SIZE : TILE_SIZE;
+	}
+
+	private static int floorDiv(int x, int y) {
+		int q = x / y;
+		return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+	}
+
+	/**
+	 * タイルを描画します。
+	 * 海と陸地の描画層は不透明な画像に、そのほかの描画層は透明な画像に描画し、重ねて表示します。
+	 * @param tx X方向のタイル番号
+	 * @param ty Y方向のタイル番号
+	 * @param layer 描画層
+	 * @param mode 表示モード
+	 * @param isAntialias アンチエイリアスを適用する場合はtrue
+	 * @param isDraft 操作中の簡易な描画の場合はtrue
+	 * @return 描画したタイル
+	 */
+	private TileCache.Tile renderTile(int tx, int ty, int layer, int mode, boolean isAntialias, boolean isDraft) {
+		int size = MapPanel.getTileSize(isDraft);
+		BufferedImage image = new BufferedImage(size, size, layer == LAYER_GROUND ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, isAntialias ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+		Rectangle area = this.renderRegion(g, tx * size, ty * size, new Rectangle(0, 0, size, size), mode, 1 << layer, isDraft);
+		g.dispose();
+		return new TileCache.Tile(image, area);
+	}
+
+	/**
+	 * 画素の範囲に、ラベルなどを除いた地図を描画します。
+	 * @param g 描画するGraphics2D
+	 * @param originX gの原点のX座標（経度に倍率をかけた画素）
+	 * @param originY gの原点のY座標（緯度に倍率をかけ、Y軸を下向きにした画素）
+	 * @param region 描画する範囲（gの座標系の画素）
+	 * @param mode 表示モード
+	 * @param layers 描画する描画層（1 << LAYER_*の論理和）
+	 * @param isDraft 操作中の簡易な描画の場合はtrue
+	 * @return 図形を探した範囲（緯度経度座標系）
+	 */
+	private Rectangle renderRegion(Graphics2D g, int originX, int originY, Rectangle region, int mode, int layers, boolean isDraft) {
+		AffineTransform transform = g.getTransform();
+		Stroke stroke = g.getStroke();
+		if ((layers & (1 << LAYER_GROUND)) != 0) {
+			g.setColor(this.COLOR_SEA);
+			g.fill(region);
+		}
+
+		double scale = this.scale;
+		g.setTransform(new AffineTransform(scale, 0, 0, -scale, -(double) originX, -(double) originY));
+
+		// 線の太さの分だけ広げた範囲と交差する図形を描画する
+		double x = ((double) originX + region.x - TILE_MARGIN) / scale;
+		double y = -((double) originY + region.y + region.height + TILE_MARGIN) / scale;
+		double width = (region.width + TILE_MARGIN * 2) / scale;
+		double height = (region.height + TILE_MARGIN * 2) / scale;
+		Rectangle area = new Rectangle((int) Math.floor(x), (int) Math.floor(y), (int) Math.ceil(width) + 1, (int) Math.ceil(height) + 1);
+		this.drawLayers(g, area, mode, layers, isDraft);
+		g.setTransform(transform);
+		g.setStroke(stroke);
+		return area;
+	}
+
+	/**
+	 * 地図の図形を描画層の順に描画します。
+	 * ラベルは描画しないため、タイルごとに描画できます。
+	 * 操作中の簡易な描画では、1つ小さい表示モードの簡略化したポリゴンを使い、市区町村の境界、バス路線、JRの破線を省きます。
+	 * @param g 経度・緯度から画素への変換を設定したGraphics2D
+	 * @param area 描画範囲（緯度経度座標系）
+	 * @param mode 表示モード
+	 * @param layers 描画する描画層（1 << LAYER_*の論理和）
+	 * @param isDraft 操作中の簡易な描画の場合はtrue
+	 */
+	private void drawLayers(Graphics2D g, Rectangle area, int mode, int layers, boolean isDraft) {
+		FeatureCuller culler = new FeatureCuller(area, this.scale, this.cullThreshold);
+		if ((layers & (1 << LAYER_GROUND)) != 0) {
+			// 頂点を除いた代わりの辺が見えないように、線の太さの分だけ広げた範囲の外側の頂点を除く
+			Rectangle clip = new Rectangle(area);
+			int margin = (int) Math.ceil(TILE_MARGIN / this.scale);
+			clip.grow(margin, margin);
+			PolygonClipper clipper = new PolygonClipper(clip, this.isClipping);
+			this.drawGround(g, area, clipper, culler, mode, isDraft);
+			this.inputVertexCount.addAndGet(clipper.getInputCount());
+			this.clippedVertexCount.addAndGet(clipper.getOutputCount());
+		}
+		if ((layers & (1 << LAYER_BUS)) != 0) {
+			this.drawBus(g, area, culler);
+		}
+		if ((layers & (1 << LAYER_RAIL)) != 0) {
+			this.drawRailway(g, area, culler, isDraft);
+		}
+		if ((layers & (1 << LAYER_STATION)) != 0) {
+			this.drawStation(g, area, culler);
+		}
+		this.collapsedCount.addAndGet(culler.getCollapsedCount());
+		this.mergedCount.addAndGet(culler.getMergedCount());
+	}
+
+	/**
+	 * 海と陸地の描画層を描画します。
+	 * @param g 経度・緯度から画素への変換を設定したGraphics2D
+	 * @param area 描画範囲（緯度経度座標系）
+	 * @param clipper 描画範囲の外側の頂点を除くクラス
+	 * @param culler 小さすぎる図形を点にまとめるクラス
+	 * @param mode 表示モード
+	 * @param isDraft 操作中の簡易な描画の場合はtrue
+	 */
+	private void drawGround(Graphics2D g, Rectangle area, PolygonClipper clipper, FeatureCuller culler, int mode, boolean isDraft) {
+		int level = isDraft ? Math.max(0, mode - 1) : mode;
+		if (mode == 0) {
+			this.fillPolygonWorld(g, this.world[mode][0], this.worldIndex[mode][0], area, clipper, culler);
+			this.fillPolygonWorld(g, this.world[mode][1], this.worldIndex[mode][1], area, clipper, culler);
+		} else if (mode == 1) {
+
+			this.fillPolygonWorld(g, this.world[level][0], this.worldIndex[level][0], area, clipper, culler);
+
+			//this.fillPolygon(g, this.japan, COLOR_GROUND, COLOR_GROUND_BORDER);
+			g.setColor(this.COLOR_GROUND);
+			culler.reset();
+			this.prefectures.fill(g, area, clipper, culler);
+			g.setColor(this.COLOR_GROUND_BORDER);
+			culler.reset();
+			this.prefectures.stroke(g, area, clipper, culler);
+			this.fillPolygon(g, this.lake[level], this.COLOR_SEA, this.COLOR_SEA_BORDER, area, clipper, culler);
+			this.fillPolygon(g, this.island[level], this.COLOR_GROUND, this.COLOR_GROUND_BORDER, area, clipper, culler);
+		} else {
+			g.setStroke(this.strokes.get(this.scale, LINE_GROUND));
+
+			for (int i = 0; i < this.maps.getPrefectureDatas().length; i++) {
+				Polygon[] polygons = this.maps.getPolygons(i);
+				Rectangle bounds = this.maps.getBounds(i);
+				if (polygons != null && bounds != null && area.intersects(bounds)) {
+					int[] visible = MapPanel.search(polygons, this.maps.getPolygonIndex(i, polygons), area);
 					g.setColor(COLOR_GROUND);
-					for (Polygon p : data.getPolygons()) {
-						if (this.screen.intersects(p.getBounds())) {
-							g.fillPolygon(p);
-						}
+					MapPanel.fillPolygons(g, polygons, visible, clipper, culler, !isDraft);
+					if (isDraft) {
+						continue;
 					}
 					g.setColor(COLOR_GROUND_BORDER);
-					for (Polygon p : data.getPolygons()) {
-						if (this.screen.intersects(p.getBounds())) {
-							g.drawPolygon(p);
-						}
-					}
+					MapPanel.drawPolygons(g, polygons, visible, clipper, culler);
 				}
 			}
 
-			this.fillPolygon(g, this.lake, this.COLOR_SEA, this.COLOR_SEA_BORDER);
-			this.fillPolygon(g, this.island, this.COLOR_GROUND, this.COLOR_GROUND_BORDER);
-
-			if (this.isBusVisible && mode >= 3) {
-				g.setColor(COLOR_ROAD);
-				g.setStroke(roadStroke);
-				for (PrefectureDataset data : this.maps.getPrefectureDatas()) {
-					if (data != null && this.screen.intersects(data.getBounds())) {
-						BusDataset bus = data.getBusDataset();
-						if (bus != null) {
-							for (BusRoute route : bus.getBusRoute()) {
-								if (this.screen.intersects(route.getBounds())) {
-									route.draw(g);
-								}
-							}
-							if (this.isBusLabelVisible) {
-								this.labeling.add(bus.getBusStops());
+			this.fillPolygon(g, this.lake[level], this.COLOR_SEA, this.COLOR_SEA_BORDER, area, clipper, culler);
+			this.fillPolygon(g, this.island[level], this.COLOR_GROUND, this.COLOR_GROUND_BORDER, area, clipper, culler);
+		}
+	}
+
+	/**
+	 * バス路線の描画層を描画します。
+	 * @param g 経度・緯度から画素への変換を設定したGraphics2D
+	 * @param area 描画範囲（緯度経度座標系）
+	 * @param culler 小さすぎる図形を点にまとめるクラス
+	 */
+	private void drawBus(Graphics2D g, Rectangle area, FeatureCuller culler) {
+		g.setColor(COLOR_ROAD);
+		g.setStroke(this.strokes.get(this.scale, LINE_ROAD));
+		culler.reset();
+		for (PrefectureDataset data : this.maps.getPrefectureDatas()) {
+			if (data != null && area.intersects(data.getBounds())) {
+				BusDataset bus = data.getBusDataset();
+				if (bus != null) {
+					for (BusRoute route : bus.getBusRoute()) {
+						Rectangle bounds = route.getBounds();
+						if (area.intersects(bounds)) {
+							if (culler.isSmall(bounds)) {
+								culler.fill(g, bounds, 1);
+							} else {
+								route.draw(g);
 							}
 						}
 					}
 				}
 			}
-			
-			if (mode >= 2) {
-				RailwayDataset railway = this.maps.getRailwayCollection();
-				Station[] stations = railway.getStations();
-				
-				if (this.isRailwayVisible) {
-					
-					//float w3 = 7 / this.scale;
-					float w4 = 5 / this.scale;
-
-					for (RailroadLine line : railway.getOtherLines()) {
-						for (GmlCurve curve : line.getCurves()) {
-							if (this.screen.intersects(curve.getBounds())) {
-								g.setStroke(borderStroke);
-								g.setColor(COLOR_OTHER_RAIL);
-								curve.draw(g);
-							}
-						}
+		}
+	}
+
+	/**
+	 * 鉄道路線の描画層を描画します。
+	 * @param g 経度・緯度から画素への変換を設定したGraphics2D
+	 * @param area 描画範囲（緯度経度座標系）
+	 * @param culler 小さすぎる図形を点にまとめるクラス
+	 * @param isDraft 操作中の簡易な描画の場合はtrue
+	 */
+	private void drawRailway(Graphics2D g, Rectangle area, FeatureCuller culler, boolean isDraft) {
+		Stroke borderStroke = this.strokes.get(this.scale, LINE_RAIL);
+		Stroke dashStroke = this.strokes.get(this.scale, LINE_JR_DASH);
+
+		RailwayDataset railway = this.maps.getRailwayCollection();
+		culler.reset();
+		for (RailroadLine line : railway.getOtherLines()) {
+			for (GmlCurve curve : line.getCurves()) {
+				Rectangle bounds = curve.getBounds();
+				if (area.intersects(bounds)) {
+					g.setColor(COLOR_OTHER_RAIL);
+					if (culler.isSmall(bounds)) {
+						culler.fill(g, bounds, 3);
+						continue;
 					}
+					g.setStroke(borderStroke);
+					curve.draw(g);
+				}
+			}
+		}
 
-					for (RailroadLine line : railway.getJrLines()) {
-						for (GmlCurve curve : line.getCurves()) {
-							if (this.screen.intersects(curve.getBounds())) {
-								g.setStroke(borderStroke);
-								g.setColor(COLOR_RAILBASE);
-								curve.draw(g);
+		culler.reset();
+		for (RailroadLine line : railway.getJrLines()) {
+			for (GmlCurve curve : line.getCurves()) {
+				Rectangle bounds = curve.getBounds();
+				if (area.intersects(bounds)) {
+					if (culler.isSmall(bounds)) {
+						// 破線の最初の実線の部分より短いため、白い点を重ねる
+						if (culler.mark(bounds)) {
+							g.setColor(COLOR_RAILBASE);
+							culler.fill(g, bounds, 3, false);
+							if (!isDraft) {
 								g.setColor(Color.WHITE);
-								g.setStroke(dashStroke);
-								curve.draw(g);
+								culler.fill(g, bounds, 2, true);
 							}
 						}
+						continue;
 					}
-
-					if (this.isStationVisible) {
-						g.setColor(this.COLOR_STATION);
-						g.setStroke(new BasicStroke(w4, this.STROKE_CAP, this.STROKE_JOIN));
-						for (Station station : stations) {
-							if (this.screen.intersects(station.getBounds())) {
-								station.draw(g);
-							}
-						}
-						if (this.isStationLabelVisible) {
-							this.labeling.add(stations);
-						}
+					g.setStroke(borderStroke);
+					g.setColor(COLOR_RAILBASE);
+					curve.draw(g);
+					if (isDraft) {
+						continue;
 					}
+					g.setColor(Color.WHITE);
+					g.setStroke(dashStroke);
+					curve.draw(g);
 				}
-				if (this.isCityLabelVisible) {
-					for (PrefectureDataset data : this.maps.getPrefectureDatas()) {
-						if (data != null && this.screen.intersects(data.getBounds())) {
-							CityAreas[] areas = data.getAreas();
-							if (areas != null) {
-								this.labeling.add(areas);
-							}
-						}
-					}
+			}
+		}
+	}
+
+	/**
+	 * 駅の描画層を描画します。
+	 * @param g 経度・緯度から画素への変換を設定したGraphics2D
+	 * @param area 描画範囲（緯度経度座標系）
+	 * @param culler 小さすぎる図形を点にまとめるクラス
+	 */
+	private void drawStation(Graphics2D g, Rectangle area, FeatureCuller culler) {
+		g.setColor(this.COLOR_STATION);
+		g.setStroke(this.strokes.get(this.scale, LINE_STATION));
+		culler.reset();
+		for (Station station : this.maps.getRailwayCollection().getStations()) {
+			Rectangle bounds = station.getBounds();
+			if (area.intersects(bounds)) {
+				if (culler.isSmall(bounds)) {
+					culler.fill(g, bounds, 5);
+				} else {
+					station.draw(g);
 				}
 			}
 		}
+	}
 
+	/**
+	 * ラベル、縮尺、経度緯度など、画面全体に重ねて描画するものを描画します。
+	 * 経度・緯度から画素への変換はthis.transに設定しておきます。
+	 * @param g
+	 * @param mode 表示モード
+	 * @param isDraft 操作中の簡易な描画の場合はtrue（ラベルを配置しない）
+	 */
+	private void drawOverlay(Graphics2D g, int mode, boolean isDraft) {
 		g.setTransform(DEFAULT_TRANSFORM);
-		g.setStroke(defaultStroke);
+		this.labeling.init(g, this.scale, this.getWidth(), this.getHeight());
+
+		this.labeling.set(MODE_LABEL[mode], 5, 2);
+		this.labeling.set(String.format("SCALE: %.1fµ", (this.scale * 1000 * 1000)), 5, 17);
+
+		if (!isDraft) {
+			g.setTransform(this.trans);
+			this.addLabels(mode);
+			g.setTransform(DEFAULT_TRANSFORM);
+		}
 
 		this.drawRuler(g);
 
@@ -397,6 +1399,97 @@ public class MapPanel extends ExportableComponent implements Printable {
 		this.labeling.draw();
 	}
 
+	/**
+	 * 表示範囲のバス停、駅、市区町村のラベルを配置します。
+	 * @param mode 表示モード
+	 */
+	private void addLabels(int mode) {
+		if (mode < 2) {
+			return;
+		}
+		if (this.isBusVisible && this.isBusLabelVisible && mode >= 3) {
+			for (PrefectureDataset data : this.maps.getPrefectureDatas()) {
+				if (data != null && this.screen.intersects(data.getBounds())) {
+					BusDataset bus = data.getBusDataset();
+					if (bus != null) {
+						this.labeling.add(bus.getBusStops());
+					}
+				}
+			}
+		}
+		if (this.isRailwayVisible && this.isStationVisible && this.isStationLabelVisible) {
+			this.labeling.add(this.maps.getRailwayCollection().getStations());
+		}
+		if (this.isCityLabelVisible) {
+			for (PrefectureDataset data : this.maps.getPrefectureDatas()) {
+				if (data != null && this.screen.intersects(data.getBounds())) {
+					CityAreas[] areas = data.getAreas();
+					if (areas != null) {
+						this.labeling.add(areas);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * これまでに作成したStrokeと文字列の輪郭の数を返します。
+	 * 平行移動を続けている間は、ほとんど増えません。
+	 * @return Strokeと文字列の輪郭の数
+	 */
+	public long getResourceCreateCount() {
+		return this.strokes.getCreateCount() + this.labeling.getGlyphCreateCount();
+	}
+
+	/**
+	 * 直前のフレームで作成したStrokeと文字列の輪郭の数を返します。
+	 * @return Strokeと文字列の輪郭の数
+	 */
+	public long getFrameResourceCount() {
+		return this.frameResourceCount;
+	}
+
+	/**
+	 * 直前のフレームで描画したポリゴンと折れ線の、描画範囲の外側の頂点を除く前の頂点数を返します。
+	 * キャッシュにあるタイルは描画しないため数えません。
+	 * @return 頂点数
+	 */
+	public long getFrameInputVertexCount() {
+		return this.frameInputVertexCount;
+	}
+
+	/**
+	 * 直前のフレームで描画したポリゴンと折れ線の、Graphics2Dに渡した頂点数を返します。
+	 * @return 頂点数
+	 */
+	public long getFrameClippedVertexCount() {
+		return this.frameClippedVertexCount;
+	}
+
+	/**
+	 * 直前のフレームで、小さすぎるため点として描画した図形の数を返します。
+	 * @return 図形の数
+	 */
+	public long getFrameCollapsedCount() {
+		return this.frameCollapsedCount;
+	}
+
+	/**
+	 * 直前のフレームで、同じ位置に点を描画済みのため描画しなかった図形の数を返します。
+	 * @return 図形の数
+	 */
+	public long getFrameMergedCount() {
+		return this.frameMergedCount;
+	}
+
+	/**
+	 * 直前の描画にかかった時間を返します。
+	 * @return 描画にかかった時間（ナノ秒）
+	 */
+	public long getDrawTime() {
+		return this.drawTime;
+	}
+
 	/**
 	 * 経度緯度を描画します。
 	 * @param g 
@@ -470,68 +1563,102 @@ public class MapPanel extends ExportableComponent implements Printable {
 	 * @param polygons 描画するポリゴン
 	 * @param bg 背景色
 	 * @param line 境界色
+	 * @param area 描画範囲
+	 * @param clipper 描画範囲の外側の頂点を除くクラス
+	 * @param culler 小さすぎるポリゴンを点にまとめるクラス
 	 */
-	private void fillPolygon(Graphics2D g, Polygon[] polygons, Color bg, Color line) {
+	private void fillPolygon(Graphics2D g, Polygon[] polygons, Color bg, Color line, Rectangle area, PolygonClipper clipper, FeatureCuller culler) {
 		if (polygons == null) {
 			return;
 		}
+		int[] visible = BoundsIndex.scan(polygons, area);
 		g.setColor(bg);
-		for (Polygon polygon : polygons) {
-			if(polygon.intersects(this.screen)) {
-				g.fillPolygon(polygon);
-			}
-		}
+		MapPanel.fillPolygons(g, polygons, visible, clipper, culler, true);
 		// 境界を描画つぶします。
 		g.setColor(line);
-		for (Polygon polygon : polygons) {
-			if(polygon.intersects(this.screen)) {
-				g.drawPolygon(polygon);
-			}
-		}
+		MapPanel.drawPolygons(g, polygons, visible, clipper, culler);
 	}
 
 	/**
 	 * ポリゴンを描画します。
 	 * @param g 描画するGraphics2D
 	 * @param polygons 描画するポリゴン
+	 * @param index ポリゴンの空間インデックス
+	 * @param area 描画範囲
+	 * @param clipper 描画範囲の外側の頂点を除くクラス
+	 * @param culler 小さすぎるポリゴンを点にまとめるクラス
 	 */
-	private void fillPolygonWorld(Graphics2D g, Polygon[] polygons) {
+	private void fillPolygonWorld(Graphics2D g, Polygon[] polygons, BoundsIndex index, Rectangle area, PolygonClipper clipper, FeatureCuller culler) {
 		if (polygons == null) {
 			return;
 		}
+		int[] visible = MapPanel.search(polygons, index, area);
 		g.setColor(COLOR_GROUND);
-		for (Polygon polygon : polygons) {
-			if(polygon.intersects(this.screen)) {
-				g.fillPolygon(polygon);
-			}
-		}
+		MapPanel.fillPolygons(g, polygons, visible, clipper, culler, true);
 		g.setColor(this.COLOR_GROUND_BORDER);
-		for (Polygon polygon : polygons) {
-			if(polygon.intersects(this.screen)) {
-				g.drawPolygon(polygon);
+		MapPanel.drawPolygons(g, polygons, visible, clipper, culler);
+	}
+
+	/**
+	 * ポリゴンを塗りつぶします。
+	 * 小さすぎるポリゴンは点として描画します。
+	 * 境界を描画する場合、小さすぎるポリゴンは境界の色の点のみとなるため、塗りつぶしません。
+	 * @param g 描画するGraphics2D
+	 * @param polygons ポリゴン
+	 * @param visible 描画するポリゴンのインデックス
+	 * @param clipper 描画範囲の外側の頂点を除くクラス
+	 * @param culler 小さすぎるポリゴンを点にまとめるクラス
+	 * @param isOutlined 続けて境界を描画する場合はtrue
+	 */
+	private static void fillPolygons(Graphics2D g, Polygon[] polygons, int[] visible, PolygonClipper clipper, FeatureCuller culler, boolean isOutlined) {
+		culler.reset();
+		for (int i : visible) {
+			Rectangle bounds = polygons[i].getBounds();
+			if (culler.isSmall(bounds)) {
+				if (!isOutlined) {
+					culler.fill(g, bounds, 1);
+				}
+				continue;
 			}
+			int n = clipper.clipPolygon(polygons[i]);
+			g.fillPolygon(clipper.getX(), clipper.getY(), n);
 		}
 	}
 
 	/**
-	 * ポリゴンを描画します。
+	 * ポリゴンの境界を描画します。
+	 * 小さすぎるポリゴンは、境界の色の点として描画します。
 	 * @param g 描画するGraphics2D
-	 * @param name 名前
-	 * @param prefecture 描画するポリゴン
+	 * @param polygons ポリゴン
+	 * @param visible 描画するポリゴンのインデックス
+	 * @param clipper 描画範囲の外側の頂点を除くクラス
+	 * @param culler 小さすぎるポリゴンを点にまとめるクラス
 	 */
-	private void fillPrefectures(Graphics2D g, String name, Polygon[] prefecture) {
-		g.setColor(this.COLOR_GROUND);
-		for (Polygon polygon : prefecture) {
-			if(polygon.intersects(this.screen)) {
-				g.fillPolygon(polygon);
+	private static void drawPolygons(Graphics2D g, Polygon[] polygons, int[] visible, PolygonClipper clipper, FeatureCuller culler) {
+		culler.reset();
+		for (int i : visible) {
+			Rectangle bounds = polygons[i].getBounds();
+			if (culler.isSmall(bounds)) {
+				culler.fill(g, bounds, 1);
+				continue;
 			}
+			int n = clipper.clipPolygon(polygons[i]);
+			g.drawPolygon(clipper.getX(), clipper.getY(), n);
 		}
-		g.setColor(this.COLOR_GROUND_BORDER);
-		for (Polygon polygon : prefecture) {
-			if(polygon.intersects(this.screen)) {
-				g.drawPolygon(polygon);
-			}
+	}
+
+	/**
+	 * 描画範囲と外接長方形が交差するポリゴンのインデックスを返します。
+	 * @param polygons ポリゴン
+	 * @param index ポリゴンの空間インデックス（なければすべてのポリゴンと比較する）
+	 * @param area 描画範囲
+	 * @return 交差するポリゴンのインデックス（昇順）
+	 */
+	private static int[] search(Polygon[] polygons, BoundsIndex index, Rectangle area) {
+		if (index != null && index.size() == polygons.length) {
+			return index.search(area);
 		}
+		return BoundsIndex.scan(polygons, area);
 	}
 
 	public double getLocationX(int x) {
@@ -567,12 +1694,9 @@ public class MapPanel extends ExportableComponent implements Printable {
 	public void init(MapDataManager map) {
 		Log.out(this, "init called.");
 
-		this.world = map.getWorldPolygon();
-
 		//this.japan = map.getJapan();
-		this.prefectures = map.getPrefecturePolygon();
-		this.lake = new Polygon[]{prefectures[45][278], prefectures[18][1], prefectures[19][0], prefectures[7][2], prefectures[7][3], prefectures[0][84], prefectures[4][13], prefectures[1][30], prefectures[0][288], prefectures[6][9], prefectures[24][7], prefectures[31][85]};
-		this.island = new Polygon[]{prefectures[24][5], prefectures[0][82], prefectures[0][83]};
+		// 世界地図はモード0と1でのみ表示する
+		this.initPolygons(MapDataManager.getWorldPolygonLevels(2), MapDataManager.getPrefecturePolygonLevels(MapMode.getModeCount()));
 
 		this.maps = map;
 		this.maps.start();
@@ -583,6 +1707,45 @@ public class MapPanel extends ExportableComponent implements Printable {
 		this.repaint();
 	}
 
+	/**
+	 * 表示モード0と1で描画する世界地図と都道府県界を設定します。
+	 * @param world 表示モードをインデックスとする世界地図データ
+	 * @param levels 表示モードをインデックスとする都道府県データ
+	 */
+	private void initPolygons(Polygon[][][] world, Polygon[][][] levels) {
+		this.world = world;
+		int modes = levels.length;
+		// 都道府県界はモード1でのみ表示し、隣接する都道府県で共有する境界は1回だけ描画する
+		this.prefectures = Topology.build(levels[1]);
+		this.lake = new Polygon[modes][];
+		this.island = new Polygon[modes][];
+		for (int mode = 0; mode < modes; mode++) {
+			// 簡略化したポリゴンも配列の構造は変わらないため、同じインデックスで参照できる
+			Polygon[][] prefectures = levels[mode];
+			this.lake[mode] = new Polygon[]{prefectures[45][278], prefectures[18][1], prefectures[19][0], prefectures[7][2], prefectures[7][3], prefectures[0][84], prefectures[4][13], prefectures[1][30], prefectures[0][288], prefectures[6][9], prefectures[24][7], prefectures[31][85]};
+			this.island[mode] = new Polygon[]{prefectures[24][5], prefectures[0][82], prefectures[0][83]};
+		}
+		// タイルを並列に描画するため、外接長方形を事前に計算し、描画時の遅延初期化を避ける
+		// 世界地図のポリゴンは、空間インデックスの作成時に計算する
+		this.worldIndex = new BoundsIndex[this.world.length][];
+		for (int level = 0; level < this.world.length; level++) {
+			this.worldIndex[level] = new BoundsIndex[this.world[level].length];
+			for (int k = 0; k < this.world[level].length; k++) {
+				if (this.world[level][k] != null) {
+					this.worldIndex[level][k] = new BoundsIndex(this.world[level][k]);
+				}
+			}
+		}
+		for (int mode = 0; mode < modes; mode++) {
+			for (Polygon p : this.lake[mode]) {
+				p.getBounds();
+			}
+			for (Polygon p : this.island[mode]) {
+				p.getBounds();
+			}
+		}
+	}
+
 	/**
 	 * 地図データの読み込みを確認します。
 	 * @return 地図データを読み込んでいればtrueを返します。
@@ -609,13 +1772,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 	 * @return 地図の表示状態
 	 */
 	public int getMode() {
-		int i = 0;
-		do {
-			if (Float.compare(this.scale, MapPanel.MODE_SCALE[i]) < 0) {
-				break;
-			}
-		} while (++i < MapPanel.MODE_SCALE.length);
-		return i;
+		return MapMode.getMode(this.scale);
 	}
 
 	/**
@@ -637,6 +1794,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 	 * @param dy Y軸方向の移動量
 	 */
 	public void moveLocation(int dx, int dy) {
+		this.unsettle();
 		this.screen.x -= dx / this.scale;
 		this.screen.y += dy / this.scale;
 		if (this.screen.x < this.WORLD_SCREEN.x) {
@@ -674,7 +1832,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 				this.setMapLocation(centerX, centerY);
 			}
 			Graphics2D offg = (Graphics2D) this.offs.getGraphics();
-			this.draw(offg);
+			this.paintMap(offg);
 			offg.dispose();
 		}
 		g.drawImage(this.offs, 0, 0, null);
@@ -690,6 +1848,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 	}
 
 	public void setDefaultStyle() {
+		this.styleVersion++;
 		this.COLOR_GROUND = new Color(242, 239, 233);
 		this.COLOR_GROUND_BORDER = new Color(128, 128, 128);
 		this.COLOR_OTHER_RAIL = new Color(110, 110, 110);
@@ -722,15 +1881,91 @@ public class MapPanel extends ExportableComponent implements Printable {
 		this.screen.height = (int) (this.getHeight() / this.scale);
 	}
 
+	/**
+	 * 地図データの読み込みで描画内容が変わった範囲のタイルを破棄します。
+	 * @param area 描画内容が変わった範囲（緯度経度座標系）
+	 */
+	public void invalidateArea(Rectangle area) {
+		if (area != null) {
+			this.dataVersion.incrementAndGet();
+			if (this.tiles != null) {
+				// 地図データに含まれるのは陸地とバス路線のみで、鉄道路線と駅は変わらない
+				this.tiles.invalidate(area, (1 << LAYER_GROUND) | (1 << LAYER_BUS));
+			}
+		}
+	}
+
+	/**
+	 * 平行移動した地図をずらして再利用した回数を返します。
+	 * @return 再利用した回数
+	 */
+	public long getScrollCount() {
+		return this.scrollCount;
+	}
+
+	/**
+	 * 地図を画面全体で描画し直した回数を返します。
+	 * @return 描画し直した回数
+	 */
+	public long getRedrawCount() {
+		return this.redrawCount;
+	}
+
+	/**
+	 * 描画済みのタイルを返します。
+	 * @return タイルのキャッシュ、タイルを使わない場合はnull
+	 */
+	public TileCache getTileCache() {
+		return this.tiles;
+	}
+
 	/**
 	 * マウス操作の状態を設定する
 	 * @param flag マウス操作していればtrue
 	 */
 	public void setOperation(boolean flag) {
 		this.isOperation = flag;
+		if (!flag && !this.isSettled) {
+			this.settleTimer.stop();
+			this.settle();
+		}
+	}
+
+	/**
+	 * 操作を受け付けたときに、簡易な描画に切り替え、通常の描画に戻すまでの時間を計り直します。
+	 */
+	private void unsettle() {
+		if (this.isProgressive) {
+			this.isSettled = false;
+			this.settleTimer.restart();
+		}
+	}
+
+	/**
+	 * 操作が落ち着いたときに、簡易な描画のフレームの描画時間を出力し、通常の描画で描画し直します。
+	 */
+	private void settle() {
+		this.isSettled = true;
+		if (this.draftFrameCount > 0) {
+			Log.out(this, "draft " + this.draftFrameCount + " frames, avg " + String.format("%.1f", this.draftFrameTotal / 1000000.0 / this.draftFrameCount)
+					+ "ms, max " + String.format("%.1f", this.draftFrameMax / 1000000.0) + "ms, over " + (FRAME_TARGET / 1000000) + "ms " + this.draftFrameOver
+					+ ", deferred tiles " + this.deferredCount + ", created resources " + this.draftResourceCount
+					+ ", vertices " + this.draftInputVertexCount + " -> " + this.draftClippedVertexCount + ", culled features " + this.draftCulledCount);
+			this.draftFrameCount = 0;
+			this.draftFrameTotal = 0;
+			this.draftFrameMax = 0;
+			this.draftFrameOver = 0;
+			this.deferredCount = 0;
+			this.draftResourceCount = 0;
+			this.draftInputVertexCount = 0;
+			this.draftClippedVertexCount = 0;
+			this.draftCulledCount = 0;
+		}
+		this.repaint();
 	}
 	
 	public void setAxisVisible(boolean flag) {
+		this.labelVersion++;
 		this.isAxis = flag;
 	}
 	
@@ -743,6 +1978,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 	}
 	
 	public void setLabelFailureVisible(boolean flag) {
+		this.labelVersion++;
 		this.labeling.setLabelFailureVisible(flag);
 	}
 
@@ -750,6 +1986,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 	 * @param flag 鉄道表示フラグ
 	 */
 	public void setRailwayVisible(boolean flag) {
+		this.labelVersion++;
 		this.isRailwayVisible = flag;
 	}
 	
@@ -761,6 +1998,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 	 * @param flag アンチエイリアスの有無
 	 */
 	public void setAntialiasing(boolean flag) {
+		this.styleVersion++;
 		this.isAntialiasing = flag;
 	}
 	
@@ -779,6 +2017,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 	 * @param flag バス路線の表示有無
 	 */
 	public void setBusVisible(boolean flag) {
+		this.labelVersion++;
 		this.isBusVisible = flag;
 	}
 
@@ -790,6 +2029,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 	}
 	
 	public void setStationVisible(boolean flag) {
+		this.labelVersion++;
 		this.isStationVisible = flag;
 	}
 
@@ -804,6 +2044,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 	 * @param flag 駅のラベルの表示
 	 */
 	public void setStationLabelVisible(boolean flag) {
+		this.labelVersion++;
 		this.isStationLabelVisible = flag;
 	}
 
@@ -818,6 +2059,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 	 * @param flag バスのラベル表示有無
 	 */
 	public void setBusLabelVisible(boolean flag) {
+		this.labelVersion++;
 		this.isBusLabelVisible = flag;
 	}
 
@@ -832,6 +2074,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 	 * @param flag 行政区画のラベル表示有無
 	 */
 	public void setCityLabelVisible(boolean flag) {
+		this.labelVersion++;
 		this.isCityLabelVisible = flag;
 	}
 
@@ -840,6 +2083,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 	}
 	
 	public void setLabelShadowVisible(boolean flag) {
+		this.labelVersion++;
 		this.labeling.setLabelShadowVisible(flag);
 	}
 	
@@ -847,6 +2091,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 	 * @param flag テキストアンチエイリアスのフラグ
 	 */
 	public void setTextAntialiasing(boolean flag) {
+		this.labelVersion++;
 		this.labeling.setTextAntialiasing(flag);
 	}
 	
@@ -865,6 +2110,7 @@ public class MapPanel extends ExportableComponent implements Printable {
 	 * @param d
 	 */
 	public void zoom(int x, int y, int d) {
+		this.unsettle();
 		float newScale = this.scale * (1 + d * MapPanel.SCALE_SENSE);
 		if (Float.compare(newScale, MapPanel.SCALE_MAX) > 0) {
 			newScale = MapPanel.SCALE_MAX;
@@ -0,0 +1,122 @@
+package view;
+
+import java.awt.BasicStroke;
+import java.awt.Stroke;
+
+/**
+ * 表示倍率と線の種類ごとのStrokeのキャッシュ
+ *
+ * 線の太さと破線の間隔は画面上の画素で指定し、経度・緯度の座標系で描画するために表示倍率で割ったStrokeを作成します。
+ * 表示倍率は拡大・縮小でしか変わらないため、平行移動の間はStrokeを作成しません。
+ * 直近に使った数種類の表示倍率のStrokeを保持し、それより古い表示倍率のStrokeは破棄します。
+ * 複数のスレッドから同時に呼び出すことができます。
+ * @author ma38su
+ */
+public class StrokeCache {
+
+	/**
+	 * 保持する表示倍率の数
+	 */
+	private static final int SCALE_COUNT = 4;
+
+	/**
+	 * 線の種類ごとの線の太さ（画素）
+	 */
+	private final float[] widths;
+
+	/**
+	 * 線の種類ごとの破線の間隔（線の太さに対する比、0であれば実線）
+	 */
+	private final float[] dashes;
+
+	/**
+	 * 線端の形
+	 */
+	private final int cap;
+
+	/**
+	 * 線の接合部の形
+	 */
+	private final int join;
+
+	/**
+	 * 保持している表示倍率（Float.floatToIntBits）
+	 */
+	private final int[] scales = new int[SCALE_COUNT];
+
+	/**
+	 * 表示倍率ごと、線の種類ごとのStroke
+	 */
+	private final Stroke[][] strokes = new Stroke[SCALE_COUNT][];
+
+	/**
+	 * 次に置き換える表示倍率の位置
+	 */
+	private int next;
+
+	/**
+	 * 作成したStrokeの数
+	 */
+	private long createCount;
+
+	/**
+	 * コンストラクタ
+	 * @param widths 線の種類ごとの線の太さ（画素）
+	 * @param dashes 線の種類ごとの破線の間隔（線の太さに対する比、0であれば実線）
+	 * @param cap 線端の形
+	 * @param join 線の接合部の形
+	 */
+	public StrokeCache(float[] widths, float[] dashes, int cap, int join) {
+		if (widths.length != dashes.length) {
+			throw new IllegalArgumentException();
+		}
+		this.widths = widths;
+		this.dashes = dashes;
+		this.cap = cap;
+		this.join = join;
+	}
+
+	/**
+	 * 表示倍率に合わせたStrokeを取得します。
+	 * @param scale 表示倍率
+	 * @param style 線の種類
+	 * @return Stroke
+	 */
+	public synchronized Stroke get(float scale, int style) {
+		int bits = Float.floatToIntBits(scale);
+		Stroke[] row = null;
+		for (int i = 0; i < SCALE_COUNT; i++) {
+			if (this.strokes[i] != null && this.scales[i] == bits) {
+				row = this.strokes[i];
+				break;
+			}
+		}
+		if (row == null) {
+			row = new Stroke[this.widths.length];
+			this.strokes[this.next] = row;
+			this.scales[this.next] = bits;
+			this.next = (this.next + 1) % SCALE_COUNT;
+		}
+		Stroke stroke = row[style];
+		if (stroke == null) {
+			float width = this.widths[style] / scale;
+			if (this.dashes[style] > 0) {
+				float dash = width * this.dashes[style];
+				stroke = new BasicStroke(width, this.cap, this.join, 10f, new float[]{dash, dash}, 0);
+			} else {
+				stroke = new BasicStroke(width, this.cap, this.join);
+			}
+			row[style] = stroke;
+			this.createCount++;
+		}
+		return stroke;
+	}
+
+	/**
+	 * これまでに作成したStrokeの数を返します。
+	 * @return Strokeの数
+	 */
+	public synchronized long getCreateCount() {
+		return this.createCount;
+	}
+}
@@ -0,0 +1,235 @@
+package view;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 描画済みのタイルのキャッシュ
+ *
+ * タイルは表示倍率、タイル番号、描画層、描画設定の版番号、描画品質（アンチエイリアスと操作中の簡易な描画）をキーとし、
+ * 保持するタイルの数が上限を超えると最も古く参照したタイルを破棄します。
+ * 地図データの読み込みで描画内容が変わった範囲は、invalidateで破棄します。
+ * 複数のスレッドから同時に呼び出すことができます。
+ * @author ma38su
+ */
+public class TileCache {
+
+	/**
+	 * タイルのキー
+	 */
+	static class Key {
+		final int scale;
+		final int x;
+		final int y;
+		final int layer;
+		final int version;
+		final boolean isAntialias;
+		final boolean isDraft;
+
+		/**
+		 * コンストラクタ
+		 * @param scale 表示倍率
+		 * @param x X方向のタイル番号
+		 * @param y Y方向のタイル番号
+		 * @param layer 描画層
+		 * @param version 描画設定の版番号
+		 * @param isAntialias アンチエイリアスを適用して描画していればtrue
+		 * @param isDraft 操作中の簡易な描画であればtrue
+		 */
+		Key(float scale, int x, int y, int layer, int version, boolean isAntialias, boolean isDraft) {
+			this.scale = Float.floatToIntBits(scale);
+			this.x = x;
+			this.y = y;
+			this.layer = layer;
+			this.version = version;
+			this.isAntialias = isAntialias;
+			this.isDraft = isDraft;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = this.scale;
+			hash = 31 * hash + this.x;
+			hash = 31 * hash + this.y;
+			hash = 31 * hash + this.layer;
+			hash = 31 * hash + this.version;
+			hash = 2 * hash + (this.isDraft ? 1 : 0);
+			return this.isAntialias ? hash : ~hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof Key) {
+				Key key = (Key) obj;
+				return this.scale == key.scale && this.x == key.x && this.y == key.y
+						&& this.layer == key.layer && this.version == key.version && this.isAntialias == key.isAntialias && this.isDraft == key.isDraft;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * 描画済みのタイル
+	 */
+	static class Tile {
+		final BufferedImage image;
+
+		/**
+		 * タイルの範囲（緯度経度座標系）
+		 */
+		final Rectangle area;
+
+		Tile(BufferedImage image, Rectangle area) {
+			this.image = image;
+			this.area = area;
+		}
+	}
+
+	/**
+	 * 保持するタイルの数の上限
+	 */
+	private final int capacity;
+
+	/**
+	 * 参照順のタイル
+	 */
+	private final LinkedHashMap<Key, Tile> tiles;
+
+	/**
+	 * 描画層ごとの、その描画層のタイルを破棄するごとに進める番号
+	 */
+	private final int[] generations = new int[Integer.SIZE];
+
+	/**
+	 * ヒット数
+	 */
+	private long hitCount;
+
+	/**
+	 * ミス数
+	 */
+	private long missCount;
+
+	/**
+	 * コンストラクタ
+	 * @param capacity 保持するタイルの数の上限
+	 */
+	public TileCache(final int capacity) {
+		this.capacity = capacity;
+		this.tiles = new LinkedHashMap<Key, Tile>(capacity * 4 / 3 + 1, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Tile> eldest) {
+				return this.size() > TileCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * タイルを取得します。
+	 * @param key キー
+	 * @return タイル、キャッシュになければnull
+	 */
+	synchronized Tile get(Key key) {
+		Tile tile = this.tiles.get(key);
+		if (tile == null) {
+			this.missCount++;
+		} else {
+			this.hitCount++;
+		}
+		return tile;
+	}
+
+	/**
+	 * タイルを登録します。
+	 * 描画を始めてからタイルの描画層を破棄した場合は、描画内容が古い可能性があるため登録しません。
+	 * ほかの描画層のみを破棄した場合は登録します。
+	 * @param key キー
+	 * @param tile タイル
+	 * @param generations 描画を始めたときのgetGenerationsの値
+	 */
+	synchronized void put(Key key, Tile tile, int[] generations) {
+		if (this.generations[key.layer] == generations[key.layer]) {
+			this.tiles.put(key, tile);
+		}
+	}
+
+	/**
+	 * 描画層ごとの現在の番号を返します。
+	 * @return 描画層ごとの、その描画層のタイルを破棄するごとに進める番号（複製）
+	 */
+	synchronized int[] getGenerations() {
+		return this.generations.clone();
+	}
+
+	/**
+	 * 範囲と交差するタイルを破棄します。
+	 * @param area 描画内容が変わった範囲（緯度経度座標系）
+	 */
+	public void invalidate(Rectangle area) {
+		this.invalidate(area, -1);
+	}
+
+	/**
+	 * 範囲と交差するタイルのうち、指定した描画層のタイルを破棄します。
+	 * @param area 描画内容が変わった範囲（緯度経度座標系）
+	 * @param layers 破棄する描画層（1 << 描画層の論理和）
+	 */
+	public synchronized void invalidate(Rectangle area, int layers) {
+		for (int layer = 0; layer < this.generations.length; layer++) {
+			if ((layers & (1 << layer)) != 0) {
+				this.generations[layer]++;
+			}
+		}
+		Iterator<Map.Entry<Key, Tile>> itr = this.tiles.entrySet().iterator();
+		while (itr.hasNext()) {
+			Map.Entry<Key, Tile> entry = itr.next();
+			if ((layers & (1 << entry.getKey().layer)) != 0 && entry.getValue().area.intersects(area)) {
+				itr.remove();
+			}
+		}
+	}
+
+	/**
+	 * すべてのタイルを破棄します。
+	 */
+	public synchronized void clear() {
+		for (int layer = 0; layer < this.generations.length; layer++) {
+			this.generations[layer]++;
+		}
+		this.tiles.clear();
+	}
+
+	/**
+	 * 保持しているタイルの数を返します。
+	 * @return タイルの数
+	 */
+	public synchronized int size() {
+		return this.tiles.size();
+	}
+
+	/**
+	 * ヒット数を返します。
+	 * @return ヒット数
+	 */
+	public synchronized long getHitCount() {
+		return this.hitCount;
+	}
+
+	/**
+	 * ミス数を返します。
+	 * @return ミス数
+	 */
+	public synchronized long getMissCount() {
+		return this.missCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "tile cache: " + this.tiles.size() + " / " + this.capacity + " tiles, hit " + this.hitCount + ", miss " + this.missCount;
+	}
+}